@@ -1,18 +1,231 @@
 package plu.teamtwo.rtm.core.async;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A singleton thread pool which can be used across the code. Uses a Cached Thread pool to prevent unused threads from
- * idling around a long time. Use the returned futures to track when things are completed.
+ * Thread pools which can be used across the code. CPU bound work goes to a work stealing pool with a fixed number of
+ * threads, so nested use (e.g. scoring in parallel, where each score transcribes a substrate in parallel) shares the
+ * same threads instead of creating more; a thread waiting on a task from the pool helps run queued tasks. Work which
+ * mostly blocks, such as talking to another process or a game, should go to the I/O pool instead, which creates
+ * threads as needed and drops them once they sit idle. Use the returned futures to track when things are completed.
+ * <p>
+ * The number of CPU threads is taken from the rtm.parallelism system property (e.g. -Drtm.parallelism=8 on the command
+ * line), then from the rtm.parallelism key of the properties file named by the rtm.properties system property
+ * (rtm.properties in the working directory by default), and otherwise is the number of processors.
  */
 public class GlobalThreadPool {
-    private static ExecutorService threadPool = null;
+    /// Name of the property used to set the number of CPU threads.
+    public static final String PARALLELISM_PROPERTY = "rtm.parallelism";
+    /// Name of the system property with the path to the properties file.
+    public static final String PROPERTIES_FILE_PROPERTY = "rtm.properties";
+    /// How long idle I/O threads are kept around.
+    private static final long IO_KEEP_ALIVE_SECONDS = 60;
 
+    /// Read without the lock so tasks can be handed to the pool without contending for it.
+    private static volatile ForkJoinPool threadPool = null;
+    private static ThreadPoolExecutor ioPool = null;
+    /// Number of CPU threads set in code, or 0 to use the configured value.
+    private static int parallelism = 0;
+
+
+    /**
+     * Get the pool for CPU bound work, creating it if needed.
+     *
+     * @return The pool for CPU bound work.
+     */
     public static ExecutorService instance() {
-        if(threadPool == null)
-            threadPool = Executors.newCachedThreadPool();
+        final ForkJoinPool pool = threadPool;
+        return pool != null ? pool : createInstance();
+    }
+
+
+    private static synchronized ForkJoinPool createInstance() {
+        if(threadPool == null) {
+            final AtomicInteger count = new AtomicInteger(0);
+            threadPool = new ForkJoinPool(parallelism(), pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("rtm-worker-" + count.getAndIncrement());
+                return thread;
+            }, null, false);
+        }
         return threadPool;
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Run tasks on the CPU pool and wait for all of them to finish. If this is called from one of the pool's threads
+     * the tasks are forked from it as usual; otherwise they are handed to the pool together, so they never run on the
+     * common pool or on threads outside of the CPU pool.
+     *
+     * @param tasks Tasks to run.
+     */
+    public static void invokeAll(ForkJoinTask<?>... tasks) {
+        if(inPool((ForkJoinPool) instance()))
+            ForkJoinTask.invokeAll(tasks);
+        else
+            invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    }
+
+
+    /**
+     * Run a task on the CPU pool and wait for it to finish. If this is called from one of the pool's threads the task
+     * is run on it, otherwise it is handed to the pool. Nothing is allocated, so a task which is reinitialized and
+     * invoked again is cheap to hand over repeatedly.
+     *
+     * @param task Task to run.
+     */
+    public static void invoke(ForkJoinTask<?> task) {
+        final ForkJoinPool pool = (ForkJoinPool) instance();
+        if(inPool(pool)) task.invoke();
+        else pool.invoke(task);
+    }
+
+
+    /**
+     * @param pool Pool to check.
+     * @return True if the current thread is one of the pool's threads.
+     */
+    private static boolean inPool(ForkJoinPool pool) {
+        final Thread current = Thread.currentThread();
+        return current instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) current).getPool() == pool;
+    }
+
+
+    /**
+     * Get the pool for work which spends most of its time blocked, creating it if needed.
+     *
+     * @return The pool for I/O bound work.
+     */
+    public static synchronized ExecutorService ioInstance() {
+        if(ioPool == null) {
+            final AtomicInteger count = new AtomicInteger(0);
+            final ThreadFactory factory = r -> {
+                Thread thread = new Thread(r, "rtm-io-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            };
+            ioPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, IO_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                            new SynchronousQueue<>(), factory);
+        }
+        return ioPool;
+    }
+
+
+    /**
+     * Set the number of threads to use for CPU bound work in place of the configured value. This only affects the
+     * pool when it is next created, so call it before the pool is first used or after shutdown.
+     *
+     * @param threads Number of threads, or 0 to go back to the configured value.
+     */
+    public static synchronized void setParallelism(int threads) {
+        if(threads < 0)
+            throw new IllegalArgumentException("The number of threads cannot be negative.");
+        parallelism = threads;
+    }
+
+
+    /**
+     * Get the number of threads used for CPU bound work. If the pool has not been created yet, this is the number it
+     * will be created with.
+     *
+     * @return Number of threads for CPU bound work.
+     */
+    public static synchronized int parallelism() {
+        if(threadPool != null) return threadPool.getParallelism();
+        if(parallelism > 0) return parallelism;
+        return configuredParallelism();
+    }
+
+
+    /**
+     * @return Number of tasks waiting to be run by the CPU pool.
+     */
+    public static synchronized long getQueuedTasks() {
+        if(threadPool == null) return 0;
+        return threadPool.getQueuedSubmissionCount() + threadPool.getQueuedTaskCount();
+    }
+
+
+    /**
+     * @return Number of threads in the CPU pool which are currently running or stealing tasks.
+     */
+    public static synchronized int getActiveThreads() {
+        return threadPool == null ? 0 : threadPool.getActiveThreadCount();
+    }
+
+
+    /**
+     * @return Number of threads in the I/O pool which are currently running tasks.
+     */
+    public static synchronized int getActiveIOThreads() {
+        return ioPool == null ? 0 : ioPool.getActiveCount();
+    }
+
+
+    /**
+     * Stop accepting new work and wait for what has been submitted to finish. The pools are created again the next
+     * time they are used.
+     *
+     * @param timeout Maximum time to wait for each pool.
+     * @param unit    Units of the timeout.
+     * @return True if all of the work finished, false if the timeout was reached first.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public static boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        final ExecutorService cpu, io;
+        synchronized(GlobalThreadPool.class) {
+            cpu = threadPool;
+            io = ioPool;
+            threadPool = null;
+            ioPool = null;
+        }
+
+        boolean finished = true;
+        for(ExecutorService pool : new ExecutorService[]{cpu, io}) {
+            if(pool == null) continue;
+            pool.shutdown();
+            finished &= pool.awaitTermination(timeout, unit);
+        }
+        return finished;
+    }
+
+
+    /**
+     * Read the number of CPU threads from the system properties or the properties file.
+     *
+     * @return The configured number of threads, or the number of processors if none is set.
+     */
+    private static int configuredParallelism() {
+        String value = System.getProperty(PARALLELISM_PROPERTY);
+        if(value == null) {
+            Properties properties = new Properties();
+            try(InputStream in = new FileInputStream(System.getProperty(PROPERTIES_FILE_PROPERTY, "rtm.properties"))) {
+                properties.load(in);
+                value = properties.getProperty(PARALLELISM_PROPERTY);
+            } catch(IOException e) {
+                //no properties file, use the default
+            }
+        }
+
+        final int processors = Runtime.getRuntime().availableProcessors();
+        if(value == null) return processors;
+        try {
+            final int threads = Integer.parseInt(value.trim());
+            return threads > 0 ? threads : processors;
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + PARALLELISM_PROPERTY + ": " + value, e);
+        }
+    }
+}
@@ -1,9 +1,46 @@
 package plu.teamtwo.rtm.core.util;
 
-import java.util.Random;
-
+import java.util.SplittableRandom;
+
+/**
+ * Random values for the whole system. Calls use the stream bound to the current thread, or a shared stream derived from
+ * the run seed if none is bound. The shared stream is locked on every call, so work which runs on several threads
+ * should split off a stream for each task in a fixed order and bind it on whatever thread runs the task. This keeps
+ * the threads from contending and makes runs with the same seed identical no matter how the work is scheduled.
+ */
 public class Rand {
-    private static final Random random = new Random();
+    /// Stream used by threads which have not bound one, guarded by the class lock.
+    private static SplittableRandom shared = new SplittableRandom();
+    /// Stream used by the current thread in place of the shared one, if one has been set.
+    private static final ThreadLocal<SplittableRandom> stream = new ThreadLocal<>();
+
+
+    /**
+     * Use a specific random stream for all calls made from the current thread.
+     *
+     * @param random Stream to use on this thread, or null to go back to using the shared one.
+     */
+    public static void useStream(SplittableRandom random) {
+        if(random == null)
+            stream.remove();
+        else
+            stream.set(random);
+    }
+
+
+    /**
+     * Split off a new stream from the current one. The new stream is independent of the one it came from, but
+     * splitting the same streams in the same order always gives the same results.
+     *
+     * @return A new stream, e.g. for a task to use with useStream.
+     */
+    public static SplittableRandom split() {
+        final SplittableRandom r = stream.get();
+        if(r != null) return r.split();
+        synchronized(Rand.class) {
+            return shared.split();
+        }
+    }
 
 
     /**
@@ -30,7 +67,7 @@ public class Rand {
         if(min > max)
             throw new IllegalArgumentException("Max must be greater than min");
 
-        return random.nextFloat() * (max - min) + min;
+        return nextFloat() * (max - min) + min;
     }
 
 
@@ -45,7 +82,12 @@ public class Rand {
         if(min > max)
             throw new IllegalArgumentException("Max must be greater than min");
 
-        return random.nextInt(max - min + 1) + min;
+        final int bound = max - min + 1;
+        final SplittableRandom r = stream.get();
+        if(r != null) return r.nextInt(bound) + min;
+        synchronized(Rand.class) {
+            return shared.nextInt(bound) + min;
+        }
     }
 
 
@@ -61,7 +103,7 @@ public class Rand {
      * @return An index in the range [0, n)
      */
     public static int randomBackWeightedIndex(int n, float w) {
-        final float x = random.nextFloat();
+        final float x = nextFloat();
         final float b = (float) n * w + 1.0f;
         return (int) ((b - Math.pow(b, 1.0f - x)) / w);
     }
@@ -79,18 +121,38 @@ public class Rand {
      * @return An index in the range [0, n)
      */
     public static int randomFrontWeightedIndex(int n, float w) {
-        final float x = random.nextFloat();
+        final float x = nextFloat();
         final float numerator = (float) (Math.pow(n * w + 1.0f, x) - 1.0f);
         return (int) (numerator / w);
     }
 
 
+    /**
+     * Generate a random value from the current thread's stream.
+     *
+     * @return A random number in the range [0, 1).
+     */
+    private static float nextFloat() {
+        final SplittableRandom r = stream.get();
+        final int bits;
+        if(r != null) {
+            bits = r.nextInt();
+        } else {
+            synchronized(Rand.class) {
+                bits = shared.nextInt();
+            }
+        }
+        //24 random bits fill the significand of a float exactly
+        return (bits >>> 8) * 0x1.0p-24f;
+    }
+
+
     /**
      * Set the random seed to be used for future calculations.
      *
      * @param seed A seed to be used for calculated values.
      */
-    public static void seedRandom(long seed) {
-        random.setSeed(seed);
+    public static synchronized void seedRandom(long seed) {
+        shared = new SplittableRandom(seed);
     }
 }
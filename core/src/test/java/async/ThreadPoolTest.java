@@ -8,6 +8,10 @@ import java.util.LinkedList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class ThreadPoolTest {
 
@@ -27,6 +31,35 @@ public class ThreadPoolTest {
         }
     }
 
+    @Test
+    public void testConfiguredPool() throws ExecutionException, InterruptedException {
+        GlobalThreadPool.shutdown(10, TimeUnit.SECONDS);
+        GlobalThreadPool.setParallelism(2);
+        try {
+            ExecutorService threadPool = GlobalThreadPool.instance();
+            assertEquals(2, GlobalThreadPool.parallelism());
+
+            //waiting on work from inside the pool must not starve it, even with more tasks than threads
+            Future<Integer> outer = threadPool.submit(() -> {
+                LinkedList<Future<String>> inner = new LinkedList<>();
+                for(int i = 0; i < 8; ++i)
+                    inner.add(threadPool.submit(() -> Thread.currentThread().getName()));
+                int named = 0;
+                for(Future<String> f : inner)
+                    if(f.get().startsWith("rtm-worker-")) named++;
+                return named;
+            });
+            assertEquals(8, (int) outer.get());
+            assertTrue(GlobalThreadPool.getQueuedTasks() >= 0);
+
+            assertTrue(GlobalThreadPool.shutdown(10, TimeUnit.SECONDS));
+            assertTrue(threadPool.isShutdown());
+        } finally {
+            GlobalThreadPool.setParallelism(0);
+        }
+    }
+
+
     @Test
     public void testNonThreadPool() throws ExecutionException, InterruptedException {
         for(int x = 0; x < 10; ++ x) {
@@ -4,6 +4,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.SplittableRandom;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -97,4 +98,32 @@ public class RandTest {
             last = dist[x];
         }
     }
-}
\ No newline at end of file
+
+
+    @Test
+    public void testUseStream() {
+        final SplittableRandom first = split(), second = split();
+        seedRandom(790214376);
+        final SplittableRandom again = split();
+
+        float[] expected = new float[10];
+        useStream(first);
+        for(int x = 0; x < expected.length; ++x)
+            expected[x] = getRandomNum(0.0f, 1.0f);
+
+        //the shared generator should not affect a stream, and splitting from the same seed gives the same stream
+        seedRandom(5);
+        getRandomNum(0, 10);
+        useStream(again);
+        for(int x = 0; x < expected.length; ++x)
+            assertEquals(expected[x], getRandomNum(0.0f, 1.0f), 0.0f);
+
+        //streams split one after another are different
+        useStream(second);
+        boolean different = false;
+        for(int x = 0; x < expected.length; ++x)
+            different |= expected[x] != getRandomNum(0.0f, 1.0f);
+        assertTrue(different);
+        useStream(null);
+    }
+}
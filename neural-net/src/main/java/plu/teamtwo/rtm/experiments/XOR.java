@@ -3,6 +3,7 @@ package plu.teamtwo.rtm.experiments;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import plu.teamtwo.rtm.genome.graph.GraphEncodingBuilder;
+import plu.teamtwo.rtm.neat.EvaluationCache;
 import plu.teamtwo.rtm.neat.GAController;
 import plu.teamtwo.rtm.neat.Individual;
 import plu.teamtwo.rtm.neat.ScoringFunction;
@@ -32,6 +33,8 @@ public class XOR implements Runnable {
                         .hiddenFunction(ActivationFunction.TANH)
         );
 
+        //XOR always gives the same score to the same network, so unchanged genomes do not need to be scored again
+        controller.setEvaluationCache(new EvaluationCache(10000, 10));
         controller.createFirstGeneration();
 
         for(int g = 0; g < 1000; ++g) {
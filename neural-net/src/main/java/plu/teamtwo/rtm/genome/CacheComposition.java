@@ -2,6 +2,8 @@ package plu.teamtwo.rtm.genome;
 
 import plu.teamtwo.rtm.core.util.Pair;
 
+import java.io.IOException;
+
 class CacheComposition extends Pair<GenomeCache, GenomeCache> implements GenomeCache {
     CacheComposition() {
         super();
@@ -21,4 +23,16 @@ class CacheComposition extends Pair<GenomeCache, GenomeCache> implements GenomeC
         a.newGeneration();
         b.newGeneration();
     }
+
+
+    /**
+     * Write both caches to a binary checkpoint, one after the other.
+     *
+     * @param out Checkpoint to write to.
+     */
+    @Override
+    public void write(CheckpointOutput out) throws IOException {
+        a.write(out);
+        b.write(out);
+    }
 }
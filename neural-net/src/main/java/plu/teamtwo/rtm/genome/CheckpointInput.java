@@ -0,0 +1,180 @@
+package plu.teamtwo.rtm.genome;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the compact binary checkpoint format written by CheckpointOutput. Values must be read back in the same order
+ * they were written.
+ */
+public class CheckpointInput implements AutoCloseable {
+    private final DataInputStream in;
+    /// Decompressor of the body, or null if it is not compressed. Streams given an inflater do not end it when closed.
+    private final Inflater inflater;
+
+
+    /**
+     * Start reading a checkpoint. The header is read and checked immediately.
+     *
+     * @param stream Stream to read from, it is closed with the checkpoint.
+     * @throws IOException If the stream does not start with a checkpoint header this version can read.
+     */
+    public CheckpointInput(InputStream stream) throws IOException {
+        DataInputStream header = new DataInputStream(stream);
+        if(header.readInt() != CheckpointOutput.MAGIC)
+            throw new StreamCorruptedException("Not a checkpoint.");
+        final int version = header.readUnsignedByte();
+        if(version != CheckpointOutput.VERSION)
+            throw new StreamCorruptedException("Unsupported checkpoint version " + version + ".");
+        final int flags = header.readUnsignedByte();
+
+        inflater = (flags & CheckpointOutput.FLAG_DEFLATE) != 0 ? new Inflater() : null;
+        if(inflater != null)
+            stream = new InflaterInputStream(stream, inflater, 1 << 16);
+        in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+    }
+
+
+    /**
+     * Wrap a stream which does not start with a header.
+     *
+     * @param in Stream to read from, it is closed with the checkpoint.
+     */
+    private CheckpointInput(DataInputStream in) {
+        this.in = in;
+        inflater = null;
+    }
+
+
+    /**
+     * Read values written by CheckpointOutput.raw, which have no header.
+     *
+     * @param stream Stream to read from, it is closed with the checkpoint.
+     * @return The input.
+     */
+    public static CheckpointInput raw(InputStream stream) {
+        return new CheckpointInput(new DataInputStream(stream));
+    }
+
+
+    /**
+     * Read a varint written by writeVarInt.
+     *
+     * @return The value, which will not be negative.
+     */
+    public int readVarInt() throws IOException {
+        final int value = readUnsigned();
+        if(value < 0)
+            throw new StreamCorruptedException("Varint out of range.");
+        return value;
+    }
+
+
+    /**
+     * Read a zigzag encoded varint written by writeSignedVarInt.
+     *
+     * @return The value.
+     */
+    public int readSignedVarInt() throws IOException {
+        final int zigzag = readUnsigned();
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+
+    /**
+     * Read a sorted array of IDs written by writeSortedIDs.
+     *
+     * @return The IDs in ascending order, the array is exactly as long as the number of IDs.
+     */
+    public int[] readSortedIDs() throws IOException {
+        int[] ids = new int[readVarInt()];
+        int last = -1;
+        for(int i = 0; i < ids.length; ++i) {
+            last += readVarInt() + 1;
+            if(last < 0)
+                throw new StreamCorruptedException("ID out of range.");
+            ids[i] = last;
+        }
+        return ids;
+    }
+
+
+    /**
+     * Read an array of flags written by writeFlags.
+     *
+     * @param size Number of flags which were written.
+     * @return The flags.
+     */
+    public boolean[] readFlags(int size) throws IOException {
+        boolean[] flags = new boolean[size];
+        for(int i = 0; i < size; i += 8) {
+            final int packed = in.readUnsignedByte();
+            for(int b = 0; b < 8 && i + b < size; ++b)
+                flags[i + b] = (packed & (1 << b)) != 0;
+        }
+        return flags;
+    }
+
+
+    public long readLong() throws IOException {
+        return in.readLong();
+    }
+
+
+    public float readFloat() throws IOException {
+        return in.readFloat();
+    }
+
+
+    public boolean readBoolean() throws IOException {
+        return in.readBoolean();
+    }
+
+
+    /**
+     * Read an enum constant written by writeEnum.
+     *
+     * @param constants Constants of the enum, e.g. from values().
+     * @return The constant, or null if null was written.
+     */
+    public <T extends Enum<T>> T readEnum(T[] constants) throws IOException {
+        final int value = readVarInt();
+        if(value > constants.length)
+            throw new StreamCorruptedException("Unknown enum constant " + (value - 1) + ".");
+        return value == 0 ? null : constants[value - 1];
+    }
+
+
+    /**
+     * Close the underlying stream and free the decompressor.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            if(inflater != null) inflater.end();
+        }
+    }
+
+
+    /**
+     * Read the bits of a varint, treating it as unsigned.
+     *
+     * @return The value.
+     */
+    private int readUnsigned() throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        throw new StreamCorruptedException("Varint is too long.");
+    }
+}
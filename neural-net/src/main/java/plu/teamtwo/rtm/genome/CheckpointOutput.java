@@ -0,0 +1,180 @@
+package plu.teamtwo.rtm.genome;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes the compact binary checkpoint format, read back with CheckpointInput. Integers are written as varints (7 bits
+ * per byte, low bits first) so the small values which make up most of a genome take a single byte, and sorted ID
+ * arrays are written as the differences between neighbouring IDs. Everything after the header can optionally be
+ * compressed with Deflate.
+ * <p>
+ * Values are written one at a time as the caller walks its data, so nothing has to be collected in memory first.
+ */
+public class CheckpointOutput implements AutoCloseable {
+    /// Marks the start of a checkpoint, "RTMC".
+    static final int MAGIC = 0x52544D43;
+    /// Version of the format, increase when it changes.
+    static final int VERSION = 1;
+    /// Header flag for a Deflate compressed body.
+    static final int FLAG_DEFLATE = 1;
+
+    private final DataOutputStream out;
+    /// Compressor of the body, or null if it is not compressed. Streams given a deflater do not end it when closed.
+    private final Deflater deflater;
+
+
+    /**
+     * Start writing a checkpoint. The header is written immediately.
+     *
+     * @param stream   Stream to write to, it is closed with the checkpoint.
+     * @param compress True if the body should be compressed with Deflate.
+     * @throws IOException If the header could not be written.
+     */
+    public CheckpointOutput(OutputStream stream, boolean compress) throws IOException {
+        DataOutputStream header = new DataOutputStream(stream);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(compress ? FLAG_DEFLATE : 0);
+
+        deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        if(compress)
+            stream = new DeflaterOutputStream(stream, deflater, 1 << 16);
+        out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+    }
+
+
+    /**
+     * Wrap a stream without writing a header or compressing it, for records which are embedded in a larger file.
+     *
+     * @param out Stream to write to, it is closed with the checkpoint.
+     */
+    private CheckpointOutput(DataOutputStream out) {
+        this.out = out;
+        deflater = null;
+    }
+
+
+    /**
+     * Write values to a stream without a header, e.g. a record in a file which is read back a record at a time. Read
+     * it back with CheckpointInput.raw.
+     *
+     * @param stream Stream to write to, it is closed with the checkpoint.
+     * @return The output.
+     */
+    public static CheckpointOutput raw(OutputStream stream) {
+        return new CheckpointOutput(new DataOutputStream(stream));
+    }
+
+
+    /**
+     * Write a non-negative integer as a varint.
+     *
+     * @param value Value to write, must not be negative.
+     */
+    public void writeVarInt(int value) throws IOException {
+        if(value < 0)
+            throw new IllegalArgumentException("Varints cannot be negative, use writeSignedVarInt.");
+        writeUnsigned(value);
+    }
+
+
+    /**
+     * Write any integer as a zigzag encoded varint, so values close to zero take few bytes whatever their sign.
+     *
+     * @param value Value to write.
+     */
+    public void writeSignedVarInt(int value) throws IOException {
+        writeUnsigned((value << 1) ^ (value >> 31));
+    }
+
+
+    /**
+     * Write a sorted array of unique, non-negative IDs as the first value followed by the gap to each next one.
+     *
+     * @param ids  Array with the IDs in ascending order.
+     * @param size Number of IDs from the start of the array to write.
+     */
+    public void writeSortedIDs(int[] ids, int size) throws IOException {
+        writeVarInt(size);
+        int last = -1;
+        for(int i = 0; i < size; ++i) {
+            if(ids[i] <= last)
+                throw new IllegalArgumentException("IDs must be unique and in ascending order.");
+            writeVarInt(ids[i] - last - 1);
+            last = ids[i];
+        }
+    }
+
+
+    /**
+     * Write an array of flags, packed eight to a byte.
+     *
+     * @param flags Flags to write.
+     * @param size  Number of flags from the start of the array to write.
+     */
+    public void writeFlags(boolean[] flags, int size) throws IOException {
+        for(int i = 0; i < size; i += 8) {
+            int packed = 0;
+            for(int b = 0; b < 8 && i + b < size; ++b)
+                if(flags[i + b]) packed |= 1 << b;
+            out.writeByte(packed);
+        }
+    }
+
+
+    public void writeLong(long value) throws IOException {
+        out.writeLong(value);
+    }
+
+
+    public void writeFloat(float value) throws IOException {
+        out.writeFloat(value);
+    }
+
+
+    public void writeBoolean(boolean value) throws IOException {
+        out.writeBoolean(value);
+    }
+
+
+    /**
+     * Write an enum constant by its ordinal. Null is allowed.
+     *
+     * @param value Constant to write, or null.
+     */
+    public void writeEnum(Enum<?> value) throws IOException {
+        writeVarInt(value == null ? 0 : value.ordinal() + 1);
+    }
+
+
+    /**
+     * Finish the checkpoint, flushing and closing the underlying stream, and free the compressor.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            if(deflater != null) deflater.end();
+        }
+    }
+
+
+    /**
+     * Write the bits of an integer as a varint, treating it as unsigned.
+     *
+     * @param value Value to write.
+     */
+    private void writeUnsigned(int value) throws IOException {
+        while((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
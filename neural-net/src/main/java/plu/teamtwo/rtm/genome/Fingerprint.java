@@ -0,0 +1,35 @@
+package plu.teamtwo.rtm.genome;
+
+/**
+ * Helpers for building genome fingerprints. A fingerprint of a set of genes is the sum of a mixed hash of each gene, so
+ * it does not depend on the order of the genes and a gene can be replaced by subtracting its old hash and adding the
+ * new one, without hashing the rest of the genome again.
+ */
+public final class Fingerprint {
+    private Fingerprint() {}
+
+
+    /**
+     * Spread the bits of a value over the whole hash (the finalizer of SplitMix64).
+     *
+     * @param value Value to mix.
+     * @return The mixed value.
+     */
+    public static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+
+    /**
+     * Combine two hashes so that the order matters, e.g. a fingerprint and the next part of the genome.
+     *
+     * @param hash  Hash so far.
+     * @param value Value to add to it.
+     * @return The combined hash.
+     */
+    public static long combine(long hash, long value) {
+        return mix(hash * 0x9e3779b97f4a7c15L + value);
+    }
+}
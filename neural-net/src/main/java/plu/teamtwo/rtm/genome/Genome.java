@@ -2,6 +2,7 @@ package plu.teamtwo.rtm.genome;
 
 import plu.teamtwo.rtm.neural.NeuralNetwork;
 
+import java.io.IOException;
 import java.util.concurrent.Callable;
 
 public interface Genome {
@@ -59,6 +60,16 @@ public interface Genome {
     void mutate(GenomeCache cache);
 
 
+    /**
+     * Called once every genome of a generation has been created, one genome at a time in population order. Genomes
+     * which put off registering their mutations with the cache, so they can be mutated on any thread, register them
+     * here.
+     *
+     * @param cache Cached information about the genome.
+     */
+    default void finishGeneration(GenomeCache cache) {}
+
+
     /**
      * Cross the genomes of two parents to create a child. This will take the disjoint and excess genes from the most
      * fit parent and randomly choose between the matching ones.
@@ -82,6 +93,16 @@ public interface Genome {
     float compatibilityDistance(Genome other);
 
 
+    /**
+     * A hash of everything which affects the network the genome creates, its structure and its weights. Genomes which
+     * create the same network have the same fingerprint, so results of evaluating one can be reused for the other.
+     * It should be kept up to date as the genome is mutated rather than recalculated from the whole genome each time.
+     *
+     * @return The fingerprint of the genome.
+     */
+    long fingerprint();
+
+
     /**
      * Create a runnable ANN which is represented by the genome.
      *
@@ -90,6 +111,28 @@ public interface Genome {
     NeuralNetwork constructNeuralNetwork();
 
 
+    /**
+     * Write the genome to a binary checkpoint. It is read back by the builder of the same type of genome.
+     *
+     * @param out Checkpoint to write to.
+     * @throws IOException If it could not be written.
+     */
+    void write(CheckpointOutput out) throws IOException;
+
+
+    /**
+     * Write the genome to a binary checkpoint as its differences from another genome of the same type, which has to be
+     * given again to read it back. Genomes which cannot describe their differences write themselves in full.
+     *
+     * @param out  Checkpoint to write to.
+     * @param base Genome to describe the differences from.
+     * @throws IOException If it could not be written.
+     */
+    default void writeDiff(CheckpointOutput out, Genome base) throws IOException {
+        write(out);
+    }
+
+
     /**
      * Construct a neural network given a Genome.
      */
@@ -1,5 +1,7 @@
 package plu.teamtwo.rtm.genome;
 
+import java.io.IOException;
+
 public interface GenomeBuilder {
     /**
      * Create and return the appropriate type of cache to be used for the given genome.
@@ -16,4 +18,37 @@ public interface GenomeBuilder {
      * @return A new genome ready for use.
      */
     Genome create(GenomeCache cache);
+
+
+    /**
+     * Read a cache written to a binary checkpoint by a cache of the type this builder creates.
+     *
+     * @param in Checkpoint to read from.
+     * @return The cache as it was when written.
+     * @throws IOException If it could not be read.
+     */
+    GenomeCache readCache(CheckpointInput in) throws IOException;
+
+
+    /**
+     * Read a genome written to a binary checkpoint by a genome of the type this builder creates.
+     *
+     * @param in Checkpoint to read from.
+     * @return The genome as it was when written.
+     * @throws IOException If it could not be read.
+     */
+    Genome read(CheckpointInput in) throws IOException;
+
+
+    /**
+     * Read a genome written to a binary checkpoint as its differences from another genome, see Genome.writeDiff.
+     *
+     * @param in   Checkpoint to read from.
+     * @param base The genome the differences were written from.
+     * @return The genome as it was when written.
+     * @throws IOException If it could not be read.
+     */
+    default Genome readDiff(CheckpointInput in, Genome base) throws IOException {
+        return read(in);
+    }
 }
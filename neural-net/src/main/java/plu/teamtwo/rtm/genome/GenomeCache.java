@@ -1,5 +1,7 @@
 package plu.teamtwo.rtm.genome;
 
+import java.io.IOException;
+
 /**
  * Used to track mutations within a generation to properly give the same identification.
  */
@@ -8,6 +10,16 @@ public interface GenomeCache {
      * Called when a new generation is created, will setup cache for continued use.
      */
     void newGeneration();
+
+
+    /**
+     * Write the state which needs to carry over between generations (e.g. the next IDs to give out) to a binary
+     * checkpoint. It is read back by the builder of the genomes it is used with.
+     *
+     * @param out Checkpoint to write to.
+     * @throws IOException If it could not be written.
+     */
+    void write(CheckpointOutput out) throws IOException;
 }
 
 
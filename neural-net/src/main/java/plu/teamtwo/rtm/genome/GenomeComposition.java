@@ -3,6 +3,8 @@ package plu.teamtwo.rtm.genome;
 import plu.teamtwo.rtm.core.util.Pair;
 import plu.teamtwo.rtm.neural.NeuralNetworkComposition;
 
+import java.io.IOException;
+
 public class GenomeComposition extends Pair<Genome, Genome> implements Genome {
     public GenomeComposition() {
         super();
@@ -14,6 +16,21 @@ public class GenomeComposition extends Pair<Genome, Genome> implements Genome {
     }
 
 
+    /**
+     * Read a composition written to a binary checkpoint.
+     *
+     * @param in       Checkpoint to read from.
+     * @param builderA Builder for the type of the first genome.
+     * @param builderB Builder for the type of the second genome.
+     * @return The composition as it was when written.
+     */
+    public static GenomeComposition read(CheckpointInput in, GenomeBuilder builderA, GenomeBuilder builderB)
+            throws IOException {
+        Genome a = builderA.read(in);
+        return new GenomeComposition(a, builderB.read(in));
+    }
+
+
     /**
      * Create a deep copy of the genome. This will enable the copy to be modified without altering the original.
      *
@@ -49,6 +66,19 @@ public class GenomeComposition extends Pair<Genome, Genome> implements Genome {
     }
 
 
+    /**
+     * Called once every genome of a generation has been created, one genome at a time in population order.
+     *
+     * @param gCache Cached information about the genome.
+     */
+    @Override
+    public void finishGeneration(GenomeCache gCache) {
+        CacheComposition cache = (CacheComposition) gCache;
+        a.finishGeneration(cache.a);
+        b.finishGeneration(cache.b);
+    }
+
+
     /**
      * Cross the genomes of two parents to create a child. This will take the disjoint and excess genes from the most
      * fit parent and randomly choose between the matching ones.
@@ -84,6 +114,15 @@ public class GenomeComposition extends Pair<Genome, Genome> implements Genome {
     }
 
 
+    /**
+     * @return A fingerprint of both genomes.
+     */
+    @Override
+    public long fingerprint() {
+        return Fingerprint.combine(a.fingerprint(), b.fingerprint());
+    }
+
+
     /**
      * Create a runnable ANN which is represented by the genome.
      *
@@ -96,4 +135,16 @@ public class GenomeComposition extends Pair<Genome, Genome> implements Genome {
                 b.constructNeuralNetwork()
         );
     }
+
+
+    /**
+     * Write both genomes to a binary checkpoint, one after the other.
+     *
+     * @param out Checkpoint to write to.
+     */
+    @Override
+    public void write(CheckpointOutput out) throws IOException {
+        a.write(out);
+        b.write(out);
+    }
 }
@@ -0,0 +1,156 @@
+package plu.teamtwo.rtm.genome.graph;
+
+import java.util.Arrays;
+
+/**
+ * Maps a connection between two nodes to the innovation number of the edge which makes it. This is an open addressing
+ * hash table with linear probing over primitive arrays, so lookups neither box nor allocate. Connections cannot be
+ * removed, which matches how edge genes are only ever added to a genome.
+ */
+class ConnectionIndex {
+    /// Value stored in slots which do not hold a connection, innovation numbers are never negative.
+    private static final int EMPTY = -1;
+    /// Used to spread the packed keys across the table (the golden ratio in 64 bit fixed point).
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /// Packed (from, to) for each slot.
+    private long[] keys;
+    /// Innovation number for each slot, or EMPTY.
+    private int[] values;
+    /// Number of connections stored.
+    private int size;
+    /// Amount to shift the hash by to get a slot, 64 - log2(capacity).
+    private int shift;
+
+
+    /**
+     * Create an empty index.
+     *
+     * @param expected Number of connections to make room for before growing.
+     */
+    ConnectionIndex(int expected) {
+        //keep the table at most half full
+        int capacity = Integer.highestOneBit(Math.max(expected, 4) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+
+    /**
+     * Make a deep copy of another index.
+     *
+     * @param other Index to copy.
+     */
+    ConnectionIndex(ConnectionIndex other) {
+        keys = other.keys.clone();
+        values = other.values.clone();
+        size = other.size;
+        shift = other.shift;
+    }
+
+
+    /**
+     * @return Number of connections in the index.
+     */
+    int size() {
+        return size;
+    }
+
+
+    /**
+     * Get the innovation number of the edge which connects two nodes.
+     *
+     * @param from ID of the node the edge comes from.
+     * @param to   ID of the node the edge goes to.
+     * @return Innovation number of the edge, or -1 if there is no such edge.
+     */
+    int get(int from, int to) {
+        final long key = pack(from, to);
+        final int mask = values.length - 1;
+        for(int slot = slot(key); ; slot = (slot + 1) & mask) {
+            if(values[slot] == EMPTY) return -1;
+            if(keys[slot] == key) return values[slot];
+        }
+    }
+
+
+    /**
+     * Record the innovation number of the edge which connects two nodes, replacing any previous one.
+     *
+     * @param from ID of the node the edge comes from.
+     * @param to   ID of the node the edge goes to.
+     * @param id   Innovation number of the edge.
+     */
+    void put(int from, int to, int id) {
+        if((size + 1) * 2 > values.length) rehash(values.length * 2);
+        insert(pack(from, to), id);
+    }
+
+
+    /**
+     * Store a value in the table without checking the load.
+     *
+     * @param key Packed connection.
+     * @param id  Innovation number of the edge.
+     */
+    private void insert(long key, int id) {
+        final int mask = values.length - 1;
+        int slot = slot(key);
+        while(values[slot] != EMPTY && keys[slot] != key)
+            slot = (slot + 1) & mask;
+
+        if(values[slot] == EMPTY) size++;
+        keys[slot] = key;
+        values[slot] = id;
+    }
+
+
+    /**
+     * Move every connection into a table of a different size.
+     *
+     * @param capacity New number of slots, must be a power of two.
+     */
+    private void rehash(int capacity) {
+        final long[] oldKeys = keys;
+        final int[] oldValues = values;
+        allocate(capacity);
+
+        for(int i = 0; i < oldValues.length; ++i)
+            if(oldValues[i] != EMPTY)
+                insert(oldKeys[i], oldValues[i]);
+    }
+
+
+    /**
+     * Replace the table with an empty one.
+     *
+     * @param capacity Number of slots, must be a power of two.
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, EMPTY);
+        size = 0;
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+
+    /**
+     * @param key Packed connection.
+     * @return First slot to look for the connection in.
+     */
+    private int slot(long key) {
+        return (int) ((key * HASH_MULTIPLIER) >>> shift);
+    }
+
+
+    /**
+     * Pack the two ends of a connection into a single key.
+     *
+     * @param from ID of the node the edge comes from.
+     * @param to   ID of the node the edge goes to.
+     * @return Unique key for the connection.
+     */
+    private static long pack(int from, int to) {
+        return ((long) from << 32) | (to & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,422 @@
+package plu.teamtwo.rtm.genome.graph;
+
+import plu.teamtwo.rtm.genome.CheckpointInput;
+import plu.teamtwo.rtm.genome.CheckpointOutput;
+import plu.teamtwo.rtm.genome.Fingerprint;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The edge genes of a graph encoding stored as parallel arrays kept sorted by innovation number. Edges are referred to
+ * by their index in the arrays, which changes only when an edge with a lower innovation number is inserted.
+ */
+class EdgeGenes {
+    /// Capacity to use for an empty set of genes.
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /// Number of edges stored, the arrays may be longer.
+    private int size;
+    /// Innovation number of each edge, in ascending order.
+    private int[] ids;
+    /// ID of the node each edge comes from.
+    private int[] from;
+    /// ID of the node each edge goes to.
+    private int[] to;
+    /// Weight of each edge.
+    private float[] weights;
+    /// True if the edge is expressed.
+    private boolean[] enabled;
+    /// Innovation number of the edge between each pair of nodes, built when first needed.
+    private transient ConnectionIndex connections;
+    /// Sum of the hash of every edge, only kept up to date once it has been calculated.
+    private transient long fingerprint;
+    private transient boolean hashed = false;
+
+
+    /**
+     * Create an empty set of edge genes.
+     *
+     * @param capacity Number of edges to make room for.
+     */
+    EdgeGenes(int capacity) {
+        capacity = Math.max(capacity, 1);
+        ids = new int[capacity];
+        from = new int[capacity];
+        to = new int[capacity];
+        weights = new float[capacity];
+        enabled = new boolean[capacity];
+    }
+
+
+    /**
+     * Make a deep copy of another set of edge genes.
+     *
+     * @param other Edge genes to copy.
+     */
+    EdgeGenes(EdgeGenes other) {
+        size = other.size;
+        final int capacity = Math.max(size, 1);
+        ids = Arrays.copyOf(other.ids, capacity);
+        from = Arrays.copyOf(other.from, capacity);
+        to = Arrays.copyOf(other.to, capacity);
+        weights = Arrays.copyOf(other.weights, capacity);
+        enabled = Arrays.copyOf(other.enabled, capacity);
+        if(other.connections != null)
+            connections = new ConnectionIndex(other.connections);
+        fingerprint = other.fingerprint;
+        hashed = other.hashed;
+    }
+
+
+    /**
+     * This should only be used by serialization.
+     */
+    private EdgeGenes() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * Read edge genes written to a binary checkpoint.
+     *
+     * @param in Checkpoint to read from.
+     * @return The edge genes.
+     */
+    static EdgeGenes read(CheckpointInput in) throws IOException {
+        EdgeGenes genes = new EdgeGenes(0);
+        genes.ids = in.readSortedIDs();
+        genes.size = genes.ids.length;
+        final int capacity = Math.max(genes.size, 1);
+        genes.ids = Arrays.copyOf(genes.ids, capacity);
+        genes.from = new int[capacity];
+        genes.to = new int[capacity];
+        genes.weights = new float[capacity];
+        for(int i = 0; i < genes.size; ++i) {
+            genes.from[i] = in.readVarInt();
+            genes.to[i] = in.readVarInt();
+            genes.weights[i] = in.readFloat();
+        }
+        genes.enabled = Arrays.copyOf(in.readFlags(genes.size), capacity);
+        return genes;
+    }
+
+
+    /**
+     * Read edge genes written as their differences from other edge genes.
+     *
+     * @param in   Checkpoint to read from.
+     * @param base Edge genes the differences were written from.
+     * @return The edge genes.
+     */
+    static EdgeGenes readDiff(CheckpointInput in, EdgeGenes base) throws IOException {
+        final int[] removed = in.readSortedIDs();
+        final int[] added = in.readSortedIDs();
+        final int[] addedFrom = new int[added.length], addedTo = new int[added.length];
+        for(int a = 0; a < added.length; ++a) {
+            addedFrom[a] = in.readVarInt();
+            addedTo[a] = in.readVarInt();
+        }
+
+        //merge the added edges into the base edges which were kept, remembering where each came from
+        EdgeGenes genes = new EdgeGenes(base.size + added.length);
+        int[] baseIndex = new int[base.size + added.length];
+        int b = 0, r = 0, a = 0;
+        while(b < base.size || a < added.length) {
+            if(a < added.length && (b >= base.size || added[a] < base.ids[b])) {
+                baseIndex[genes.size] = -1;
+                genes.add(added[a], addedFrom[a], addedTo[a], 0.0f, false);
+                a++;
+                continue;
+            }
+            while(r < removed.length && removed[r] < base.ids[b]) ++r;
+            if(r >= removed.length || removed[r] != base.ids[b]) {
+                baseIndex[genes.size] = b;
+                genes.add(base.ids[b], base.from[b], base.to[b], 0.0f, false);
+            }
+            b++;
+        }
+
+        final boolean[] differs = in.readFlags(genes.size);
+        for(int i = 0; i < genes.size; ++i)
+            genes.weights[i] = differs[i] || baseIndex[i] < 0 ? in.readFloat() : base.weights[baseIndex[i]];
+        final boolean[] enabled = in.readFlags(genes.size);
+        System.arraycopy(enabled, 0, genes.enabled, 0, genes.size);
+        return genes;
+    }
+
+
+    /**
+     * Write the edge genes as their differences from other edge genes; the innovation numbers of the edges which were
+     * removed, then the edges which were added, then the weights which changed. The enabled flags are always written.
+     *
+     * @param out  Checkpoint to write to.
+     * @param base Edge genes to describe the differences from.
+     */
+    void writeDiff(CheckpointOutput out, EdgeGenes base) throws IOException {
+        int[] removed = new int[base.size], added = new int[size], baseIndex = new int[size];
+        int removedCount = 0, addedCount = 0;
+        int i = 0, b = 0;
+        while(i < size || b < base.size) {
+            if(b >= base.size || (i < size && ids[i] < base.ids[b])) {
+                baseIndex[i] = -1;
+                added[addedCount++] = i++;
+            } else if(i >= size || base.ids[b] < ids[i]) {
+                removed[removedCount++] = base.ids[b++];
+            } else {
+                if(from[i] != base.from[b] || to[i] != base.to[b]) { //same number for another edge, replace it
+                    removed[removedCount++] = base.ids[b];
+                    baseIndex[i] = -1;
+                    added[addedCount++] = i;
+                } else {
+                    baseIndex[i] = b;
+                }
+                i++;
+                b++;
+            }
+        }
+
+        out.writeSortedIDs(removed, removedCount);
+        int[] addedIDs = new int[addedCount];
+        for(int a = 0; a < addedCount; ++a)
+            addedIDs[a] = ids[added[a]];
+        out.writeSortedIDs(addedIDs, addedCount);
+        for(int a = 0; a < addedCount; ++a) {
+            out.writeVarInt(from[added[a]]);
+            out.writeVarInt(to[added[a]]);
+        }
+
+        boolean[] differs = new boolean[size];
+        for(int e = 0; e < size; ++e)
+            differs[e] = baseIndex[e] < 0 ||
+                         Float.floatToIntBits(weights[e]) != Float.floatToIntBits(base.weights[baseIndex[e]]);
+        out.writeFlags(differs, size);
+        for(int e = 0; e < size; ++e)
+            if(differs[e]) out.writeFloat(weights[e]);
+        out.writeFlags(enabled, size);
+    }
+
+
+    /**
+     * Write the edge genes to a binary checkpoint, with the innovation numbers delta encoded and the enabled flags
+     * packed into bits.
+     *
+     * @param out Checkpoint to write to.
+     */
+    void write(CheckpointOutput out) throws IOException {
+        out.writeSortedIDs(ids, size);
+        for(int i = 0; i < size; ++i) {
+            out.writeVarInt(from[i]);
+            out.writeVarInt(to[i]);
+            out.writeFloat(weights[i]);
+        }
+        out.writeFlags(enabled, size);
+    }
+
+
+    /**
+     * @return Number of edges.
+     */
+    int size() {
+        return size;
+    }
+
+
+    /**
+     * @param index Index of the edge.
+     * @return Innovation number of the edge.
+     */
+    int id(int index) {
+        return ids[index];
+    }
+
+
+    /**
+     * @param index Index of the edge.
+     * @return ID of the node the edge comes from.
+     */
+    int from(int index) {
+        return from[index];
+    }
+
+
+    /**
+     * @param index Index of the edge.
+     * @return ID of the node the edge goes to.
+     */
+    int to(int index) {
+        return to[index];
+    }
+
+
+    /**
+     * @param index Index of the edge.
+     * @return Weight of the edge.
+     */
+    float weight(int index) {
+        return weights[index];
+    }
+
+
+    /**
+     * @param index Index of the edge.
+     * @return True if the edge is expressed.
+     */
+    boolean enabled(int index) {
+        return enabled[index];
+    }
+
+
+    /**
+     * @param index  Index of the edge.
+     * @param weight New weight of the edge.
+     */
+    void setWeight(int index, float weight) {
+        if(hashed) fingerprint -= hash(index);
+        weights[index] = weight;
+        if(hashed) fingerprint += hash(index);
+    }
+
+
+    /**
+     * @param index   Index of the edge.
+     * @param enabled True if the edge should be expressed.
+     */
+    void setEnabled(int index, boolean enabled) {
+        if(hashed) fingerprint -= hash(index);
+        this.enabled[index] = enabled;
+        if(hashed) fingerprint += hash(index);
+    }
+
+
+    /**
+     * Find the index of an edge by its innovation number.
+     *
+     * @param id Innovation number of the edge.
+     * @return Index of the edge, or a negative value if there is no edge with that ID.
+     */
+    int indexOf(int id) {
+        return Arrays.binarySearch(ids, 0, size, id);
+    }
+
+
+    /**
+     * Find the edge which connects two nodes.
+     *
+     * @param from ID of the node the edge comes from.
+     * @param to   ID of the node the edge goes to.
+     * @return Innovation number of the edge, or -1 if there is no edge between the nodes.
+     */
+    int find(int from, int to) {
+        if(connections == null) {
+            connections = new ConnectionIndex(size);
+            for(int i = 0; i < size; ++i)
+                connections.put(this.from[i], this.to[i], ids[i]);
+        }
+        return connections.get(from, to);
+    }
+
+
+    /**
+     * Add an edge, keeping the edges sorted. If there is already an edge with the same ID it is replaced. New innovations
+     * have the highest ID so they are usually appended.
+     *
+     * @param id      Innovation number of the edge.
+     * @param from    ID of the node the edge comes from.
+     * @param to      ID of the node the edge goes to.
+     * @param weight  Weight of the edge.
+     * @param enabled True if the edge is expressed.
+     * @return Index the edge was stored at.
+     */
+    int add(int id, int from, int to, float weight, boolean enabled) {
+        int index = size;
+        if(size > 0 && ids[size - 1] >= id) {
+            index = indexOf(id);
+            if(index >= 0) {
+                if(this.from[index] != from || this.to[index] != to)
+                    connections = null; //the old connection cannot be removed, rebuild when next needed
+                if(hashed) fingerprint -= hash(index);
+                this.from[index] = from;
+                this.to[index] = to;
+                weights[index] = weight;
+                this.enabled[index] = enabled;
+                if(hashed) fingerprint += hash(index);
+                return index;
+            }
+            index = -(index + 1);
+        }
+
+        if(size == ids.length) grow();
+        final int moved = size - index;
+        if(moved > 0) {
+            System.arraycopy(ids, index, ids, index + 1, moved);
+            System.arraycopy(this.from, index, this.from, index + 1, moved);
+            System.arraycopy(this.to, index, this.to, index + 1, moved);
+            System.arraycopy(weights, index, weights, index + 1, moved);
+            System.arraycopy(this.enabled, index, this.enabled, index + 1, moved);
+        }
+
+        ids[index] = id;
+        this.from[index] = from;
+        this.to[index] = to;
+        weights[index] = weight;
+        this.enabled[index] = enabled;
+        size++;
+        if(connections != null)
+            connections.put(from, to, id);
+        if(hashed) fingerprint += hash(index);
+        return index;
+    }
+
+
+    /**
+     * Copy an edge from another set of genes. When merging two genomes in innovation order this is always appended.
+     *
+     * @param other Edge genes to copy from.
+     * @param index Index of the edge in other.
+     * @return Index the edge was stored at.
+     */
+    int append(EdgeGenes other, int index) {
+        return add(other.ids[index], other.from[index], other.to[index], other.weights[index], other.enabled[index]);
+    }
+
+
+    /**
+     * A hash of every edge including its weight, which is calculated once and then kept up to date as edges are added
+     * and changed.
+     *
+     * @return The fingerprint of the edges.
+     */
+    long fingerprint() {
+        if(!hashed) {
+            fingerprint = 0;
+            for(int i = 0; i < size; ++i)
+                fingerprint += hash(i);
+            hashed = true;
+        }
+        return fingerprint;
+    }
+
+
+    /**
+     * @param index Index of the edge.
+     * @return Hash of the edge.
+     */
+    private long hash(int index) {
+        long h = Fingerprint.combine(ids[index], ((long) from[index] << 32) | (to[index] & 0xFFFFFFFFL));
+        return Fingerprint.combine(h, Float.floatToIntBits(weights[index]) * 2L + (enabled[index] ? 1 : 0));
+    }
+
+
+    /**
+     * Double the capacity of the arrays.
+     */
+    private void grow() {
+        final int capacity = Math.max(ids.length * 2, DEFAULT_CAPACITY);
+        ids = Arrays.copyOf(ids, capacity);
+        from = Arrays.copyOf(from, capacity);
+        to = Arrays.copyOf(to, capacity);
+        weights = Arrays.copyOf(weights, capacity);
+        enabled = Arrays.copyOf(enabled, capacity);
+    }
+}
@@ -1,14 +1,18 @@
 package plu.teamtwo.rtm.genome.graph;
 
 import plu.teamtwo.rtm.core.util.Triple;
+import plu.teamtwo.rtm.genome.CheckpointInput;
+import plu.teamtwo.rtm.genome.CheckpointOutput;
+import plu.teamtwo.rtm.genome.Fingerprint;
 import plu.teamtwo.rtm.genome.Genome;
 import plu.teamtwo.rtm.genome.GenomeCache;
 import plu.teamtwo.rtm.neural.ActivationFunction;
 import plu.teamtwo.rtm.neural.CPPNBuilder;
 import plu.teamtwo.rtm.neural.NeuralNetwork;
 
+import java.io.IOException;
 import java.security.InvalidParameterException;
-import java.util.*;
+import java.util.BitSet;
 
 import static plu.teamtwo.rtm.core.util.Rand.getRandomNum;
 import static plu.teamtwo.rtm.core.util.Rand.iWill;
@@ -28,10 +32,10 @@ public class GraphEncoding implements Genome {
     private static final float MUTATE_NODE_TRAITS = 0.1f;
     /// Chance for an edge's enabled status to be flipped.
     private static final float MUTATE_EDGE_TOGGLE = 0.1f;
-    /// True if the genome is allowed to mutate recurrent edges
-    private static final boolean MUTATE_RECURRENT_EDGES = true;
     /// Chance to disable an edge if either parent had it disabled.
     private static final float CROSS_DISABLE_EDGE = 0.75f;
+    /// First ID given to mutations which have not been registered with a deterministic cache yet.
+    private static final int PROVISIONAL_BASE = 1 << 30;
     /// Absolute value of the initial range for an edge weight.
     private static final float EDGE_WEIGHT_INIT_RANGE = 2.0f;
     /// Amount up or down an edge weight can be stepped.
@@ -43,9 +47,19 @@ public class GraphEncoding implements Genome {
     /// Cost of average weight difference on matching edges (including disabled) in distance function (c3).
     private static final float DISTANCE_WEIGHT_DIFFERENCE_COST = 0.4f;
 
-    private NavigableMap<Integer, Node> nodeGenes = new TreeMap<>();
-    private NavigableMap<Integer, Edge> edgeGenes = new TreeMap<>();
+    /// Node genes sorted by ID.
+    private NodeGenes nodeGenes;
+    /// Edge genes sorted by innovation number.
+    private EdgeGenes edgeGenes;
+    /// Topological order of the nodes, only built when recurrent edges are not allowed.
+    private transient TopologicalOrder order = null;
+    /// Mutations which have only been given provisional IDs, see finishGeneration.
+    private transient MutationLog pending = null;
+    /// Next provisional ID, shared by nodes and edges.
+    private transient int nextProvisional = PROVISIONAL_BASE;
     private final boolean randomActivations;
+    /// True if the genome is allowed to mutate recurrent edges.
+    private final boolean allowRecurrent;
 
     //TODO: create settings object?
     /// Default activation function to use for input nodes if a random one cannot be selected.
@@ -63,34 +77,31 @@ public class GraphEncoding implements Genome {
      * @param cache   The cache for the encoding.
      */
     GraphEncoding(GraphEncodingBuilder builder, GraphEncodingCache cache) {
-        this(builder.randomActivations, builder.inputFunction, builder.outputFunction, builder.hiddenFunction);
+        this(builder.randomActivations, builder.allowRecurrent, builder.inputFunction, builder.outputFunction,
+             builder.hiddenFunction, new NodeGenes(builder.inputs + builder.outputs + builder.hiddenNodes.size()),
+             new EdgeGenes(builder.inputs * builder.outputs));
 
         if(builder.inputs <= 0 || builder.outputs <= 0)
             throw new InvalidParameterException("Inputs and outputs must be greater than 0.");
 
         for(int i = 0; i < builder.inputs; ++i) {
             ActivationFunction fn = !randomActivations ? inputFunction : ActivationFunction.randomActivationFunction();
-            final Node n = new Node(cache.nextNodeID(), NodeType.INPUT, fn);
-            nodeGenes.put(n.id, n);
-        }
-        for(int i = 0; i < builder.outputs; ++i) {
-            final Node n = new Node(cache.nextNodeID(), NodeType.OUTPUT, outputFunction);
-            nodeGenes.put(n.id, n);
+            nodeGenes.add(cache.nextNodeID(), NodeType.INPUT, fn);
         }
+        for(int i = 0; i < builder.outputs; ++i)
+            nodeGenes.add(cache.nextNodeID(), NodeType.OUTPUT, outputFunction);
 
-        for(ActivationFunction fn : builder.hiddenNodes) {
-            final Node n = new Node(cache.nextNodeID(), NodeType.HIDDEN, fn);
-            nodeGenes.put(n.id, n);
-        }
+        for(ActivationFunction fn : builder.hiddenNodes)
+            nodeGenes.add(cache.nextNodeID(), NodeType.HIDDEN, fn);
 
 
         // add initial connections
         if(builder.initialConnections == null) {
             //create an edge from every input to every output
-            for(Node from : nodeGenes.values()) {
-                for(Node to : nodeGenes.values()) {
-                    if(from == to || from.nodeType != NodeType.INPUT || to.nodeType != NodeType.OUTPUT) continue;
-                    addEdge(cache, from.id, to.id,1.0f);
+            for(int from = 0; from < nodeGenes.size(); ++from) {
+                for(int to = 0; to < nodeGenes.size(); ++to) {
+                    if(from == to || nodeGenes.type(from) != NodeType.INPUT || nodeGenes.type(to) != NodeType.OUTPUT) continue;
+                    addEdge(cache, nodeGenes.id(from), nodeGenes.id(to), 1.0f);
                 }
             }
         } else {
@@ -100,6 +111,9 @@ public class GraphEncoding implements Genome {
                 addEdge(cache, c.a, c.b, c.c);
             }
         }
+
+        //the initial genes are the same for every genome created, so they can be registered right away
+        finishGeneration(cache);
     }
 
 
@@ -109,23 +123,39 @@ public class GraphEncoding implements Genome {
      * @param other GraphEncoding to copy.
      */
     private GraphEncoding(GraphEncoding other) {
-        this(other.randomActivations, other.inputFunction, other.outputFunction, other.hiddenFunction);
-        for(Node n : other.nodeGenes.values())
-            nodeGenes.put(n.id, new Node(n));
-        for(Edge e : other.edgeGenes.values())
-            edgeGenes.put(e.id, new Edge(e));
+        this(other.randomActivations, other.allowRecurrent, other.inputFunction, other.outputFunction,
+             other.hiddenFunction, new NodeGenes(other.nodeGenes), new EdgeGenes(other.edgeGenes));
+        if(other.order != null)
+            order = new TopologicalOrder(other.order);
+        if(other.pending != null)
+            pending = new MutationLog(other.pending);
+        nextProvisional = other.nextProvisional;
     }
 
 
     /**
-     * Used to create a new, empty GraphEncoding. If this is used, make sure to initialize the list
-     * of nodes to include at minimum the input and output nodes.
+     * Used to create a new GraphEncoding around a set of genes. If this is used with empty genes, make sure to
+     * initialize the list of nodes to include at minimum the input and output nodes.
      */
-    private GraphEncoding(boolean randomActivations, ActivationFunction inputFunction, ActivationFunction outputFunction, ActivationFunction hiddenFunction) {
+    private GraphEncoding(boolean randomActivations, boolean allowRecurrent, ActivationFunction inputFunction,
+                          ActivationFunction outputFunction, ActivationFunction hiddenFunction, NodeGenes nodeGenes,
+                          EdgeGenes edgeGenes) {
         this.randomActivations = randomActivations;
+        this.allowRecurrent = allowRecurrent;
         this.inputFunction = inputFunction;
         this.outputFunction = outputFunction;
         this.hiddenFunction = hiddenFunction;
+        this.nodeGenes = nodeGenes;
+        this.edgeGenes = edgeGenes;
+    }
+
+
+    /**
+     * Used to create a new GraphEncoding with the settings of another one around a set of genes.
+     */
+    private GraphEncoding(GraphEncoding settings, NodeGenes nodeGenes, EdgeGenes edgeGenes) {
+        this(settings.randomActivations, settings.allowRecurrent, settings.inputFunction, settings.outputFunction,
+             settings.hiddenFunction, nodeGenes, edgeGenes);
     }
 
 
@@ -133,7 +163,51 @@ public class GraphEncoding implements Genome {
      * This should only be used by serialization.
      */
     private GraphEncoding() {
-        this(false, null, null, null);
+        this(false, true, null, null, null, null, null);
+    }
+
+
+    /**
+     * Read a genome written to a binary checkpoint.
+     *
+     * @param in Checkpoint to read from.
+     * @return The genome as it was when written.
+     */
+    static GraphEncoding read(CheckpointInput in) throws IOException {
+        final GraphEncoding settings = readSettings(in);
+        final NodeGenes nodes = NodeGenes.read(in);
+        return new GraphEncoding(settings, nodes, EdgeGenes.read(in));
+    }
+
+
+    /**
+     * Read a genome written as its differences from another genome, see writeDiff.
+     *
+     * @param in   Checkpoint to read from.
+     * @param base The genome the differences were written from.
+     * @return The genome as it was when written.
+     */
+    static GraphEncoding readDiff(CheckpointInput in, GraphEncoding base) throws IOException {
+        final GraphEncoding settings = readSettings(in);
+        final NodeGenes nodes = NodeGenes.readDiff(in, base.nodeGenes);
+        return new GraphEncoding(settings, nodes, EdgeGenes.readDiff(in, base.edgeGenes));
+    }
+
+
+    /**
+     * Read the settings written by writeSettings.
+     *
+     * @param in Checkpoint to read from.
+     * @return A genome with the settings and no genes.
+     */
+    private static GraphEncoding readSettings(CheckpointInput in) throws IOException {
+        final boolean randomActivations = in.readBoolean();
+        final boolean allowRecurrent = in.readBoolean();
+        final ActivationFunction[] functions = ActivationFunction.values();
+        final ActivationFunction inputFunction = in.readEnum(functions);
+        final ActivationFunction outputFunction = in.readEnum(functions);
+        return new GraphEncoding(randomActivations, allowRecurrent, inputFunction, outputFunction,
+                                 in.readEnum(functions), null, null);
     }
 
 
@@ -147,40 +221,31 @@ public class GraphEncoding implements Genome {
      */
     public static float compatibilityDistance(GraphEncoding d1, GraphEncoding d2) {
         //go through both parents and line up innovation numbers
-        // always sorted because it is a TreeSet
-        Iterator<Edge> i1 = d1.edgeGenes.values().iterator();
-        Iterator<Edge> i2 = d2.edgeGenes.values().iterator();
-
-        Edge e1 = i1.hasNext() ? i1.next() : null;
-        Edge e2 = i2.hasNext() ? i2.next() : null;
+        // always sorted because the genes are kept in innovation order
+        final EdgeGenes g1 = d1.edgeGenes, g2 = d2.edgeGenes;
+        final int n1 = g1.size(), n2 = g2.size();
+        int i1 = 0, i2 = 0;
 
         int disjoint = 0, excess = 0, matching = 0;
         float matchingDiff = 0;
 
-        while(e1 != null || e2 != null) { //run until we hit the end of both lists
-            boolean step1 = false, step2 = false;
-            //get the next node, or null if we have reached the end.
-            if(e1 != null && e2 == null) { //e1 is an excess node
-                excess++;
-                step1 = true;
-            } else if(e1 == null && e2 != null) { //e2 is an excess node
-                excess++;
-                step2 = true;
-            } else if(e1.id < e2.id) { //e1 is a disjoint node
+        while(i1 < n1 && i2 < n2) { //run until we hit the end of one of the lists
+            final int id1 = g1.id(i1), id2 = g2.id(i2);
+            if(id1 < id2) { //e1 is a disjoint edge
                 disjoint++;
-                step1 = true;
-            } else if(e1.id == e2.id) {
-                matchingDiff += Math.abs(e1.weight - e2.weight);
+                i1++;
+            } else if(id1 == id2) {
+                matchingDiff += Math.abs(g1.weight(i1) - g2.weight(i2));
                 matching++;
-                step1 = step2 = true;
-            } else { // e1.id > e2.id //e2 is a disjoint node
+                i1++;
+                i2++;
+            } else { // id1 > id2 //e2 is a disjoint edge
                 disjoint++;
-                step2 = true;
+                i2++;
             }
-
-            if(step1) e1 = i1.hasNext() ? i1.next() : null;
-            if(step2) e2 = i2.hasNext() ? i2.next() : null;
         }
+        //whatever is left in either list is excess
+        excess += (n1 - i1) + (n2 - i2);
         matchingDiff /= (float) matching;
 
         //TODO: account for different traits/activation functions of nodes
@@ -217,65 +282,62 @@ public class GraphEncoding implements Genome {
         }
 
         //go through both parents and line up innovation numbers
-        // always sorted because it is a TreeSet
-        GraphEncoding child = new GraphEncoding(randomActivations, inputFunction, outputFunction, hiddenFunction);
-        Iterator<Edge> i1 = p1.edgeGenes.values().iterator();
-        Iterator<Edge> i2 = p2.edgeGenes.values().iterator();
-
-        Edge e1 = i1.hasNext() ? i1.next() : null;
-        Edge e2 = i2.hasNext() ? i2.next() : null;
-        while(e1 != null || e2 != null) { //run until we hit the end of both lists
-            boolean step1 = false, step2 = false;
-            //get the next node, or null if we have reached the end.
-            if(e1 != null && e2 == null) { //e1 is an excess node
-                child.edgeGenes.put(e1.id, new Edge(e1));
-                step1 = true;
-            } else if(e1 == null && e2 != null) { //e2 is an excess node
-                step2 = true;
-            } else if(e1.id < e2.id) { //e1 is a disjoint node
-                child.edgeGenes.put(e1.id, new Edge(e1));
-                step1 = true;
-            } else if(e1.id == e2.id) {
+        // always sorted because the genes are kept in innovation order
+        final EdgeGenes g1 = p1.edgeGenes, g2 = p2.edgeGenes;
+        final int n1 = g1.size(), n2 = g2.size();
+        EdgeGenes childEdges = new EdgeGenes(n1);
+
+        int i1 = 0, i2 = 0;
+        while(i1 < n1) { //run until we hit the end of the most fit parent, excess genes of p2 are not inherited
+            final int id1 = g1.id(i1);
+            if(i2 >= n2 || id1 < g2.id(i2)) { //e1 is a disjoint or excess edge
+                childEdges.append(g1, i1++);
+            } else if(id1 == g2.id(i2)) {
                 //choose either randomly from the parents or average the weight
-                Edge edge = average ?
-                                    new Edge(e1.id, e1.fromNode, e1.toNode, (e1.weight + e2.weight) / 2.0f) :
-                                    new Edge(iWill(0.5f) ? e1 : e2);
+                final int index;
+                if(average)
+                    index = childEdges.add(id1, g1.from(i1), g1.to(i1), (g1.weight(i1) + g2.weight(i2)) / 2.0f, true);
+                else
+                    index = iWill(0.5f) ? childEdges.append(g1, i1) : childEdges.append(g2, i2);
 
                 //chance to disable child if either parent is disabled
-                if(!e1.enabled || !e2.enabled)
+                if(!g1.enabled(i1) || !g2.enabled(i2))
                     if(iWill(CROSS_DISABLE_EDGE))
-                        edge.enabled = false;
+                        childEdges.setEnabled(index, false);
 
-                //add the new edge to the list
-                child.edgeGenes.put(edge.id, edge);
-                step1 = step2 = true;
-            } else { // e1.id > e2.id //e2 is a disjoint node
-                step2 = true;
+                i1++;
+                i2++;
+            } else { // id1 > id2 //e2 is a disjoint edge
+                i2++;
             }
-
-            if(step1) e1 = i1.hasNext() ? i1.next() : null;
-            if(step2) e2 = i2.hasNext() ? i2.next() : null;
         }
 
         //Find what nodes are used
         BitSet discovered = new BitSet();
-        for(Edge e : child.edgeGenes.values()) {
-            discovered.set(e.toNode);
-            discovered.set(e.fromNode);
+        for(int e = 0; e < childEdges.size(); ++e) {
+            discovered.set(childEdges.to(e));
+            discovered.set(childEdges.from(e));
         }
 
         //TODO: randomly select node traits? Currently just selects from most fit parent when it can.
         //add nodes which are used by the child from either parent (must go through both lists)
         // we make the assumption that both have the same input and output nodes, so just copy
         // from the first parent.
+        NodeGenes childNodes = new NodeGenes(discovered.cardinality());
         for(int i = discovered.nextSetBit(0); i >= 0; i = discovered.nextSetBit(i + 1)) {
-            Node n = p1.nodeGenes.get(i);
-            if(n == null) n = p2.nodeGenes.get(i);
-            if(n == null) throw new IllegalArgumentException("In GraphEncoding crossMultipoint, one of the parents " +
+            int index = p1.nodeGenes.indexOf(i);
+            if(index >= 0) {
+                childNodes.append(p1.nodeGenes, index);
+                continue;
+            }
+            index = p2.nodeGenes.indexOf(i);
+            if(index < 0) throw new IllegalArgumentException("In GraphEncoding crossMultipoint, one of the parents " +
                                                              "had an edge for which it did not have the corresponding nodes.");
-            child.nodeGenes.put(n.id, new Node(n));
+            childNodes.append(p2.nodeGenes, index);
         }
 
+        GraphEncoding child = new GraphEncoding(randomActivations, allowRecurrent, inputFunction, outputFunction,
+                                                hiddenFunction, childNodes, childEdges);
         return child;
     }
 
@@ -306,12 +368,15 @@ public class GraphEncoding implements Genome {
 
     /**
      * Used to create a new GraphEncoding Cache.
+     * The cache gives deterministic innovation numbers like the one made by the builder by default, so genomes bred
+     * in parallel (e.g. as part of a GenomeComposition) get the same IDs for the same seed. The genome does not know
+     * if its builder was set to unorderedInnovations; use the builder's cache for that.
      *
      * @return A new GraphEncoding Cache.
      */
     @Override
     public GenomeCache createCache() {
-        return new GraphEncodingCache();
+        return new GraphEncodingCache(true);
     }
 
 
@@ -343,12 +408,16 @@ public class GraphEncoding implements Genome {
     }
 
 
+    /**
+     * Flip whether random edges are enabled.
+     *
+     * @param times Number of edges to toggle.
+     */
     private void mutateToggleEdge(int times) {
+        if(edgeGenes.size() == 0) return;
         for(int x = 0; x < times; ++x) {
-            final int rand = getRandomNum(0, edgeGenes.size() - 1);
-            final int id = edgeIndexToID(rand);
-            final Edge e = edgeGenes.get(id);
-            e.enabled = !e.enabled;
+            final int index = randomEdge();
+            edgeGenes.setEnabled(index, !edgeGenes.enabled(index));
         }
     }
 
@@ -356,12 +425,11 @@ public class GraphEncoding implements Genome {
     /**
      * Mutates a new node along a random edge.
      *
-     * @param cache
+     * @param cache Cached information about the nodes and edges.
      */
     private void mutateNode(GraphEncodingCache cache) {
-        final int index = getRandomNum(0, edgeGenes.size() - 1);
-        final int edge = edgeIndexToID(index);
-        addNode(cache, edge);
+        if(edgeGenes.size() == 0) return;
+        addNode(cache, randomEdge());
     }
 
 
@@ -374,12 +442,10 @@ public class GraphEncoding implements Genome {
         for(int x = 0; x < MUTATE_NEW_EDGE_TRIES; ++x) {
             int from, to;
             do {
-                final int fromIndex = getRandomNum(0, nodeGenes.size() - 1);
-                final int toIndex = getRandomNum(0, nodeGenes.size() - 1);
-                from = nodeIndexToID(fromIndex);
-                to = nodeIndexToID(toIndex);
+                from = nodeGenes.id(randomNode());
+                to = nodeGenes.id(randomNode());
                 if(++x > MUTATE_NEW_EDGE_TRIES) return;
-            } while(!MUTATE_RECURRENT_EDGES && isRecurrent(from, to));
+            } while(!allowRecurrent && isRecurrent(from, to));
 
             //add the edge and make sure it is enabled if it was already there.
             if(addEdge(cache, from, to, 1.0f)) break;
@@ -388,72 +454,21 @@ public class GraphEncoding implements Genome {
 
 
     /**
-     * Checks if after adding an edge between two nodes the graph would be recurrent. Note that this will always return
-     * true if there was already a cycle in the graph no matter the connection which is added.
-     * TODO: store information about which edges are recurrent so we can ignore those and figure out which new ones would be?
+     * Checks if after adding an edge between two nodes the graph would be recurrent. This will consider a connection
+     * to an input node as recurrent. Note that this will always return true if there was already a cycle in the graph
+     * no matter the connection which is added.
+     * <p>
+     * A topological order of the nodes is built the first time this is called and then kept up to date as edges are
+     * added, so most checks do not need to search the graph at all.
      *
      * @param from Starting node of the edge.
      * @param to   Ending node of the edge.
      * @return True if the graph has a cycle after the new edge is added.
      */
     private boolean isRecurrent(int from, int to) {
-        BitSet gray = new BitSet();
-        BitSet black = new BitSet();
-
-        //start from all input nodes
-        for(Node n : nodeGenes.values()) {
-            if(n.nodeType == NodeType.INPUT) {
-                if(isRecurrent(n.id, from, to, gray, black)) return true;
-            }
-        }
-
-        return false;
-    }
-
-
-    /**
-     * Perform DFS to check if the graph is cyclic given an extra edge not in the edge list. This will consider a
-     * connection to an input node as recurrent.
-     *
-     * @param node  ID of the current node.
-     * @param from  ID of the starting node for then new edge.
-     * @param to    ID of the ending node for the new edge.
-     * @param gray  Set of grey nodes.
-     * @param black Set of back nodes.
-     * @return True if the graph is cyclic or connecting to an input, otherwise false.
-     */
-    private boolean isRecurrent(int node, int from, int to, BitSet gray, BitSet black) {
-        //visit the node
-        gray.set(node);
-
-        boolean foundEdge = false;
-        //go through edge genes
-        for(Edge e : edgeGenes.values()) {
-            if(e.fromNode == node) {
-                //recurrent if it is part of our past or if it is an input node
-                if(gray.get(e.toNode) || nodeGenes.get(e.toNode).nodeType == NodeType.INPUT)
-                    return true;
-                //if it is not already processed, perform DFS on it
-                if(!black.get(e.toNode) && isRecurrent(e.toNode, from, to, gray, black))
-                    return true;
-            }
-            //will not need to handle the extra edge
-            if(e.fromNode == from && e.toNode == to) foundEdge = true;
-        }
-        //treat from and to as an extra edge
-        if(from == node && !foundEdge) { //prevent returning true if there is another identical edge
-            //recurrent if it is part of our past or if it is an input node
-            if(gray.get(to) || nodeGenes.get(to).nodeType == NodeType.INPUT)
-                return true;
-            //if it is not already processed, perform DFS on it
-            if(!black.get(to) && isRecurrent(to, from, to, gray, black))
-                return true;
-        }
-
-        //leave this node
-        gray.set(node, false);
-        black.set(node);
-        return false;
+        if(nodeType(to) == NodeType.INPUT) return true;
+        if(order == null) order = new TopologicalOrder(nodeGenes, edgeGenes);
+        return order.createsCycle(from, to);
     }
 
 
@@ -466,12 +481,10 @@ public class GraphEncoding implements Genome {
     private void mutateNodeTraits(int times) {
         if(!randomActivations) return; //only type of trait for now
         for(int x = 0; x < times; ++x) {
-            final int rand = getRandomNum(0, nodeGenes.size() - 1);
-            final int id = nodeIndexToID(rand);
-            final Node n = nodeGenes.get(id);
+            final int index = randomNode();
             //do not mutate output node functions
-            if(n.nodeType == NodeType.OUTPUT) continue;
-            n.fn = ActivationFunction.randomActivationFunction();
+            if(nodeGenes.type(index) == NodeType.OUTPUT) continue;
+            nodeGenes.setFunction(index, ActivationFunction.randomActivationFunction());
         }
     }
 
@@ -480,11 +493,11 @@ public class GraphEncoding implements Genome {
      * Alter the weight on edge e. Either step it or reset it depending on chance.
      */
     private void mutateWeights() {
-        for(Edge e : edgeGenes.values()) {
+        for(int e = 0; e < edgeGenes.size(); ++e) {
             if(iWill(MUTATE_RESET_WEIGHT))
-                e.weight = getRandomNum(-EDGE_WEIGHT_INIT_RANGE, EDGE_WEIGHT_INIT_RANGE);
+                edgeGenes.setWeight(e, getRandomNum(-EDGE_WEIGHT_INIT_RANGE, EDGE_WEIGHT_INIT_RANGE));
             else
-                e.weight += getRandomNum(-EDGE_WEIGHT_STEP_MAX, EDGE_WEIGHT_STEP_MAX);
+                edgeGenes.setWeight(e, edgeGenes.weight(e) + getRandomNum(-EDGE_WEIGHT_STEP_MAX, EDGE_WEIGHT_STEP_MAX));
         }
     }
 
@@ -500,21 +513,14 @@ public class GraphEncoding implements Genome {
      */
     private boolean addEdge(GraphEncodingCache cache, int nodeFrom, int nodeTo, float weight) {
         //check if the edge already exists
-        for(Edge e : edgeGenes.values())
-            if(e.fromNode == nodeFrom && e.toNode == nodeTo)
-                return false;
+        if(edgeGenes.find(nodeFrom, nodeTo) >= 0)
+            return false;
 
         //it does not already exist, check if it has been mutated before, if so, use same ID
-        int id = cache.getMutatedEdge(nodeFrom, nodeTo);
-        Edge e;
-        if(id >= 0)
-            e = new Edge(id, nodeFrom, nodeTo, weight);
-        else {
-            e = new Edge(cache.nextEdgeID(), nodeFrom, nodeTo, weight);
-            cache.addMutatedEdge(e.id, nodeFrom, nodeTo);
-        }
+        final int id = registerEdge(cache, nodeFrom, nodeTo);
 
-        edgeGenes.put(e.id, e);
+        edgeGenes.add(id, nodeFrom, nodeTo, weight, true);
+        if(order != null) order.addEdge(nodeFrom, nodeTo);
         return true;
     }
 
@@ -523,60 +529,154 @@ public class GraphEncoding implements Genome {
      * Create a new node along the specified edge. This will create a new node and connect it to the input and output
      * nodes of the edge, and then disable the edge. Thus making the change as minimal as possible.
      *
-     * @param cache Cached information about the nodes and edges.
-     * @param edge  The edge along which to add a node.
+     * @param cache   Cached information about the nodes and edges.
+     * @param oldEdge Index of the edge along which to add a node.
      */
-    private void addNode(GraphEncodingCache cache, int edge) {
-        Edge oldEdge = edgeGenes.get(edge);
-        oldEdge.enabled = false;
+    private void addNode(GraphEncodingCache cache, int oldEdge) {
+        final int edge = edgeGenes.id(oldEdge);
+        edgeGenes.setEnabled(oldEdge, false);
+        final int oldFrom = edgeGenes.from(oldEdge), oldTo = edgeGenes.to(oldEdge);
+        final float oldWeight = edgeGenes.weight(oldEdge);
 
         //TODO: store activation function in cache?
-        int ids[] = cache.getMutatedNode(oldEdge.id);
-        Node newNode;
-        Edge edgeTo, edgeFrom;
+        final int ids[] = registerNode(cache, edge);
         ActivationFunction fn = !randomActivations ? hiddenFunction : ActivationFunction.randomActivationFunction();
+
+        nodeGenes.add(ids[0], NodeType.HIDDEN, fn);
+        edgeGenes.add(ids[1], oldFrom, ids[0], oldWeight, true);
+        edgeGenes.add(ids[2], ids[0], oldTo, 1, true);
+        if(order != null) {
+            order.addNode(ids[0]);
+            order.addEdge(oldFrom, ids[0]);
+            order.addEdge(ids[0], oldTo);
+        }
+    }
+
+
+    /**
+     * Get the ID for a new edge. With a deterministic cache the edge is given a provisional ID which is registered in
+     * finishGeneration, otherwise it is registered with the cache right away.
+     *
+     * @param cache Cached information about the nodes and edges.
+     * @param from  Origin node for the edge.
+     * @param to    Termination node for the edge.
+     * @return ID of the edge.
+     */
+    private int registerEdge(GraphEncodingCache cache, int from, int to) {
+        if(!cache.isDeterministic()) return cache.registerMutatedEdge(from, to);
+        if(pending == null) pending = new MutationLog();
+
+        int id = pending.getEdge(from, to);
+        if(id < 0) {
+            id = nextProvisional++;
+            pending.addEdge(from, to, id);
+        }
+        return id;
+    }
+
+
+    /**
+     * Get the IDs for a node added along an edge. With a deterministic cache they are provisional IDs which are
+     * registered in finishGeneration, otherwise they are registered with the cache right away.
+     *
+     * @param cache Cached information about the nodes and edges.
+     * @param edge  ID of the edge along which the node is added.
+     * @return Array of [nodeID, edgeToID, EdgeFromID].
+     */
+    private int[] registerNode(GraphEncodingCache cache, int edge) {
+        if(!cache.isDeterministic()) return cache.registerMutatedNode(edge);
+        if(pending == null) pending = new MutationLog();
+
+        int[] ids = pending.getNode(edge);
         if(ids == null) {
-            newNode = new Node(cache.nextNodeID(), NodeType.HIDDEN, fn);
-            edgeTo = new Edge(cache.nextEdgeID(), oldEdge.fromNode, newNode.id, oldEdge.weight);
-            edgeFrom = new Edge(cache.nextEdgeID(), newNode.id, oldEdge.toNode, 1);
-            cache.addMutatedNode(newNode.id, edgeTo.id, edgeFrom.id, oldEdge.id);
-        } else {
-            newNode = new Node(ids[0], NodeType.HIDDEN, fn);
-            edgeTo = new Edge(ids[1], oldEdge.fromNode, newNode.id, oldEdge.weight);
-            edgeFrom = new Edge(ids[2], newNode.id, oldEdge.toNode, 1);
+            ids = new int[]{nextProvisional++, nextProvisional++, nextProvisional++};
+            pending.addNode(edge, ids[0], ids[1], ids[2]);
+        }
+        return ids;
+    }
+
+
+    /**
+     * Register any mutations which were given provisional IDs with the cache and replace them with the IDs it gives.
+     * Mutations are registered in the order they were made, so once every genome of a generation has been finished
+     * in the same order the IDs do not depend on which threads the genomes were mutated on.
+     *
+     * @param gCache Cached information about the nodes and edges.
+     */
+    @Override
+    public void finishGeneration(GenomeCache gCache) {
+        if(pending == null) return;
+        GraphEncodingCache cache = (GraphEncodingCache) gCache;
+
+        //registered ID of each provisional ID, earlier mutations are always registered first
+        final int[] registered = new int[nextProvisional - PROVISIONAL_BASE];
+        for(int r = 0; r < pending.size(); ++r) {
+            if(pending.isEdge(r)) {
+                final int from = registeredID(registered, pending.get(r, 0));
+                final int to = registeredID(registered, pending.get(r, 1));
+                registered[pending.get(r, 2) - PROVISIONAL_BASE] = cache.registerMutatedEdge(from, to);
+            } else {
+                final int[] ids = cache.registerMutatedNode(registeredID(registered, pending.get(r, 0)));
+                for(int k = 0; k < 3; ++k)
+                    registered[pending.get(r, k + 1) - PROVISIONAL_BASE] = ids[k];
+            }
         }
 
-        nodeGenes.put(newNode.id, newNode);
-        edgeGenes.put(edgeTo.id, edgeTo);
-        edgeGenes.put(edgeFrom.id, edgeFrom);
+        NodeGenes nodes = new NodeGenes(nodeGenes.size());
+        for(int i = 0; i < nodeGenes.size(); ++i)
+            nodes.add(registeredID(registered, nodeGenes.id(i)), nodeGenes.type(i), nodeGenes.function(i));
+        EdgeGenes edges = new EdgeGenes(edgeGenes.size());
+        for(int e = 0; e < edgeGenes.size(); ++e)
+            edges.add(registeredID(registered, edgeGenes.id(e)), registeredID(registered, edgeGenes.from(e)),
+                      registeredID(registered, edgeGenes.to(e)), edgeGenes.weight(e), edgeGenes.enabled(e));
+
+        nodeGenes = nodes;
+        edgeGenes = edges;
+        order = null; //keyed by the old IDs
+        pending = null;
+        nextProvisional = PROVISIONAL_BASE;
     }
 
 
     /**
-     * Get the nth edge from edge genes.
+     * @param registered Registered ID of each provisional ID.
+     * @param id         ID which may be provisional.
+     * @return The registered ID.
+     */
+    private static int registeredID(int[] registered, int id) {
+        return id < PROVISIONAL_BASE ? id : registered[id - PROVISIONAL_BASE];
+    }
+
+
+    /**
+     * Select a random edge. The genes are stored in arrays so this is constant time no matter how large the genome is.
+     * There must be at least one edge.
      *
-     * @param index Index from edgeGenes to get the ID of.
-     * @return ID of the edge at index.
+     * @return Index of a random edge in edgeGenes.
      */
-    private int edgeIndexToID(int index) {
-        int i = 0;
-        for(Edge e : edgeGenes.values())
-            if(i++ == index) return e.id;
-        return -1;
+    private int randomEdge() {
+        return getRandomNum(0, edgeGenes.size() - 1);
     }
 
 
     /**
-     * Get the nth node from node genes.
+     * Select a random node. The genes are stored in arrays so this is constant time no matter how large the genome is.
      *
-     * @param index Index from nodeGenes to get the ID of.
-     * @return ID of the node at index.
+     * @return Index of a random node in nodeGenes.
      */
-    private int nodeIndexToID(int index) {
-        int i = 0;
-        for(Node n : nodeGenes.values())
-            if(i++ == index) return n.id;
-        return -1;
+    private int randomNode() {
+        return getRandomNum(0, nodeGenes.size() - 1);
+    }
+
+
+    /**
+     * Get the type of a node by its ID.
+     *
+     * @param id ID of the node.
+     * @return Type of the node.
+     */
+    private NodeType nodeType(int id) {
+        return nodeGenes.type(nodeGenes.indexOf(id));
     }
 
 
@@ -587,15 +687,15 @@ public class GraphEncoding implements Genome {
      */
     @Override
     public NeuralNetwork constructNeuralNetwork() {
-        //create lists of each type of node
-        Map<Integer, Integer> nodes = new HashMap<>(nodeGenes.size()); //Map the node ID to the ANN Index
+        //map each node's index in the genes to its index in the ANN
+        final int[] annIndex = new int[nodeGenes.size()];
         int inputs = 0, outputs = 0, hidden = 0, count = 0;
 
         //count and add inputs, must add each type separately because there is no grantee of order or number
-        for(Node n : nodeGenes.values()) {
-            switch(n.nodeType) {
+        for(int i = 0; i < nodeGenes.size(); ++i) {
+            switch(nodeGenes.type(i)) {
                 case INPUT:
-                    nodes.put(n.id, count++);
+                    annIndex[i] = count++;
                     inputs++;
                     break;
                 case OUTPUT:
@@ -606,12 +706,12 @@ public class GraphEncoding implements Genome {
                     break;
             }
         }
-        for(Node n : nodeGenes.values())
-            if(n.nodeType == NodeType.OUTPUT)
-                nodes.put(n.id, count++);
-        for(Node n : nodeGenes.values())
-            if(n.nodeType == NodeType.HIDDEN)
-                nodes.put(n.id, count++);
+        for(int i = 0; i < nodeGenes.size(); ++i)
+            if(nodeGenes.type(i) == NodeType.OUTPUT)
+                annIndex[i] = count++;
+        for(int i = 0; i < nodeGenes.size(); ++i)
+            if(nodeGenes.type(i) == NodeType.HIDDEN)
+                annIndex[i] = count++;
 
         //construct a neural network now that we know the sizes
         CPPNBuilder net = new CPPNBuilder()
@@ -619,16 +719,76 @@ public class GraphEncoding implements Genome {
                                    .outputs(outputs)
                                    .hidden(hidden);
 
-        //for all nodeIDs, find the activation function and set it to that in the network
-        for(int k : nodes.keySet())
-            net.setFunction(nodes.get(k), nodeGenes.get(k).fn);
+        //for all nodes, find the activation function and set it to that in the network
+        for(int i = 0; i < nodeGenes.size(); ++i)
+            net.setFunction(annIndex[i], nodeGenes.function(i));
 
         //TODO: make sure there are not duplicate edges making their way into the system
         //create the connections
-        for(Edge e : edgeGenes.values())
-            if(e.enabled)
-                net.connect(nodes.get(e.fromNode), nodes.get(e.toNode), e.weight);
+        for(int e = 0; e < edgeGenes.size(); ++e)
+            if(edgeGenes.enabled(e))
+                net.connect(annIndex[nodeGenes.indexOf(edgeGenes.from(e))], annIndex[nodeGenes.indexOf(edgeGenes.to(e))],
+                            edgeGenes.weight(e));
 
         return net.create();
     }
+
+
+    /**
+     * A hash of the node and edge genes, which are kept up to date by the genes as they are mutated. The settings are
+     * left out since they do not change the network which is created.
+     *
+     * @return The fingerprint of the genome.
+     */
+    @Override
+    public long fingerprint() {
+        return Fingerprint.combine(nodeGenes.fingerprint(), edgeGenes.fingerprint());
+    }
+
+
+    /**
+     * Write the genome to a binary checkpoint. Every mutation must have been registered with the cache, see
+     * finishGeneration.
+     *
+     * @param out Checkpoint to write to.
+     */
+    @Override
+    public void write(CheckpointOutput out) throws IOException {
+        writeSettings(out);
+        nodeGenes.write(out);
+        edgeGenes.write(out);
+    }
+
+
+    /**
+     * Write the genome to a binary checkpoint as its differences from another graph encoding. Genomes bred from the
+     * same parents share most of their genes, so usually only some weights and the odd structural mutation are
+     * written.
+     *
+     * @param out  Checkpoint to write to.
+     * @param base Graph encoding to describe the differences from.
+     */
+    @Override
+    public void writeDiff(CheckpointOutput out, Genome base) throws IOException {
+        final GraphEncoding other = (GraphEncoding) base;
+        writeSettings(out);
+        nodeGenes.writeDiff(out, other.nodeGenes);
+        edgeGenes.writeDiff(out, other.edgeGenes);
+    }
+
+
+    /**
+     * Write the settings which are not part of the genes.
+     *
+     * @param out Checkpoint to write to.
+     */
+    private void writeSettings(CheckpointOutput out) throws IOException {
+        if(pending != null)
+            throw new IllegalStateException("Cannot write a genome before its generation has been finished.");
+        out.writeBoolean(randomActivations);
+        out.writeBoolean(allowRecurrent);
+        out.writeEnum(inputFunction);
+        out.writeEnum(outputFunction);
+        out.writeEnum(hiddenFunction);
+    }
 }
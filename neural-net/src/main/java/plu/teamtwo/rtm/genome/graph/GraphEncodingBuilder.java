@@ -2,11 +2,13 @@ package plu.teamtwo.rtm.genome.graph;
 
 import plu.teamtwo.rtm.core.util.Pair;
 import plu.teamtwo.rtm.core.util.Triple;
+import plu.teamtwo.rtm.genome.CheckpointInput;
 import plu.teamtwo.rtm.genome.Genome;
 import plu.teamtwo.rtm.genome.GenomeBuilder;
 import plu.teamtwo.rtm.genome.GenomeCache;
 import plu.teamtwo.rtm.neural.ActivationFunction;
 
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -24,6 +26,10 @@ public class GraphEncodingBuilder implements GenomeBuilder {
     boolean randomActivations = false;
     /// Use the step stepping function instead of the calculate function
     boolean realTimeProcessing = false;
+    /// Should mutations be allowed to add edges which make the network recurrent?
+    boolean allowRecurrent = true;
+    /// Give innovation numbers which do not depend on the order genomes are mutated in.
+    boolean deterministicInnovations = true;
     List<ActivationFunction> hiddenNodes = new LinkedList<>();
     List<Triple<Integer, Integer, Float>> initialConnections = null;
 
@@ -60,6 +66,28 @@ public class GraphEncodingBuilder implements GenomeBuilder {
     }
 
 
+    /**
+     * Only allow mutations which keep the network feed forward, i.e. new edges which would create a cycle or connect
+     * to an input are not added.
+     */
+    public GraphEncodingBuilder feedForward() {
+        allowRecurrent = false;
+        return this;
+    }
+
+
+    /**
+     * Register new mutations with the cache as they are made instead of once the whole generation has been bred. By
+     * default innovation numbers do not depend on the order genomes are mutated in, so runs with the same seed produce
+     * the same genomes no matter how breeding is spread across threads. With this the numbers depend on thread timing,
+     * so runs are only reproducible if the CPU pool has a single thread.
+     */
+    public GraphEncodingBuilder unorderedInnovations() {
+        deterministicInnovations = false;
+        return this;
+    }
+
+
     /**
      * Use the step function of the network rather than calculate. This does not work for discrete input output pairs.
      */
@@ -154,7 +182,7 @@ public class GraphEncodingBuilder implements GenomeBuilder {
      */
     @Override
     public GenomeCache createCache() {
-        return new GraphEncodingCache();
+        return new GraphEncodingCache(deterministicInnovations);
     }
 
 
@@ -169,4 +197,41 @@ public class GraphEncodingBuilder implements GenomeBuilder {
     public Genome create(GenomeCache cache) {
         return new GraphEncoding(this, (GraphEncodingCache) cache);
     }
+
+
+    /**
+     * Read a cache written to a binary checkpoint by a cache of the type this builder creates.
+     *
+     * @param in Checkpoint to read from.
+     * @return The cache as it was when written.
+     */
+    @Override
+    public GenomeCache readCache(CheckpointInput in) throws IOException {
+        return GraphEncodingCache.read(in);
+    }
+
+
+    /**
+     * Read a genome written to a binary checkpoint by a genome of the type this builder creates.
+     *
+     * @param in Checkpoint to read from.
+     * @return The genome as it was when written.
+     */
+    @Override
+    public Genome read(CheckpointInput in) throws IOException {
+        return GraphEncoding.read(in);
+    }
+
+
+    /**
+     * Read a genome written to a binary checkpoint as its differences from another genome of this type.
+     *
+     * @param in   Checkpoint to read from.
+     * @param base The genome the differences were written from.
+     * @return The genome as it was when written.
+     */
+    @Override
+    public Genome readDiff(CheckpointInput in, Genome base) throws IOException {
+        return GraphEncoding.readDiff(in, (GraphEncoding) base);
+    }
 }
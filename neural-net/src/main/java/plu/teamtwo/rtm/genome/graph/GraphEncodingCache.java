@@ -1,20 +1,74 @@
 package plu.teamtwo.rtm.genome.graph;
 
+import plu.teamtwo.rtm.genome.CheckpointInput;
+import plu.teamtwo.rtm.genome.CheckpointOutput;
 import plu.teamtwo.rtm.genome.GenomeCache;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Used to track mutations within a generation to properly give the same node ids and edge ids.
+ * Used to track mutations within a generation to properly give the same node ids and edge ids. This is safe to use
+ * from multiple threads at once; mutations are spread over several independently locked parts keyed by primitive
+ * values, and new IDs are allocated atomically.
+ * <p>
+ * IDs are handed out in the order mutations are registered, which depends on thread timing when genomes are mutated
+ * in parallel. In deterministic mode genomes instead keep their new mutations under provisional IDs and register them
+ * when the generation is finished, one genome at a time in population order (see Genome.finishGeneration), so the
+ * IDs do not depend on which thread bred which genome.
  */
 class GraphEncodingCache implements GenomeCache {
-    private Map<Integer, int[]> mutatedNodes = new HashMap<>();
-    private Map<Long, Integer> mutatedEdges = new HashMap<>();
+    /// Number of independently locked parts of the registry, must be a power of two.
+    private static final int PARTS = 16;
 
-    private int nextNodeID = 0;
-    private int nextEdgeID = 0;
+    /// True if genomes should register their mutations once the generation is finished rather than as they happen.
+    private final boolean deterministic;
+    /// Mutations made this generation, spread over independently locked parts.
+    private final transient MutationLog[] parts = new MutationLog[PARTS];
+
+    private final AtomicInteger nextNodeID = new AtomicInteger(0);
+    private final AtomicInteger nextEdgeID = new AtomicInteger(0);
+
+
+    /**
+     * Create a cache.
+     *
+     * @param deterministic True if genomes should register their mutations when the generation is finished instead of
+     *                      as they are made.
+     */
+    GraphEncodingCache(boolean deterministic) {
+        this.deterministic = deterministic;
+        for(int i = 0; i < PARTS; ++i)
+            parts[i] = new MutationLog();
+    }
+
+
+    /**
+     * Read a cache written to a binary checkpoint. The cache starts a new generation.
+     *
+     * @param in Checkpoint to read from.
+     * @return The cache.
+     */
+    static GraphEncodingCache read(CheckpointInput in) throws IOException {
+        GraphEncodingCache cache = new GraphEncodingCache(in.readBoolean());
+        cache.nextNodeID.set(in.readVarInt());
+        cache.nextEdgeID.set(in.readVarInt());
+        return cache;
+    }
+
+
+    /**
+     * Write the next IDs to give out to a binary checkpoint. The mutations of the current generation are not written,
+     * so this should be done between generations.
+     *
+     * @param out Checkpoint to write to.
+     */
+    @Override
+    public void write(CheckpointOutput out) throws IOException {
+        out.writeBoolean(deterministic);
+        out.writeVarInt(nextNodeID.get());
+        out.writeVarInt(nextEdgeID.get());
+    }
 
 
     /**
@@ -24,8 +78,10 @@ class GraphEncodingCache implements GenomeCache {
      * @return Array of [nodeID, edgeToID, EdgeFromID], or null if no node was mutated on that edge.
      */
     int[] getMutatedNode(int edge) {
-        int[] vals = mutatedNodes.get(edge);
-        return vals == null ? null : Arrays.copyOf(vals, 3);
+        final MutationLog part = part(edge, -1);
+        synchronized(part) {
+            return part.getNode(edge);
+        }
     }
 
 
@@ -37,18 +93,63 @@ class GraphEncodingCache implements GenomeCache {
      * @return ID of the added edge, or -1 if no edge was mutated between those nodes.
      */
     int getMutatedEdge(int from, int to) {
-        Integer edge = mutatedEdges.get(hashTwoInts(from, to));
-        return edge == null ? -1 : edge;
+        final MutationLog part = part(from, to);
+        synchronized(part) {
+            return part.getEdge(from, to);
+        }
     }
 
 
     int nextNodeID() {
-        return nextNodeID++;
+        return nextNodeID.getAndIncrement();
     }
 
 
     int nextEdgeID() {
-        return nextEdgeID++;
+        return nextEdgeID.getAndIncrement();
+    }
+
+
+    /**
+     * Get the IDs for a node mutated along an edge, allocating new ones if no node has been mutated on that edge yet
+     * this generation. Checking and allocating happen together, so two threads making the same mutation will always
+     * get the same IDs.
+     *
+     * @param edge ID of the edge along which the node is added.
+     * @return Array of [nodeID, edgeToID, EdgeFromID].
+     */
+    int[] registerMutatedNode(int edge) {
+        final MutationLog part = part(edge, -1);
+        synchronized(part) {
+            final int[] existing = part.getNode(edge);
+            if(existing != null) return existing;
+
+            final int[] ids = new int[]{nextNodeID(), nextEdgeID(), nextEdgeID()};
+            part.addNode(edge, ids[0], ids[1], ids[2]);
+            return ids;
+        }
+    }
+
+
+    /**
+     * Get the ID for an edge mutated between two nodes, allocating a new one if no such edge has been mutated yet this
+     * generation. Checking and allocating happen together, so two threads making the same mutation will always get the
+     * same ID.
+     *
+     * @param from Starting node of the edge.
+     * @param to   Ending node of the edge.
+     * @return ID of the edge.
+     */
+    int registerMutatedEdge(int from, int to) {
+        final MutationLog part = part(from, to);
+        synchronized(part) {
+            final int existing = part.getEdge(from, to);
+            if(existing >= 0) return existing;
+
+            final int id = nextEdgeID();
+            part.addEdge(from, to, id);
+            return id;
+        }
     }
 
 
@@ -61,7 +162,10 @@ class GraphEncodingCache implements GenomeCache {
      * @param edge       ID of the edge along which the node was added.
      */
     void addMutatedNode(int nodeID, int edgeToID, int edgeFromID, int edge) {
-        mutatedNodes.put(edge, new int[]{nodeID, edgeToID, edgeFromID});
+        final MutationLog part = part(edge, -1);
+        synchronized(part) {
+            part.addNode(edge, nodeID, edgeToID, edgeFromID);
+        }
     }
 
 
@@ -73,22 +177,18 @@ class GraphEncodingCache implements GenomeCache {
      * @param to   ID of the node which the edge goes to.
      */
     void addMutatedEdge(int id, int from, int to) {
-        mutatedEdges.put(hashTwoInts(from, to), id);
+        final MutationLog part = part(from, to);
+        synchronized(part) {
+            part.addEdge(from, to, id);
+        }
     }
 
 
     /**
-     * Convert the (a, b) data to a unique id.
-     *
-     * @param a First value to be hashed.
-     * @param b Second value to be hashed.
-     * @return Unique, deterministic value defined by the two values.
+     * @return True if genomes should register their mutations when the generation is finished.
      */
-    private static long hashTwoInts(int a, int b) {
-        long result = a;
-        result <<= 32;
-        result |= b;
-        return result;
+    boolean isDeterministic() {
+        return deterministic;
     }
 
 
@@ -98,7 +198,20 @@ class GraphEncodingCache implements GenomeCache {
      */
     @Override
     public void newGeneration() {
-        mutatedEdges.clear();
-        mutatedNodes.clear();
+        for(int i = 0; i < PARTS; ++i)
+            parts[i] = new MutationLog();
+    }
+
+
+    /**
+     * Find the part of the registry responsible for a mutation.
+     *
+     * @param a First value identifying the mutation.
+     * @param b Second value identifying the mutation.
+     * @return The part to register the mutation with.
+     */
+    private MutationLog part(int a, int b) {
+        final int hash = a * 0x9E3779B9 + b;
+        return parts[(hash ^ (hash >>> 16)) & (PARTS - 1)];
     }
 }
@@ -1,19 +1,23 @@
 package plu.teamtwo.rtm.genome.graph;
 
 import plu.teamtwo.rtm.core.async.GlobalThreadPool;
+import plu.teamtwo.rtm.genome.CheckpointOutput;
+import plu.teamtwo.rtm.genome.Fingerprint;
 import plu.teamtwo.rtm.genome.Genome;
 import plu.teamtwo.rtm.genome.GenomeCache;
 import plu.teamtwo.rtm.neural.ActivationFunction;
+import plu.teamtwo.rtm.neural.CalculationBackend;
 import plu.teamtwo.rtm.neural.NeuralNetwork;
 import plu.teamtwo.rtm.neural.SubstrateNetwork;
 import plu.teamtwo.rtm.neural.SubstrateNetworkBuilder;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -21,8 +25,6 @@ import java.util.concurrent.Future;
  * resulting SubstrateNetwork.
  */
 public class MultilayerSubstrateEncoding implements Genome {
-    /// Target number of jobs for weight calculations to be broken into.
-    private static final int TARGET_CPU_JOBS = Runtime.getRuntime().availableProcessors() * 2;
     /// Threshold for a link to be expressed
     private static final float LEO_THRESHOLD = 0.5f;
     /// Range of output used as a weight in substrate network, forms the range [-WIGHT_RANGE, +WEIGHT_RANGE]
@@ -34,9 +36,14 @@ public class MultilayerSubstrateEncoding implements Genome {
     private final ActivationFunction outputFunction;
     /// Activation function to use for hidden nodes on the substrate.
     private final ActivationFunction hiddenFunction;
+    /// How the constructed substrate network calculates the weighted sums of its dense layers.
+    private final CalculationBackend backend;
+    /// Number of threads used to calculate the substrate weights when constructing the neural network, or 0 to use
+    ///  the number of threads the CPU pool has.
+    private final int transcriptionThreads;
     private int[][] layers;
-    ///mappings from n-dimensional space into 1D vector of each layer's nodes
-    private int[][] mappingProducts;
+    /// Normalized position of every node on each layer, shared by all genomes created by the same builder.
+    private final transient SubstrateCoordinates coordinates;
     private int[] layerSizes;
     /// The cppn used for calculating the internal connections. Note that the cppn should be called with
     ///  x1, y1, z1, ..., x2, y2, z2, ..., bias such that the the coordinates for each dimension are next to each other.
@@ -53,22 +60,44 @@ public class MultilayerSubstrateEncoding implements Genome {
      * @param cache   Information about the nodes and edges needed by the CPPN for initialization.
      */
     MultilayerSubstrateEncoding(MultilayerSubstrateEncodingBuilder builder, GenomeCache cache) {
+        this(builder, createCPPN(builder, cache));
+    }
+
+
+    /**
+     * Construct a MultilayerSubstrateEncoding around an existing CPPN, e.g. one read from a checkpoint.
+     *
+     * @param builder Builder with the needed information about the substrate.
+     * @param cppn    CPPN to calculate the weight values with.
+     */
+    MultilayerSubstrateEncoding(MultilayerSubstrateEncodingBuilder builder, GraphEncoding cppn) {
         layers = builder.buildLayers();
         layerSizes = SubstrateNetwork.calculateLayerSizes(layers);
         inputFunction = builder.inputFunction;
         outputFunction = builder.outputFunction;
         hiddenFunction = builder.hiddenFunction;
+        backend = builder.backend;
+        transcriptionThreads = builder.transcriptionThreads;
+        coordinates = builder.buildCoordinates();
+        this.cppn = cppn;
+    }
+
 
-        //calculate the mapping products for use in creating the neural network
-        mappingProducts = new int[layers.length][];
-        for(int layer = 0; layer < layers.length; ++layer)
-            mappingProducts[layer] = calculateMappingProducts(layers[layer], false);
+    /**
+     * Create the CPPN for a new encoding with outputs for each layer transition.
+     *
+     * @param builder Builder with the needed information about the substrate.
+     * @param cache   Information about the nodes and edges needed by the CPPN for initialization.
+     * @return The new CPPN.
+     */
+    private static GraphEncoding createCPPN(MultilayerSubstrateEncodingBuilder builder, GenomeCache cache) {
+        final int[][] layers = builder.buildLayers();
 
         //construct the CPPN with outputs for each layer transition and enough inputs to support the largest
         // transition's dimensional space
         int maxTransDimen = 1;
         for(int i = 0; i < layers.length - 1; ++i)
-            maxTransDimen = Math.max(layers[0].length + layers[1].length, maxTransDimen);
+            maxTransDimen = Math.max(layers[i].length + layers[i + 1].length, maxTransDimen);
 
         final int inputs = maxTransDimen + 1; // add a bias node
         final int outputs = (layers.length - 1) * 2; //multiply by two for LEO extension
@@ -79,10 +108,13 @@ public class MultilayerSubstrateEncoding implements Genome {
                                                    .inputFunction(ActivationFunction.LINEAR)
                                                    .outputFunction(ActivationFunction.SIGMOID);
 
+        if(builder.feedForwardCPPN)
+            cppnBuilder.feedForward();
+
         seedLEO(cppnBuilder, layers, inputs, outputs);
         connectInputs(cppnBuilder, layers, inputs, outputs);
 
-        cppn = (GraphEncoding) cppnBuilder.create(cache);
+        return (GraphEncoding) cppnBuilder.create(cache);
     }
 
 
@@ -107,48 +139,16 @@ public class MultilayerSubstrateEncoding implements Genome {
         for(int i = 0; i < layers.length; ++i)
             layers[i] = Arrays.copyOf(other.layers[i], other.layers[i].length);
 
-        mappingProducts = new int[other.mappingProducts.length][];
-        for(int i = 0; i < mappingProducts.length; ++i)
-            mappingProducts[i] = Arrays.copyOf(other.mappingProducts[i], other.mappingProducts[i].length);
-
         layerSizes = Arrays.copyOf(other.layerSizes, other.layerSizes.length);
-
+        coordinates = other.coordinates; //read-only, so it can be shared
 
         this.cppn = cppn;
 
         inputFunction = other.inputFunction;
         outputFunction = other.outputFunction;
         hiddenFunction = other.hiddenFunction;
-    }
-
-
-    /**
-     * Calculate the products needed for each dimension using dynamic programming.
-     * i.e. Let each Xi be the product of all Dj dimension sizes where n > j > i.
-     * <p>
-     * Use this for calculating the index of a n-dimensional point in a vector. Take the point (1, 2, 3) in 3D space,
-     * you would want to multiply 1 by the maximum size of the second two dimensions, and 2 by the maximum size of the
-     * third dimension, and finally add the value 3 because it is the lowest order dimension. Thus let the result of
-     * this function be P, and the correct index would be 1*p[0] + 2*p[2] + 3*p[3].
-     *
-     * @param d       Array of dimensions where d[0] is the highest order dimension and d[n-1] is the lowest order
-     * @param inplace Calculate the values in-place, otherwise makes a copy first.
-     * @return An array such that each Pi is the product of all Dj where i < j < n.
-     */
-    private static int[] calculateMappingProducts(int[] d, boolean inplace) {
-        int[] p = inplace ? d : Arrays.copyOf(d, d.length);
-
-        //calculate from the rear to make use of past calculations
-        int last = p[p.length - 1];
-        p[p.length - 1] = 1;
-
-        for(int i = p.length - 2; i >= 0; --i) {
-            int saved = p[i];
-            p[i] = last * p[i + 1];
-            last = saved;
-        }
-
-        return p;
+        backend = other.backend;
+        transcriptionThreads = other.transcriptionThreads;
     }
 
 
@@ -224,50 +224,6 @@ public class MultilayerSubstrateEncoding implements Genome {
     }
 
 
-    /**
-     * Map the position p in the 1D combined space to its n-dimensional normalized value. This converts the 1D point to
-     * an array of floats, each value in the array representing its normalized position in that dimension. The positon
-     * is normalized to a value between -1 and 1, but is offset slightly such that in a dimension of size two it would
-     * not end up being at both extrema.
-     *
-     * @param p The position/index in 1D combined space.
-     * @param D The dimension bounds the point exists in.
-     * @param M The pre-calculated mapping information, each Mi is the product of all Dj where i < j < n
-     * @return The normalized position across all dimensions.
-     */
-    private static float[] mapPosition(int p, int[] D, int[] M) {
-        // Logic/Demonstration of concept
-        // We calculate a point's 1D position by
-        //  sum(P[i] * M[i]) = position in 1D
-        //  P[0] * X + P[1] * Y + P[2] * Z
-        //
-        // So we can calculate its n-D position by
-        //  ( (( 0  1)( 2  3)( 4  5))  (( 6  7)( 8  9)(10 11)) )
-        //  D = [2, 3, 2]
-        //  M = [6, 2, 1]
-        //  x = (1, 1, 0) -> 8
-        //  x / M[0] = 1    r = x % M[0] = 2
-        //  r / M[1] = 1    r = r % M[1] = 0
-        //  r / M[2] = 0    r = r % M[2] = 0
-
-        float[] pos = new float[D.length];
-        //for each dimension, calculate the normalized position in that dimension
-        for(int i = 0; i < D.length; ++i) {
-            final int x = p / M[i];
-            p %= M[i];
-
-            //x is going to be in [0, D[i]), so we can just add 1/2 the distance between points and it will be shifted
-            // slightly preventing the problem where a dimension of size 2 ends up as 0 or 1, instead it will be 0.25
-            // and 0.75
-            final float v = ((float) x / (float) D[i]) + (0.5f / (float) D[i]);
-            //take the value of where it is and map it to (-1, 1)
-            pos[i] = (v * 2.0f) - 1.0f;
-        }
-
-        return pos;
-    }
-
-
     /**
      * Create a deep copy of the genome. This will enable the copy to be modified without altering the original.
      *
@@ -281,12 +237,15 @@ public class MultilayerSubstrateEncoding implements Genome {
 
     /**
      * Used to create a new cache of the appropriate type.
+     * The cache gives deterministic innovation numbers like the one made by the builder by default, so genomes bred
+     * in parallel (e.g. as part of a GenomeComposition) get the same IDs for the same seed. The genome does not know
+     * if its builder was set to unorderedInnovations; use the builder's cache for that.
      *
      * @return A new cache for the specific instance of Genome.
      */
     @Override
     public GenomeCache createCache() {
-        return new GraphEncodingCache();
+        return new GraphEncodingCache(true);
     }
 
 
@@ -301,6 +260,63 @@ public class MultilayerSubstrateEncoding implements Genome {
     }
 
 
+    /**
+     * Called once every genome of a generation has been created, one genome at a time in population order.
+     *
+     * @param cache Cached information about the genome.
+     */
+    @Override
+    public void finishGeneration(GenomeCache cache) {
+        cppn.finishGeneration(cache);
+    }
+
+
+    /**
+     * Write the genome to a binary checkpoint. Only the CPPN is written, the layers are given by the builder which
+     * reads it back.
+     *
+     * @param out Checkpoint to write to.
+     */
+    @Override
+    public void write(CheckpointOutput out) throws IOException {
+        cppn.write(out);
+    }
+
+
+    /**
+     * Write the genome to a binary checkpoint as the differences of its CPPN from that of another encoding.
+     *
+     * @param out  Checkpoint to write to.
+     * @param base Encoding to describe the differences from.
+     */
+    @Override
+    public void writeDiff(CheckpointOutput out, Genome base) throws IOException {
+        cppn.writeDiff(out, ((MultilayerSubstrateEncoding) base).cppn);
+    }
+
+
+    /**
+     * A hash of the CPPN combined with the layers and activation functions of the substrate.
+     *
+     * @return The fingerprint of the genome.
+     */
+    @Override
+    public long fingerprint() {
+        long h = Fingerprint.combine(Arrays.deepHashCode(layers), inputFunction.ordinal());
+        h = Fingerprint.combine(h, outputFunction.ordinal());
+        h = Fingerprint.combine(h, hiddenFunction.ordinal());
+        return Fingerprint.combine(h, cppn.fingerprint());
+    }
+
+
+    /**
+     * @return The CPPN used for calculating the internal connections.
+     */
+    GraphEncoding cppn() {
+        return cppn;
+    }
+
+
     /**
      * Cross the genomes of two parents to create a child. This will take the disjoint and excess genes from the most
      * fit parent and randomly choose between the matching ones.
@@ -332,58 +348,39 @@ public class MultilayerSubstrateEncoding implements Genome {
 
 
     /**
-     * Create a runnable ANN which is represented by the genome.
+     * Create a runnable ANN which is represented by the genome. The weights are calculated by a set of workers, each
+     * with its own copy of the CPPN, which claim output nodes one at a time until every row of weights is filled. Each
+     * row is only ever calculated by one worker, so the result is the same no matter how many threads are used.
      *
      * @return The ANN represented by the genome.
      */
     @Override
     public NeuralNetwork constructNeuralNetwork() {
-        //calculate outputs of CPPN for each input output pairing and then use those for the network
-
-        final ExecutorService threadPool = GlobalThreadPool.instance();
-        final LinkedList<Future<?>> futures = new LinkedList<>();
-
-        final NeuralNetwork[] networks = new NeuralNetwork[TARGET_CPU_JOBS];
-
-        {
-            LinkedList<Future<NeuralNetwork>> fnets = new LinkedList<>();
-            for(int i = 0; i < networks.length; ++i)
-                //TODO: better ways to make multiple copies of the same network
-                fnets.add(threadPool.submit(new Genome.ConstructNeuralNetwork(cppn)));
-
-            for(int i = 0; i < networks.length; ++i)
-                try {
-                    networks[i] = fnets.poll().get();
-                } catch(InterruptedException | ExecutionException e) {
-                    e.printStackTrace();
-                }
-        }
-
         final int numTransitions = layers.length - 1; //number of transitions between layers
-        float[][][] weights = new float[numTransitions][][];
+        final float[][][] weights = new float[numTransitions][][];
+        final AtomicInteger[] nextRow = new AtomicInteger[numTransitions];
 
-        //for all the layers, set weights of each input, output pair
+        int rows = 0;
         for(int layer = 0; layer < numTransitions; ++layer) {
-            final int inputLayerSize = layerSizes[layer];       //number of nodes on input substrate
-            final int outputLayerSize = layerSizes[layer + 1];  //number of nodes on output substrate
-
-            final int JOB_SIZE = (outputLayerSize / TARGET_CPU_JOBS) + 1;
+            weights[layer] = new float[layerSizes[layer + 1]][layerSizes[layer]];
+            nextRow[layer] = new AtomicInteger(0);
+            rows += layerSizes[layer + 1];
+        }
 
-            weights[layer] = new float[outputLayerSize][inputLayerSize];
-            final float[][] layerWeights = weights[layer];
+        //calculate outputs of CPPN for each input output pairing and then use those for the network
+        final int threads = transcriptionThreads > 0 ? transcriptionThreads : GlobalThreadPool.parallelism();
+        final int workers = Math.max(Math.min(threads, rows), 1);
+        final ExecutorService threadPool = GlobalThreadPool.instance();
+        final LinkedList<Future<?>> futures = new LinkedList<>();
 
-            //for all outputs, construct a vector of input weights
-            for(int out = 0, netID = 0; out < outputLayerSize; out += JOB_SIZE, netID++) {
-                //futures.add(threadPool.submit(
-                new Calculator(layer, out, out + JOB_SIZE, layerWeights, networks[netID]).run();
-                //));
-            }
+        for(int i = 1; i < workers; ++i)
+            futures.add(threadPool.submit(new Calculator(weights, nextRow)));
+        new Calculator(weights, nextRow).run(); //this thread works as well instead of only waiting
 
-            while(!futures.isEmpty()) try {
-                futures.poll().get();
-            } catch(InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
+        while(!futures.isEmpty()) try {
+            futures.poll().get();
+        } catch(InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Unable to calculate the substrate weights.", e);
         }
 
         //build the new network
@@ -391,6 +388,7 @@ public class MultilayerSubstrateEncoding implements Genome {
                        .inputFunction(inputFunction)
                        .outputFunction(outputFunction)
                        .hiddenFunction(hiddenFunction)
+                       .backend(backend)
                        .layers(layers)
                        .weights(weights)
                        .create();
@@ -398,67 +396,70 @@ public class MultilayerSubstrateEncoding implements Genome {
 
 
     /**
-     * Designed to calculate the weight of a given edge.
+     * Designed to calculate the weights of the substrate. Each calculator constructs its own copy of the CPPN and then
+     * repeatedly claims the next output node of a layer which has not been calculated and computes the weights from
+     * every input node to it.
      */
     private class Calculator implements Runnable {
-        private final int layer;
-        private int outStart, outEnd;
-        private NeuralNetwork network;
-        private float[][] layerWeights;
+        private final float[][][] weights;
+        private final AtomicInteger[] nextRow;
+        /// Network of the CPPN, only built once this has claimed a row so calculators without work do not build one.
+        private NeuralNetwork network = null;
 
 
         /**
-         * Creates a new calculator which will calculate the connection weights in the range [outStart, outEnd).
-         * It does perform bounds checking on outEnd.
+         * Creates a new calculator which will help fill in the weights for all of the layers.
          *
-         * @param layer    Input layer this is processing the outputs for.
-         * @param outStart First output node to compute weights for.
-         * @param outEnd   One past the last output node to compute weights for.
-         * @param network  The network this can use to calculate the expected value.
+         * @param weights Weights of each layer transition stored as [layer][output][input].
+         * @param nextRow The next output node which needs to be calculated for each layer, shared by all calculators.
          */
-        Calculator(int layer, int outStart, int outEnd, float[][] layerWeights, NeuralNetwork network) {
-            this.layer = layer;
-            this.outStart = outStart;
-            this.outEnd = outEnd;
-            this.layerWeights = layerWeights;
-            this.network = network;
+        Calculator(float[][][] weights, AtomicInteger[] nextRow) {
+            this.weights = weights;
+            this.nextRow = nextRow;
         }
 
 
         @Override
         public void run() {
+            for(int layer = 0; layer < weights.length; ++layer)
+                run(layer);
+        }
+
+
+        /**
+         * Claim and calculate output nodes of a layer until there are none left.
+         *
+         * @param layer Input layer this is processing the outputs for.
+         */
+        private void run(final int layer) {
             final int inputLayerSize  = layerSizes[layer];       //number of nodes on input substrate
             final int outputLayerSize = layerSizes[layer + 1];  //number of nodes on output substrate
             final int weightIndex = layer * 2;  //index in output of the weight for current layer
             final int leoIndex = layer * 2 + 1; //index in output of the link expression value for current layer
-            final int[] inputDimensions = layers[layer];
-            final int[] outputDimensions = layers[layer + 1];
-            final int[] layerMappingProducts = mappingProducts[layer];
+            final int inputDimensions = coordinates.dimensions(layer);
+            final float[][] layerWeights = weights[layer];
+
+            int out = nextRow[layer].getAndIncrement();
+            if(out >= outputLayerSize) return;
+            if(network == null) network = cppn.constructNeuralNetwork();
 
-            outEnd = Math.min(outEnd, outputLayerSize);
-            for(int out = outStart; out < outEnd; ++out) {
-                final float[] outpos = mapPosition(out, outputDimensions, layerMappingProducts);
+            //one row per input node, the input coordinates and bias stay the same for every output node
+            final float[][] inputs = new float[inputLayerSize][network.inputs()];
+            final float[][] results = new float[inputLayerSize][network.outputs()];
+            for(int in = 0; in < inputLayerSize; ++in) {
+                coordinates.copyPosition(layer, in, inputs[in], 0);
+                inputs[in][network.inputs() - 1] = 1; //set bias
+            }
+
+            for(; out < outputLayerSize; out = nextRow[layer].getAndIncrement()) {
+                //copy the output position in after the input position of every row
+                for(int in = 0; in < inputLayerSize; ++in)
+                    coordinates.copyPosition(layer + 1, out, inputs[in], inputDimensions);
 
-                //for all inputs, calculate the weight to the output
+                //get the outputs of the network for all inputs, then check for LEO and if above threshold, use the weight
+                network.calculateBatch(inputs, results);
                 for(int in = 0; in < inputLayerSize; ++in) {
-                    //normalize the input and output coordinates to a value between -1 and 1 for all dimensions
-                    final float[] inpos = mapPosition(in, inputDimensions, layerMappingProducts);
-
-                    //make sure we did not do a dumb since the copy may prevent errors from being pronounced
-                    if(inpos.length != inputDimensions.length)
-                        throw new RuntimeException("Error mapping input node to CPPN.");
-                    if(outpos.length != outputDimensions.length)
-                        throw new RuntimeException("Error mapping output node to CPPN.");
-
-                    //copy the mappings into a single input for the network
-                    final float[] combpos = new float[network.inputs()];
-                    System.arraycopy(inpos, 0, combpos, 0, inpos.length);
-                    System.arraycopy(outpos, 0, combpos, inpos.length, outpos.length);
-                    combpos[combpos.length - 1] = 1; //set bias
-
-                    //get the outputs of the network, then check for LEO and if above threshold, use the weight
-                    network.flush();
-                    final float[] outputs = network.calculate(combpos);
+                    final float[] outputs = results[in];
                     if(outputs[leoIndex] > LEO_THRESHOLD) {
                         float weight = outputs[weightIndex];
                         //we use SIGMOID output so this will normalize it to be within +/- WEIGHT_RANGE
@@ -466,7 +467,6 @@ public class MultilayerSubstrateEncoding implements Genome {
                         layerWeights[out][in] = weight;
                     }
                 }
-
             }
         }
     }
@@ -1,16 +1,22 @@
 package plu.teamtwo.rtm.genome.graph;
 
+import plu.teamtwo.rtm.genome.CheckpointInput;
 import plu.teamtwo.rtm.genome.Genome;
 import plu.teamtwo.rtm.genome.GenomeBuilder;
 import plu.teamtwo.rtm.genome.GenomeCache;
 import plu.teamtwo.rtm.neural.ActivationFunction;
+import plu.teamtwo.rtm.neural.CalculationBackend;
 
+import java.io.IOException;
+import java.security.InvalidParameterException;
 import java.util.LinkedList;
 
 public class MultilayerSubstrateEncodingBuilder implements GenomeBuilder {
     private int[] inputs;
     private int[] outputs;
     private LinkedList< int[] > hidden = new LinkedList<>();
+    /// Node positions for the current layers, built when first needed and then shared by every genome created.
+    private SubstrateCoordinates coordinates = null;
 
     /// Activation function used to process inputs with before calculating.
     ActivationFunction inputFunction = ActivationFunction.LINEAR;
@@ -18,6 +24,15 @@ public class MultilayerSubstrateEncodingBuilder implements GenomeBuilder {
     ActivationFunction outputFunction = ActivationFunction.SIGMOID;
     /// Activation function to use for hidden nodes on the substrate.
     ActivationFunction hiddenFunction = ActivationFunction.SIGMOID;
+    /// How the constructed substrate networks calculate the weighted sums of their dense layers.
+    CalculationBackend backend = CalculationBackend.SCALAR;
+    /// Number of threads used to calculate the substrate weights when constructing the neural network, or 0 to use
+    ///  the number of threads the CPU pool has at that time.
+    int transcriptionThreads = 0;
+    /// Only allow the CPPN to mutate feed forward connections.
+    boolean feedForwardCPPN = false;
+    /// Give the CPPN innovation numbers which do not depend on the order genomes are mutated in.
+    boolean deterministicInnovations = true;
 
 
     /**
@@ -27,7 +42,7 @@ public class MultilayerSubstrateEncodingBuilder implements GenomeBuilder {
      */
     @Override
     public GenomeCache createCache() {
-        return new GraphEncodingCache();
+        return new GraphEncodingCache(deterministicInnovations);
     }
 
 
@@ -44,6 +59,45 @@ public class MultilayerSubstrateEncodingBuilder implements GenomeBuilder {
     }
 
 
+    /**
+     * Read a cache written to a binary checkpoint by a cache of the type this builder creates.
+     *
+     * @param in Checkpoint to read from.
+     * @return The cache as it was when written.
+     */
+    @Override
+    public GenomeCache readCache(CheckpointInput in) throws IOException {
+        return GraphEncodingCache.read(in);
+    }
+
+
+    /**
+     * Read a genome written to a binary checkpoint by a genome of the type this builder creates. Only the CPPN is
+     * written, the substrate comes from this builder.
+     *
+     * @param in Checkpoint to read from.
+     * @return The genome as it was when written.
+     */
+    @Override
+    public Genome read(CheckpointInput in) throws IOException {
+        return new MultilayerSubstrateEncoding(this, GraphEncoding.read(in));
+    }
+
+
+    /**
+     * Read a genome written to a binary checkpoint as its differences from another genome of this type.
+     *
+     * @param in   Checkpoint to read from.
+     * @param base The genome the differences were written from.
+     * @return The genome as it was when written.
+     */
+    @Override
+    public Genome readDiff(CheckpointInput in, Genome base) throws IOException {
+        final GraphEncoding cppn = ((MultilayerSubstrateEncoding) base).cppn();
+        return new MultilayerSubstrateEncoding(this, GraphEncoding.readDiff(in, cppn));
+    }
+
+
     /**
      * Sets the input dimension sizes for the network. If you have an 5x4x3 input space, then pass in an array
      * [5, 4, 3].
@@ -52,6 +106,7 @@ public class MultilayerSubstrateEncodingBuilder implements GenomeBuilder {
      */
     public MultilayerSubstrateEncodingBuilder inputs(int[] inputDimensions) {
         inputs = inputDimensions;
+        coordinates = null;
         return this;
     }
 
@@ -64,6 +119,7 @@ public class MultilayerSubstrateEncodingBuilder implements GenomeBuilder {
      */
     public MultilayerSubstrateEncodingBuilder outputs(int[] outputDimensions) {
         outputs = outputDimensions;
+        coordinates = null;
         return this;
     }
 
@@ -75,6 +131,7 @@ public class MultilayerSubstrateEncodingBuilder implements GenomeBuilder {
      */
     public MultilayerSubstrateEncodingBuilder addLayer(int[] layerDimensions) {
         hidden.add(layerDimensions);
+        coordinates = null;
         return this;
     }
 
@@ -114,6 +171,52 @@ public class MultilayerSubstrateEncodingBuilder implements GenomeBuilder {
     }
 
 
+    /**
+     * Select how the constructed substrate networks calculate the weighted sums of their dense layers.
+     *
+     * @param backend The backend the substrate networks should calculate with.
+     */
+    public MultilayerSubstrateEncodingBuilder backend(CalculationBackend backend) {
+        this.backend = backend;
+        return this;
+    }
+
+
+    /**
+     * Set the number of threads used to calculate the substrate weights when a genome constructs its neural network.
+     * Use 1 to calculate everything on the calling thread, e.g. when the genomes are already being evaluated in
+     * parallel. By default as many threads as the CPU pool has are used.
+     *
+     * @param threads Number of threads to use, must be at least 1.
+     */
+    public MultilayerSubstrateEncodingBuilder transcriptionThreads(int threads) {
+        if(threads < 1)
+            throw new InvalidParameterException("Must use at least one thread for transcription.");
+        this.transcriptionThreads = threads;
+        return this;
+    }
+
+
+    /**
+     * Keep the CPPN feed forward by not mutating connections which would create a cycle. Feed forward CPPNs can be
+     * compiled and evaluated in batches when transcribing the substrate.
+     */
+    public MultilayerSubstrateEncodingBuilder feedForwardCPPN() {
+        this.feedForwardCPPN = true;
+        return this;
+    }
+
+
+    /**
+     * Register new CPPN mutations as they are made instead of once the whole generation has been bred, see
+     * GraphEncodingBuilder.unorderedInnovations. Runs are then only reproducible if the CPU pool has a single thread.
+     */
+    public MultilayerSubstrateEncodingBuilder unorderedInnovations() {
+        this.deterministicInnovations = false;
+        return this;
+    }
+
+
     /**
      * Used to construct the double array of layer information and validate it.
      *
@@ -128,4 +231,17 @@ public class MultilayerSubstrateEncodingBuilder implements GenomeBuilder {
 
         return layers;
     }
+
+
+    /**
+     * Get the node positions for the layers. These are only calculated again if the layers have been changed since the
+     * last time this was called, so genomes created by this builder share the same instance.
+     *
+     * @return Normalized positions of every node on each layer.
+     */
+    SubstrateCoordinates buildCoordinates() {
+        if(coordinates == null)
+            coordinates = new SubstrateCoordinates(buildLayers());
+        return coordinates;
+    }
 }
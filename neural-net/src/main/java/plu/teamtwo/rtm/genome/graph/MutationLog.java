@@ -0,0 +1,135 @@
+package plu.teamtwo.rtm.genome.graph;
+
+import java.util.Arrays;
+
+/**
+ * Records the structural mutations made during a generation and the IDs they were given, in the order they were made.
+ * Each mutation is kept as a record of four values; [edge, node, edgeTo, edgeFrom] for a node added along an edge and
+ * [from, to, id, -1] for a new edge. This is not thread safe.
+ */
+class MutationLog {
+    /// Marks the last value of an edge record.
+    private static final int EDGE_RECORD = -1;
+
+    /// Position of the record of the node added along each edge, keyed by (edge, -1).
+    private final ConnectionIndex nodes;
+    /// Position of the record of each edge added between two nodes, keyed by (from, to).
+    private final ConnectionIndex edges;
+    /// Every record in the order they were added.
+    private int[] records;
+    /// Number of values used in records.
+    private int size = 0;
+
+
+    /**
+     * Create an empty log.
+     */
+    MutationLog() {
+        nodes = new ConnectionIndex(8);
+        edges = new ConnectionIndex(8);
+        records = new int[32];
+    }
+
+
+    /**
+     * Make a deep copy of another log.
+     *
+     * @param other Log to copy.
+     */
+    MutationLog(MutationLog other) {
+        nodes = new ConnectionIndex(other.nodes);
+        edges = new ConnectionIndex(other.edges);
+        records = other.records.clone();
+        size = other.size;
+    }
+
+
+    /**
+     * Get the IDs of a node added along an edge.
+     *
+     * @param edge ID of the edge.
+     * @return Array of [nodeID, edgeToID, EdgeFromID], or null if no node was added along that edge.
+     */
+    int[] getNode(int edge) {
+        final int record = nodes.get(edge, -1);
+        return record < 0 ? null : Arrays.copyOfRange(records, record + 1, record + 4);
+    }
+
+
+    /**
+     * Get the ID of an edge added between two nodes.
+     *
+     * @param from Starting node of the edge.
+     * @param to   Ending node of the edge.
+     * @return ID of the edge, or -1 if no edge was added between those nodes.
+     */
+    int getEdge(int from, int to) {
+        final int record = edges.get(from, to);
+        return record < 0 ? -1 : records[record + 2];
+    }
+
+
+    /**
+     * Record a node added along an edge.
+     *
+     * @param edge     ID of the edge along which the node was added.
+     * @param node     ID of the new node.
+     * @param edgeTo   ID of the edge going to the new node.
+     * @param edgeFrom ID of the edge coming from the new node.
+     */
+    void addNode(int edge, int node, int edgeTo, int edgeFrom) {
+        nodes.put(edge, -1, append(edge, node, edgeTo, edgeFrom));
+    }
+
+
+    /**
+     * Record an edge added between two nodes.
+     *
+     * @param from ID of the node the edge comes from.
+     * @param to   ID of the node the edge goes to.
+     * @param id   ID of the new edge.
+     */
+    void addEdge(int from, int to, int id) {
+        edges.put(from, to, append(from, to, id, EDGE_RECORD));
+    }
+
+
+    /**
+     * @return Number of records, records are numbered in the order they were added.
+     */
+    int size() {
+        return size / 4;
+    }
+
+
+    /**
+     * @param record Number of the record.
+     * @return True if it is the record of a new edge, false if it is the record of a new node.
+     */
+    boolean isEdge(int record) {
+        return records[record * 4 + 3] == EDGE_RECORD;
+    }
+
+
+    /**
+     * Get a value of a record.
+     *
+     * @param record Number of the record.
+     * @param value  Which of the four values to get.
+     * @return The value.
+     */
+    int get(int record, int value) {
+        return records[record * 4 + value];
+    }
+
+
+    private int append(int a, int b, int c, int d) {
+        if(size + 4 > records.length) records = Arrays.copyOf(records, records.length * 2);
+        final int record = size;
+        records[size++] = a;
+        records[size++] = b;
+        records[size++] = c;
+        records[size++] = d;
+        return record;
+    }
+}
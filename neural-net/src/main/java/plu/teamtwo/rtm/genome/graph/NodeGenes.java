@@ -0,0 +1,319 @@
+package plu.teamtwo.rtm.genome.graph;
+
+import plu.teamtwo.rtm.genome.CheckpointInput;
+import plu.teamtwo.rtm.genome.CheckpointOutput;
+import plu.teamtwo.rtm.genome.Fingerprint;
+import plu.teamtwo.rtm.neural.ActivationFunction;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The node genes of a graph encoding stored as parallel arrays kept sorted by ID. Nodes are referred to by their index
+ * in the arrays, which changes only when a node with a lower ID is inserted.
+ */
+class NodeGenes {
+    /// Capacity to use for an empty set of genes.
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /// Number of nodes stored, the arrays may be longer.
+    private int size;
+    /// ID of each node, in ascending order.
+    private int[] ids;
+    /// Type of each node.
+    private NodeType[] types;
+    /// Activation function of each node.
+    private ActivationFunction[] functions;
+    /// Sum of the hash of every node, only kept up to date once it has been calculated.
+    private transient long fingerprint;
+    private transient boolean hashed = false;
+
+
+    /**
+     * Create an empty set of node genes.
+     *
+     * @param capacity Number of nodes to make room for.
+     */
+    NodeGenes(int capacity) {
+        capacity = Math.max(capacity, 1);
+        ids = new int[capacity];
+        types = new NodeType[capacity];
+        functions = new ActivationFunction[capacity];
+    }
+
+
+    /**
+     * Make a deep copy of another set of node genes.
+     *
+     * @param other Node genes to copy.
+     */
+    NodeGenes(NodeGenes other) {
+        size = other.size;
+        final int capacity = Math.max(size, 1);
+        ids = Arrays.copyOf(other.ids, capacity);
+        types = Arrays.copyOf(other.types, capacity);
+        functions = Arrays.copyOf(other.functions, capacity);
+        fingerprint = other.fingerprint;
+        hashed = other.hashed;
+    }
+
+
+    /**
+     * This should only be used by serialization.
+     */
+    private NodeGenes() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * Read node genes written to a binary checkpoint.
+     *
+     * @param in Checkpoint to read from.
+     * @return The node genes.
+     */
+    static NodeGenes read(CheckpointInput in) throws IOException {
+        NodeGenes genes = new NodeGenes(0);
+        genes.ids = in.readSortedIDs();
+        genes.size = genes.ids.length;
+        final int capacity = Math.max(genes.size, 1);
+        genes.ids = Arrays.copyOf(genes.ids, capacity);
+        genes.types = new NodeType[capacity];
+        genes.functions = new ActivationFunction[capacity];
+        final NodeType[] types = NodeType.values();
+        final ActivationFunction[] functions = ActivationFunction.values();
+        for(int i = 0; i < genes.size; ++i) {
+            genes.types[i] = in.readEnum(types);
+            genes.functions[i] = in.readEnum(functions);
+        }
+        return genes;
+    }
+
+
+    /**
+     * Write the node genes to a binary checkpoint, with the IDs delta encoded.
+     *
+     * @param out Checkpoint to write to.
+     */
+    void write(CheckpointOutput out) throws IOException {
+        out.writeSortedIDs(ids, size);
+        for(int i = 0; i < size; ++i) {
+            out.writeEnum(types[i]);
+            out.writeEnum(functions[i]);
+        }
+    }
+
+
+    /**
+     * Read node genes written as their differences from other node genes.
+     *
+     * @param in   Checkpoint to read from.
+     * @param base Node genes the differences were written from.
+     * @return The node genes.
+     */
+    static NodeGenes readDiff(CheckpointInput in, NodeGenes base) throws IOException {
+        final int[] removed = in.readSortedIDs();
+        final int[] changed = in.readSortedIDs();
+        final NodeType[] types = NodeType.values();
+        final ActivationFunction[] functions = ActivationFunction.values();
+
+        //merge the changed nodes into the base nodes which were kept
+        NodeGenes genes = new NodeGenes(base.size + changed.length);
+        int b = 0, r = 0;
+        for(int c = 0; c < changed.length; ++c) {
+            for(; b < base.size && base.ids[b] <= changed[c]; ++b) {
+                while(r < removed.length && removed[r] < base.ids[b]) ++r;
+                final boolean dropped = r < removed.length && removed[r] == base.ids[b];
+                if(!dropped && base.ids[b] != changed[c])
+                    genes.append(base, b);
+            }
+            genes.add(changed[c], in.readEnum(types), in.readEnum(functions));
+        }
+        for(; b < base.size; ++b) {
+            while(r < removed.length && removed[r] < base.ids[b]) ++r;
+            if(r >= removed.length || removed[r] != base.ids[b])
+                genes.append(base, b);
+        }
+        return genes;
+    }
+
+
+    /**
+     * Write the node genes as their differences from other node genes; the IDs of the nodes which were removed, then
+     * the nodes which were added or changed.
+     *
+     * @param out  Checkpoint to write to.
+     * @param base Node genes to describe the differences from.
+     */
+    void writeDiff(CheckpointOutput out, NodeGenes base) throws IOException {
+        int[] removed = new int[base.size], changed = new int[size];
+        int removedCount = 0, changedCount = 0;
+        int i = 0, b = 0;
+        while(i < size || b < base.size) {
+            if(b >= base.size || (i < size && ids[i] < base.ids[b])) {
+                changed[changedCount++] = ids[i++];
+            } else if(i >= size || base.ids[b] < ids[i]) {
+                removed[removedCount++] = base.ids[b++];
+            } else {
+                if(types[i] != base.types[b] || functions[i] != base.functions[b])
+                    changed[changedCount++] = ids[i];
+                i++;
+                b++;
+            }
+        }
+
+        out.writeSortedIDs(removed, removedCount);
+        out.writeSortedIDs(changed, changedCount);
+        for(int c = 0; c < changedCount; ++c) {
+            final int index = indexOf(changed[c]);
+            out.writeEnum(types[index]);
+            out.writeEnum(functions[index]);
+        }
+    }
+
+
+    /**
+     * @return Number of nodes.
+     */
+    int size() {
+        return size;
+    }
+
+
+    /**
+     * @param index Index of the node.
+     * @return ID of the node.
+     */
+    int id(int index) {
+        return ids[index];
+    }
+
+
+    /**
+     * @param index Index of the node.
+     * @return Type of the node.
+     */
+    NodeType type(int index) {
+        return types[index];
+    }
+
+
+    /**
+     * @param index Index of the node.
+     * @return Activation function of the node.
+     */
+    ActivationFunction function(int index) {
+        return functions[index];
+    }
+
+
+    /**
+     * @param index Index of the node.
+     * @param fn    New activation function of the node.
+     */
+    void setFunction(int index, ActivationFunction fn) {
+        if(hashed) fingerprint -= hash(index);
+        functions[index] = fn;
+        if(hashed) fingerprint += hash(index);
+    }
+
+
+    /**
+     * Find the index of a node by its ID.
+     *
+     * @param id ID of the node.
+     * @return Index of the node, or a negative value if there is no node with that ID.
+     */
+    int indexOf(int id) {
+        return Arrays.binarySearch(ids, 0, size, id);
+    }
+
+
+    /**
+     * Add a node, keeping the nodes sorted. If there is already a node with the same ID it is replaced. New nodes have
+     * the highest ID so they are usually appended.
+     *
+     * @param id   ID of the node.
+     * @param type Type of the node.
+     * @param fn   Activation function of the node.
+     * @return Index the node was stored at.
+     */
+    int add(int id, NodeType type, ActivationFunction fn) {
+        int index = size;
+        if(size > 0 && ids[size - 1] >= id) {
+            index = indexOf(id);
+            if(index >= 0) {
+                if(hashed) fingerprint -= hash(index);
+                types[index] = type;
+                functions[index] = fn;
+                if(hashed) fingerprint += hash(index);
+                return index;
+            }
+            index = -(index + 1);
+        }
+
+        if(size == ids.length) grow();
+        final int moved = size - index;
+        if(moved > 0) {
+            System.arraycopy(ids, index, ids, index + 1, moved);
+            System.arraycopy(types, index, types, index + 1, moved);
+            System.arraycopy(functions, index, functions, index + 1, moved);
+        }
+
+        ids[index] = id;
+        types[index] = type;
+        functions[index] = fn;
+        size++;
+        if(hashed) fingerprint += hash(index);
+        return index;
+    }
+
+
+    /**
+     * Copy a node from another set of genes.
+     *
+     * @param other Node genes to copy from.
+     * @param index Index of the node in other.
+     * @return Index the node was stored at.
+     */
+    int append(NodeGenes other, int index) {
+        return add(other.ids[index], other.types[index], other.functions[index]);
+    }
+
+
+    /**
+     * A hash of every node, which is calculated once and then kept up to date as nodes are added and changed.
+     *
+     * @return The fingerprint of the nodes.
+     */
+    long fingerprint() {
+        if(!hashed) {
+            fingerprint = 0;
+            for(int i = 0; i < size; ++i)
+                fingerprint += hash(i);
+            hashed = true;
+        }
+        return fingerprint;
+    }
+
+
+    /**
+     * @param index Index of the node.
+     * @return Hash of the node.
+     */
+    private long hash(int index) {
+        long h = Fingerprint.combine(ids[index], types[index] == null ? -1 : types[index].ordinal());
+        return Fingerprint.combine(h, functions[index] == null ? -1 : functions[index].ordinal());
+    }
+
+
+    /**
+     * Double the capacity of the arrays.
+     */
+    private void grow() {
+        final int capacity = Math.max(ids.length * 2, DEFAULT_CAPACITY);
+        ids = Arrays.copyOf(ids, capacity);
+        types = Arrays.copyOf(types, capacity);
+        functions = Arrays.copyOf(functions, capacity);
+    }
+}
@@ -0,0 +1,138 @@
+package plu.teamtwo.rtm.genome.graph;
+
+import plu.teamtwo.rtm.neural.SubstrateNetwork;
+
+import java.util.Arrays;
+
+/**
+ * The normalized positions of every node on each layer of a substrate. The positions only depend on the dimensions of
+ * the layers, so they are calculated once and then shared by every genome using those layers. Instances are never
+ * modified after construction, which makes it safe to read them from many threads at once.
+ */
+class SubstrateCoordinates {
+    /// Number of dimensions of each layer.
+    private final int[] dimensions;
+    /// Position of each node stored as positions[layer][node * dimensions[layer] + dimension].
+    private final float[][] positions;
+
+
+    /**
+     * Calculate the positions of all the nodes on the given layers.
+     *
+     * @param layers The dimensions of each layer.
+     */
+    SubstrateCoordinates(int[][] layers) {
+        final int[] layerSizes = SubstrateNetwork.calculateLayerSizes(layers);
+        dimensions = new int[layers.length];
+        positions = new float[layers.length][];
+
+        for(int layer = 0; layer < layers.length; ++layer) {
+            final int[] D = layers[layer];
+            final int[] M = calculateMappingProducts(D, false);
+            dimensions[layer] = D.length;
+            positions[layer] = new float[layerSizes[layer] * D.length];
+
+            for(int node = 0; node < layerSizes[layer]; ++node)
+                System.arraycopy(mapPosition(node, D, M), 0, positions[layer], node * D.length, D.length);
+        }
+    }
+
+
+    /**
+     * Get the number of dimensions a layer has, which is also the number of values in each of its positions.
+     *
+     * @param layer The layer to get the number of dimensions of.
+     * @return Number of dimensions of the layer.
+     */
+    int dimensions(int layer) {
+        return dimensions[layer];
+    }
+
+
+    /**
+     * Copy the normalized position of a node into an array.
+     *
+     * @param layer  The layer the node is on.
+     * @param node   Index of the node in the layer's 1D vector.
+     * @param dest   Array to copy the position into.
+     * @param offset Index in dest to copy the first dimension to.
+     */
+    void copyPosition(int layer, int node, float[] dest, int offset) {
+        final int d = dimensions[layer];
+        System.arraycopy(positions[layer], node * d, dest, offset, d);
+    }
+
+
+    /**
+     * Calculate the products needed for each dimension using dynamic programming.
+     * i.e. Let each Xi be the product of all Dj dimension sizes where n > j > i.
+     * <p>
+     * Use this for calculating the index of a n-dimensional point in a vector. Take the point (1, 2, 3) in 3D space,
+     * you would want to multiply 1 by the maximum size of the second two dimensions, and 2 by the maximum size of the
+     * third dimension, and finally add the value 3 because it is the lowest order dimension. Thus let the result of
+     * this function be P, and the correct index would be 1*p[0] + 2*p[2] + 3*p[3].
+     *
+     * @param d       Array of dimensions where d[0] is the highest order dimension and d[n-1] is the lowest order
+     * @param inplace Calculate the values in-place, otherwise makes a copy first.
+     * @return An array such that each Pi is the product of all Dj where i < j < n.
+     */
+    static int[] calculateMappingProducts(int[] d, boolean inplace) {
+        int[] p = inplace ? d : Arrays.copyOf(d, d.length);
+
+        //calculate from the rear to make use of past calculations
+        int last = p[p.length - 1];
+        p[p.length - 1] = 1;
+
+        for(int i = p.length - 2; i >= 0; --i) {
+            int saved = p[i];
+            p[i] = last * p[i + 1];
+            last = saved;
+        }
+
+        return p;
+    }
+
+
+    /**
+     * Map the position p in the 1D combined space to its n-dimensional normalized value. This converts the 1D point to
+     * an array of floats, each value in the array representing its normalized position in that dimension. The positon
+     * is normalized to a value between -1 and 1, but is offset slightly such that in a dimension of size two it would
+     * not end up being at both extrema.
+     *
+     * @param p The position/index in 1D combined space.
+     * @param D The dimension bounds the point exists in.
+     * @param M The pre-calculated mapping information, each Mi is the product of all Dj where i < j < n
+     * @return The normalized position across all dimensions.
+     */
+    static float[] mapPosition(int p, int[] D, int[] M) {
+        // Logic/Demonstration of concept
+        // We calculate a point's 1D position by
+        //  sum(P[i] * M[i]) = position in 1D
+        //  P[0] * X + P[1] * Y + P[2] * Z
+        //
+        // So we can calculate its n-D position by
+        //  ( (( 0  1)( 2  3)( 4  5))  (( 6  7)( 8  9)(10 11)) )
+        //  D = [2, 3, 2]
+        //  M = [6, 2, 1]
+        //  x = (1, 1, 0) -> 8
+        //  x / M[0] = 1    r = x % M[0] = 2
+        //  r / M[1] = 1    r = r % M[1] = 0
+        //  r / M[2] = 0    r = r % M[2] = 0
+
+        float[] pos = new float[D.length];
+        //for each dimension, calculate the normalized position in that dimension
+        for(int i = 0; i < D.length; ++i) {
+            final int x = p / M[i];
+            p %= M[i];
+
+            //x is going to be in [0, D[i]), so we can just add 1/2 the distance between points and it will be shifted
+            // slightly preventing the problem where a dimension of size 2 ends up as 0 or 1, instead it will be 0.25
+            // and 0.75
+            final float v = ((float) x / (float) D[i]) + (0.5f / (float) D[i]);
+            //take the value of where it is and map it to (-1, 1)
+            pos[i] = (v * 2.0f) - 1.0f;
+        }
+
+        return pos;
+    }
+}
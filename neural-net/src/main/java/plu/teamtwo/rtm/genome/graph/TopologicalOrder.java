@@ -0,0 +1,305 @@
+package plu.teamtwo.rtm.genome.graph;
+
+import java.util.Arrays;
+
+/**
+ * Maintains a topological order of the nodes in a graph as edges are added, using the dynamic topological sort of
+ * Pearce and Kelly. An edge which goes forward in the current order can never create a cycle, so most checks are
+ * constant time; otherwise only the nodes between the two ends of the edge in the order are searched and reordered.
+ * <p>
+ * Once an edge creating a cycle is added the graph has no topological order, and every new edge is considered to
+ * create a cycle.
+ */
+class TopologicalOrder {
+    /// Number of nodes in the graph.
+    private int size;
+    /// Node IDs in ascending order, used to look up the slot of a node.
+    private int[] ids;
+    /// Slot of each node in ids order.
+    private int[] slotOf;
+    /// Position in the topological order of the node in each slot.
+    private int[] ord;
+    /// Nodes each slot has edges to, the first outCount[slot] entries are used.
+    private int[][] out;
+    private int[] outCount;
+    /// Nodes each slot has edges from, the first inCount[slot] entries are used.
+    private int[][] in;
+    private int[] inCount;
+    /// True once the graph contains a cycle.
+    private boolean cyclic;
+
+    /// Marks visited slots during a search, a slot is visited if its mark equals the current epoch.
+    private int[] mark;
+    private int epoch;
+    /// Scratch space for searches.
+    private int[] pending, stack, forward, backward;
+
+
+    /**
+     * Build the order for the graph described by a set of genes.
+     *
+     * @param nodes Node genes of the graph.
+     * @param edges Edge genes of the graph, both enabled and disabled edges are part of the structure.
+     */
+    TopologicalOrder(NodeGenes nodes, EdgeGenes edges) {
+        final int capacity = Math.max(nodes.size(), 4);
+        ids = new int[capacity];
+        slotOf = new int[capacity];
+        ord = new int[capacity];
+        out = new int[capacity][];
+        outCount = new int[capacity];
+        in = new int[capacity][];
+        inCount = new int[capacity];
+        mark = new int[capacity];
+        pending = new int[capacity];
+        stack = new int[capacity];
+        forward = new int[capacity];
+        backward = new int[capacity];
+
+        for(int i = 0; i < nodes.size(); ++i)
+            addNode(nodes.id(i));
+        for(int e = 0; e < edges.size(); ++e)
+            addEdge(edges.from(e), edges.to(e));
+    }
+
+
+    /**
+     * Make a deep copy of another order.
+     *
+     * @param other Order to copy.
+     */
+    TopologicalOrder(TopologicalOrder other) {
+        size = other.size;
+        ids = other.ids.clone();
+        slotOf = other.slotOf.clone();
+        ord = other.ord.clone();
+        out = new int[other.out.length][];
+        in = new int[other.in.length][];
+        for(int s = 0; s < size; ++s) {
+            out[s] = other.out[s].clone();
+            in[s] = other.in[s].clone();
+        }
+        outCount = other.outCount.clone();
+        inCount = other.inCount.clone();
+        cyclic = other.cyclic;
+
+        mark = new int[ids.length];
+        pending = new int[ids.length];
+        stack = new int[ids.length];
+        forward = new int[ids.length];
+        backward = new int[ids.length];
+    }
+
+
+    /**
+     * @return True if the graph contains a cycle.
+     */
+    boolean isCyclic() {
+        return cyclic;
+    }
+
+
+    /**
+     * Add a node to the end of the order. Adding a node which is already in the graph does nothing.
+     *
+     * @param id ID of the node.
+     */
+    void addNode(int id) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if(index >= 0) return;
+        index = -(index + 1);
+
+        if(size == ids.length) grow();
+        System.arraycopy(ids, index, ids, index + 1, size - index);
+        System.arraycopy(slotOf, index, slotOf, index + 1, size - index);
+
+        final int slot = size++;
+        ids[index] = id;
+        slotOf[index] = slot;
+        ord[slot] = slot;
+        out[slot] = new int[2];
+        in[slot] = new int[2];
+    }
+
+
+    /**
+     * Check if adding an edge would create a cycle. This does not change the graph.
+     *
+     * @param from ID of the node the edge comes from.
+     * @param to   ID of the node the edge goes to.
+     * @return True if the graph would contain a cycle with the new edge.
+     */
+    boolean createsCycle(int from, int to) {
+        if(cyclic) return true;
+        final int x = slot(from), y = slot(to);
+        if(x == y) return true;
+        if(ord[x] < ord[y]) return false;
+        return searchForward(y, ord[x], x) < 0;
+    }
+
+
+    /**
+     * Add an edge to the graph, updating the order so it stays topological.
+     *
+     * @param from ID of the node the edge comes from.
+     * @param to   ID of the node the edge goes to.
+     */
+    void addEdge(int from, int to) {
+        final int x = slot(from), y = slot(to);
+        out[x] = append(out[x], outCount[x]++, y);
+        in[y] = append(in[y], inCount[y]++, x);
+        if(cyclic || ord[x] < ord[y]) return;
+        if(x == y) {
+            cyclic = true;
+            return;
+        }
+
+        //find everything after y which comes before x, and everything before x which comes after y
+        final int lower = ord[y], upper = ord[x];
+        final int forwardCount = searchForward(y, upper, x);
+        if(forwardCount < 0) {
+            cyclic = true;
+            return;
+        }
+        System.arraycopy(stack, 0, forward, 0, forwardCount);
+        final int backwardCount = searchBackward(x, lower);
+        System.arraycopy(stack, 0, backward, 0, backwardCount);
+
+        //the nodes which reach x go first, then the ones reachable from y, reusing the positions they held
+        sortByOrder(backward, backwardCount);
+        sortByOrder(forward, forwardCount);
+        final int count = backwardCount + forwardCount;
+        int[] positions = new int[count];
+        for(int i = 0; i < backwardCount; ++i)
+            positions[i] = ord[backward[i]];
+        for(int i = 0; i < forwardCount; ++i)
+            positions[backwardCount + i] = ord[forward[i]];
+        Arrays.sort(positions);
+
+        for(int i = 0; i < backwardCount; ++i)
+            ord[backward[i]] = positions[i];
+        for(int i = 0; i < forwardCount; ++i)
+            ord[forward[i]] = positions[backwardCount + i];
+    }
+
+
+    /**
+     * Find the nodes reachable from start which are at or before a position in the order.
+     *
+     * @param start  Slot to start from.
+     * @param upper  Last position in the order to visit.
+     * @param target Slot which would make a cycle if reached.
+     * @return Number of nodes found (stored at the start of stack), or -1 if target was reached.
+     */
+    private int searchForward(int start, int upper, int target) {
+        ++epoch;
+        int found = 0, top = 0;
+        pending[top++] = start;
+        mark[start] = epoch;
+
+        while(top > 0) {
+            final int node = pending[--top];
+            stack[found++] = node;
+            for(int i = 0; i < outCount[node]; ++i) {
+                final int next = out[node][i];
+                if(next == target) return -1;
+                if(mark[next] == epoch || ord[next] > upper) continue;
+                mark[next] = epoch;
+                pending[top++] = next;
+            }
+        }
+        return found;
+    }
+
+
+    /**
+     * Find the nodes which reach start and are at or after a position in the order.
+     *
+     * @param start Slot to start from.
+     * @param lower First position in the order to visit.
+     * @return Number of nodes found (stored at the start of stack).
+     */
+    private int searchBackward(int start, int lower) {
+        ++epoch;
+        int found = 0, top = 0;
+        pending[top++] = start;
+        mark[start] = epoch;
+
+        while(top > 0) {
+            final int node = pending[--top];
+            stack[found++] = node;
+            for(int i = 0; i < inCount[node]; ++i) {
+                final int prev = in[node][i];
+                if(mark[prev] == epoch || ord[prev] < lower) continue;
+                mark[prev] = epoch;
+                pending[top++] = prev;
+            }
+        }
+        return found;
+    }
+
+
+    /**
+     * Sort slots by their current position in the order. The sets being sorted are small, so insertion sort is used.
+     *
+     * @param slots Slots to sort.
+     * @param count Number of slots to sort.
+     */
+    private void sortByOrder(int[] slots, int count) {
+        for(int i = 1; i < count; ++i) {
+            final int slot = slots[i];
+            int j = i - 1;
+            while(j >= 0 && ord[slots[j]] > ord[slot]) {
+                slots[j + 1] = slots[j];
+                --j;
+            }
+            slots[j + 1] = slot;
+        }
+    }
+
+
+    /**
+     * @param id ID of a node in the graph.
+     * @return Slot of the node.
+     */
+    private int slot(int id) {
+        final int index = Arrays.binarySearch(ids, 0, size, id);
+        if(index < 0) throw new IllegalArgumentException("Node " + id + " is not in the graph.");
+        return slotOf[index];
+    }
+
+
+    /**
+     * Store a value in an adjacency list, growing it if needed.
+     *
+     * @param list  List to add to.
+     * @param count Number of values in the list.
+     * @param value Value to add.
+     * @return The list, which may be a new array.
+     */
+    private static int[] append(int[] list, int count, int value) {
+        if(count == list.length) list = Arrays.copyOf(list, count * 2);
+        list[count] = value;
+        return list;
+    }
+
+
+    /**
+     * Double the number of nodes which can be stored.
+     */
+    private void grow() {
+        final int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        slotOf = Arrays.copyOf(slotOf, capacity);
+        ord = Arrays.copyOf(ord, capacity);
+        out = Arrays.copyOf(out, capacity);
+        outCount = Arrays.copyOf(outCount, capacity);
+        in = Arrays.copyOf(in, capacity);
+        inCount = Arrays.copyOf(inCount, capacity);
+        mark = Arrays.copyOf(mark, capacity);
+        pending = Arrays.copyOf(pending, capacity);
+        stack = Arrays.copyOf(stack, capacity);
+        forward = Arrays.copyOf(forward, capacity);
+        backward = Arrays.copyOf(backward, capacity);
+    }
+}
@@ -1,32 +1,98 @@
 package plu.teamtwo.rtm.neat;
 
+import plu.teamtwo.rtm.genome.GenomeBuilder;
+
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.InvalidParameterException;
 
+import static plu.teamtwo.rtm.neat.GAController.readCheckpoint;
 import static plu.teamtwo.rtm.neat.GAController.readFromStream;
+import static plu.teamtwo.rtm.neat.GAController.writeCheckpoint;
 import static plu.teamtwo.rtm.neat.GAController.writeToStream;
 
 public class Archiver {
+    /// Extension of binary checkpoint files.
+    private static final String CHECKPOINT_EXTENSION = "rtmc";
+    /// Extension of JSON export files.
+    private static final String JSON_EXTENSION = "json";
+
+
     /**
-     * Save a GAController to a JSON archive. This should be used before creating the next generation to prevent a
-     * loss of information as the generation is overwritten.
+     * Save a GAController to a compressed binary checkpoint. This should be used before creating the next generation
+     * to prevent a loss of information as the generation is overwritten.
      *
      * @param controller Controller to save to a file.
      * @param path       Location to save the data to.
      * @return True if it was successfully saved, false otherwise.
      */
     public static boolean saveToFile(GAController controller, String path) {
-        if(controller == null || path == null) return false;
-        File dir = new File(path);
-        if(!dir.exists() || !dir.isDirectory()) {
-            System.err.println("The directory '" + path + "' does not exist or is not a directory.");
+        return saveToFile(controller, path, false);
+    }
+
+
+    /**
+     * Save a GAController to a compressed binary checkpoint. The checkpoint is written to a temporary file which is
+     * then renamed, so a crash part way through never leaves a partial generation file behind.
+     *
+     * @param controller Controller to save to a file.
+     * @param path       Location to save the data to.
+     * @param sync       True to force the checkpoint to disk (fsync) before it is renamed into place, so it also
+     *                   survives a power failure.
+     * @return True if it was successfully saved, false otherwise.
+     */
+    public static boolean saveToFile(GAController controller, String path, boolean sync) {
+        return saveToFile(controller, path, sync, null);
+    }
+
+
+    /**
+     * Save a GAController to a compressed binary checkpoint which refers to the genomes in a store instead of
+     * containing them, see saveToFile(GAController, String, boolean).
+     *
+     * @param controller Controller to save to a file.
+     * @param path       Location to save the data to.
+     * @param sync       True to force the checkpoint and the store to disk before the checkpoint is renamed into
+     *                   place.
+     * @param store      Store to put the genomes in, or null to write them in the checkpoint.
+     * @return True if it was successfully saved, false otherwise.
+     */
+    public static boolean saveToFile(GAController controller, String path, boolean sync, GenomeStore store) {
+        File file = generationFile(controller, path, CHECKPOINT_EXTENSION);
+        if(file == null) return false;
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            //the genomes are forced to disk before the checkpoint which refers to them is moved into place
+            writeCheckpoint(controller, new SyncedOutputStream(new FileOutputStream(temp, false), sync), true, store,
+                            sync);
+            moveIntoPlace(temp, file, sync);
+        } catch(IOException e) {
+            System.err.println("Could not save NEAT Controller: " + e.getMessage());
+            temp.delete();
             return false;
         }
-        File file = new File(String.format("%sG%5d.json", dir.getPath() + File.pathSeparator, controller.getGenerationNum()));
+        return true;
+    }
+
+
+    /**
+     * Export a GAController to a JSON archive, which is larger than a checkpoint but can be read by other tools.
+     *
+     * @param controller Controller to save to a file.
+     * @param path       Location to save the data to.
+     * @return True if it was successfully saved, false otherwise.
+     */
+    public static boolean exportToFile(GAController controller, String path) {
+        File file = generationFile(controller, path, JSON_EXTENSION);
+        if(file == null) return false;
         try {
             writeToStream(controller, new FileOutputStream(file, false));
         } catch(IOException e) {
-            System.err.println("Could not save NEAT Controller: " + e.getMessage());
+            System.err.println("Could not export NEAT Controller: " + e.getMessage());
             return false;
         }
         return true;
@@ -34,15 +100,78 @@ public class Archiver {
 
 
     /**
-     * Read a GAController from a JSON file. This will create a new GAController with the information of the
-     * most recent generation in the JSON file. This expects to receive a directory with the generations saved into it.
+     * Read a GAController from a run archive or binary checkpoint. This will create a new GAController with the
+     * information of the most recent generation saved. This expects to receive a directory with the generations saved
+     * into it; if it has a run archive the last generation is found from its index, otherwise from the names of the
+     * checkpoints, which are read with the genome store if they were saved with one.
+     * <p>
+     * Note: auto save will need to be re-enabled if it is desired in the new instance.
+     *
+     * @param path        Directory to read from.
+     * @param genomeSpecs Builder for the type of genome used by the saved run.
+     * @return A GAController initialized to the latest generation in the directory.
+     */
+    public static GAController readFromFile(String path, GenomeBuilder genomeSpecs) throws IOException {
+        if(path != null && RunArchive.exists(new File(path))) {
+            try(RunArchive archive = new RunArchive(new File(path), genomeSpecs)) {
+                if(archive.size() > 0)
+                    return archive.readGeneration(archive.lastGeneration());
+            }
+        }
+
+        File file = latestGenerationFile(path, CHECKPOINT_EXTENSION);
+        if(file == null) return null;
+        if(!GenomeStore.exists(file.getParentFile()))
+            return readCheckpoint(new FileInputStream(file), genomeSpecs);
+        try(GenomeStore store = new GenomeStore(file.getParentFile(), genomeSpecs)) {
+            return readCheckpoint(new FileInputStream(file), genomeSpecs, store);
+        }
+    }
+
+
+    /**
+     * Read a GAController from a JSON export. This will create a new GAController with the information of the
+     * most recent generation exported. This expects to receive a directory with the generations saved into it.
      * <p>
      * Note: auto save will need to be re-enabled if it is desired in the new instance.
      *
      * @param path Directory to read from.
      * @return A GAController initialized to the latest generation in the JSON archive.
      */
-    public static GAController readFromFile(String path) throws IOException {
+    public static GAController importFromFile(String path) throws IOException {
+        File file = latestGenerationFile(path, JSON_EXTENSION);
+        if(file == null) return null;
+        return readFromStream(new FileInputStream(file));
+    }
+
+
+    /**
+     * Find the file to save the current generation of a controller to.
+     *
+     * @param controller Controller which is being saved.
+     * @param path       Directory to save in.
+     * @param extension  Extension of the file.
+     * @return The file, or null if it cannot be saved to the directory.
+     */
+    private static File generationFile(GAController controller, String path, String extension) {
+        if(controller == null || path == null) return null;
+        File dir = new File(path);
+        if(!dir.exists() || !dir.isDirectory()) {
+            System.err.println("The directory '" + path + "' does not exist or is not a directory.");
+            return null;
+        }
+        return new File(dir, String.format("G%05d.%s", controller.getGenerationNum(), extension));
+    }
+
+
+    /**
+     * Find the most recent generation saved in a directory.
+     *
+     * @param path      Directory to look in.
+     * @param extension Extension of the files to look for.
+     * @return The file of the most recent generation, or null if no path was given.
+     */
+    private static File latestGenerationFile(String path, String extension) throws IOException {
         //verify we were given a directory.
         if(path == null) return null;
         File file = new File(path);
@@ -50,8 +179,9 @@ public class Archiver {
             throw new InvalidParameterException("Directory does not exist.");
         if(!file.isDirectory())
             throw new InvalidParameterException("Path is not to a directory.");
+        final String pattern = "G[0-9]{5}\\." + extension;
         File[] files = file.listFiles( //filter out non-files and files which are not a generation
-                (File dir, String name) -> dir.isFile() && name.matches("G[0-9]{5}\\.json")
+                (File dir, String name) -> name.matches(pattern) && new File(dir, name).isFile()
         );
 
         if(files == null || files.length <= 0)
@@ -63,6 +193,64 @@ public class Archiver {
             if(files[x].getName().compareTo(file.getName()) > 0)
                 file = files[x];
         }
-        return readFromStream(new FileInputStream(file));
+        return file;
+    }
+
+
+    /**
+     * Rename a finished file to its final name, replacing any older file with that name.
+     *
+     * @param temp   The finished file.
+     * @param target Final name of the file.
+     * @param sync   True to also force the directory entry to disk.
+     */
+    private static void moveIntoPlace(File temp, File target, boolean sync) throws IOException {
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch(AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        if(!sync) return;
+        try(FileChannel dir = FileChannel.open(target.getAbsoluteFile().getParentFile().toPath(),
+                                               StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch(IOException e) {
+            //not every platform can sync a directory, the file itself has already been synced
+        }
+    }
+
+
+    /**
+     * A file stream which can be forced to disk when it is closed.
+     */
+    private static class SyncedOutputStream extends FilterOutputStream {
+        private final FileOutputStream file;
+        private final boolean sync;
+
+
+        SyncedOutputStream(FileOutputStream file, boolean sync) {
+            super(file);
+            this.file = file;
+            this.sync = sync;
+        }
+
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            file.write(b, off, len);
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                if(sync) file.getFD().sync();
+            } finally {
+                file.close();
+            }
+        }
     }
 }
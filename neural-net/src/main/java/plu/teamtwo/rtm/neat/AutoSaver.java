@@ -0,0 +1,143 @@
+package plu.teamtwo.rtm.neat;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Saves snapshots of a GAController to checkpoints on a background thread, so the next generation can be bred while
+ * the last one is written to disk. Snapshots are written one at a time in the order they were given. At most a fixed
+ * number of snapshots may be waiting to be written; once there are that many, save blocks until one has finished so
+ * a slow disk holds back evolution instead of filling memory with old generations.
+ */
+class AutoSaver {
+    /// Directory to save the checkpoints in.
+    private final String path;
+    /// True to force each checkpoint to disk before it is renamed into place.
+    private final boolean sync;
+    /// Archive to append the generations to, or null to write each to its own checkpoint.
+    private final RunArchive archive;
+    /// Maximum number of snapshots waiting to be written.
+    private final int maxPending;
+    /// One permit for each snapshot which may be waiting.
+    private final Semaphore pending;
+    private final ExecutorService writer;
+    /// Set once a snapshot could not be saved.
+    private volatile boolean failed = false;
+    /// First exception thrown while saving a snapshot, or null if none was.
+    private volatile RuntimeException failure = null;
+
+
+    /**
+     * Create an auto saver with its own writer thread.
+     *
+     * @param path       Directory to save the checkpoints in.
+     * @param maxPending Maximum number of snapshots waiting to be written, must be at least 1.
+     * @param sync       True to force each checkpoint to disk before it is renamed into place.
+     * @param archive    Archive to append the generations to, or null to write each to its own checkpoint. It is
+     *                   closed with the auto saver.
+     */
+    AutoSaver(String path, int maxPending, boolean sync, RunArchive archive) {
+        if(maxPending < 1)
+            throw new IllegalArgumentException("Must allow at least one pending save.");
+        this.path = path;
+        this.sync = sync;
+        this.archive = archive;
+        this.maxPending = maxPending;
+        pending = new Semaphore(maxPending);
+        writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "rtm-autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Queue a snapshot to be written, blocking while too many are already waiting.
+     *
+     * @param snapshot A controller which will not be changed again, see GAController.snapshot.
+     */
+    void save(GAController snapshot) {
+        pending.acquireUninterruptibly();
+        try {
+            writer.execute(() -> {
+                try {
+                    if(!(archive == null ? Archiver.saveToFile(snapshot, path, sync) : append(snapshot)))
+                        failed = true;
+                } catch(RuntimeException e) {
+                    //the executor would drop it, so keep it to report and carry on with the next snapshot
+                    System.err.println("Could not save NEAT Controller: " + e);
+                    if(failure == null) failure = e;
+                    failed = true;
+                } finally {
+                    pending.release();
+                }
+            });
+        } catch(RuntimeException e) {
+            pending.release();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Wait for every queued snapshot to be written.
+     *
+     * @return True if every snapshot so far was saved, false if any of them failed.
+     */
+    boolean await() {
+        pending.acquireUninterruptibly(maxPending);
+        pending.release(maxPending);
+        return !failed;
+    }
+
+
+    /**
+     * Get the first exception which was thrown while saving a snapshot. Snapshots which could not be written because
+     * of an I/O error do not have one, see await.
+     *
+     * @return The first exception, or null if none was thrown.
+     */
+    RuntimeException getFailure() {
+        return failure;
+    }
+
+
+    /**
+     * Write any queued snapshots, stop the writer thread and close the archive.
+     *
+     * @return True if every snapshot was saved, false if any of them failed.
+     */
+    boolean close() {
+        boolean saved = await();
+        writer.shutdown(); //nothing is left to run
+        if(archive != null) {
+            try {
+                archive.close();
+            } catch(IOException e) {
+                System.err.println("Could not close the run archive: " + e.getMessage());
+                saved = false;
+            }
+        }
+        return saved;
+    }
+
+
+    /**
+     * Append a snapshot to the archive.
+     *
+     * @param snapshot Snapshot to append.
+     * @return True if it was successfully saved, false otherwise.
+     */
+    private boolean append(GAController snapshot) {
+        try {
+            archive.append(snapshot, sync);
+        } catch(IOException e) {
+            System.err.println("Could not save NEAT Controller: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,155 @@
+package plu.teamtwo.rtm.neat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the results of evaluating genomes so that a genome which has not changed, such as the champion of a
+ * species which is copied into the next generation, is not evaluated again. Results are found by the fingerprint of the
+ * genome and the ID of the scoring function which evaluated it. This should only be used with scoring functions which
+ * always give the same score to the same network; noisy ones should either not use a cache or force re-evaluation.
+ * <p>
+ * Once the cache is full, the result which was used least recently is evicted. Results can also be evicted once they
+ * have not been used for a number of generations, since a genome which has died out is unlikely to come back.
+ */
+public class EvaluationCache {
+    /// Maximum number of results kept.
+    private final int capacity;
+    /// Number of generations a result is kept without being used, or 0 to keep it until the cache is full.
+    private final int maxAge;
+    /// Results by fingerprint and scoring function, from least to most recently used.
+    private final Map<Key, Result> results;
+
+
+    /**
+     * Create an empty evaluation cache.
+     *
+     * @param capacity Maximum number of results to keep.
+     * @param maxAge   Number of generations to keep a result which is not used, or 0 to keep it until it is evicted
+     *                 to make room for another.
+     */
+    public EvaluationCache(int capacity, int maxAge) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("The cache must be able to hold at least one result.");
+        if(maxAge < 0)
+            throw new IllegalArgumentException("The maximum age cannot be negative.");
+        this.capacity = capacity;
+        this.maxAge = maxAge;
+        results = new LinkedHashMap<Key, Result>(Math.min(capacity, 1 << 10), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+                return size() > EvaluationCache.this.capacity;
+            }
+        };
+    }
+
+
+    /**
+     * @return Number of results in the cache.
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+
+    /**
+     * Forget every result, e.g. after changing the task of a scoring function without changing its ID.
+     */
+    public synchronized void clear() {
+        results.clear();
+    }
+
+
+    /**
+     * Apply the result of an earlier evaluation of the same genome to an individual.
+     *
+     * @param individual Individual to apply the result to.
+     * @param function   ID of the scoring function, see ScoringFunction.getID.
+     * @param generation Current generation, the result is marked as used in it.
+     * @return True if there was a result, false if the individual has to be evaluated.
+     */
+    synchronized boolean apply(Individual individual, String function, int generation) {
+        Result result = results.get(new Key(individual.genome.fingerprint(), function));
+        if(result == null) return false;
+        result.used = generation;
+        individual.setFitness(result.fitness);
+        if(result.winner) individual.setWinner();
+        return true;
+    }
+
+
+    /**
+     * Remember the result of evaluating an individual.
+     *
+     * @param individual Individual which was evaluated.
+     * @param function   ID of the scoring function, see ScoringFunction.getID.
+     * @param generation Current generation.
+     */
+    synchronized void put(Individual individual, String function, int generation) {
+        results.put(new Key(individual.genome.fingerprint(), function),
+                    new Result(individual.getFitness(), individual.isWinner(), generation));
+    }
+
+
+    /**
+     * Evict the results which have not been used for more than the maximum age.
+     *
+     * @param generation Current generation.
+     */
+    synchronized void evictOld(int generation) {
+        if(maxAge == 0) return;
+        //results are in order of use, so stop at the first one which is recent enough
+        for(Iterator<Result> i = results.values().iterator(); i.hasNext(); ) {
+            if(generation - i.next().used <= maxAge) break;
+            i.remove();
+        }
+    }
+
+
+    /**
+     * Identifies a result; the fingerprint of the genome and the scoring function which evaluated it.
+     */
+    private static class Key {
+        final long fingerprint;
+        final String function;
+
+
+        Key(long fingerprint, String function) {
+            this.fingerprint = fingerprint;
+            this.function = function;
+        }
+
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return fingerprint == other.fingerprint && function.equals(other.function);
+        }
+
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(fingerprint) * 31 + function.hashCode();
+        }
+    }
+
+
+    /**
+     * The result of evaluating a genome.
+     */
+    private static class Result {
+        final float fitness;
+        final boolean winner;
+        /// Last generation the result was used in.
+        int used;
+
+
+        Result(float fitness, boolean winner, int used) {
+            this.fitness = fitness;
+            this.winner = winner;
+            this.used = used;
+        }
+    }
+}
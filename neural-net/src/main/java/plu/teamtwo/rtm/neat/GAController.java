@@ -3,6 +3,9 @@ package plu.teamtwo.rtm.neat;
 import com.google.gson.Gson;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
+import plu.teamtwo.rtm.core.async.GlobalThreadPool;
+import plu.teamtwo.rtm.genome.CheckpointInput;
+import plu.teamtwo.rtm.genome.CheckpointOutput;
 import plu.teamtwo.rtm.genome.GenomeBuilder;
 import plu.teamtwo.rtm.genome.GenomeCache;
 import plu.teamtwo.rtm.neural.NeuralNetwork;
@@ -10,6 +13,10 @@ import plu.teamtwo.rtm.neural.NeuralNetwork;
 import java.io.*;
 import java.security.InvalidParameterException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static plu.teamtwo.rtm.core.util.Rand.*;
 
@@ -44,7 +51,10 @@ public class GAController {
     private int generationNum;
     private int nextSpeciesID;
     private float fitness;
-    private transient String savePath;
+    /// Writes the snapshot of each generation in the background, null if auto save is disabled.
+    private transient AutoSaver autoSaver;
+    /// Results of evaluating genomes which can be reused, null to evaluate every individual.
+    private transient EvaluationCache evaluationCache;
     private transient boolean sorted;
 
     private List<Species> generation = new ArrayList<>();
@@ -56,11 +66,134 @@ public class GAController {
         this.cache = null;
         this.generationNum = 0;
         this.nextSpeciesID = 0;
-        this.savePath = null;
+        this.autoSaver = null;
+        this.evaluationCache = null;
         this.sorted = false;
     }
 
 
+    /**
+     * Read a GAController from a binary checkpoint written by writeCheckpoint. The genome specifications are not part
+     * of the checkpoint, so the same kind of builder which was used for the run has to be provided again.
+     *
+     * @param inputStream A stream with the checkpoint, it is closed once read.
+     * @param genomeSpecs Builder for the type of genome used by the run.
+     * @return A GAController initialized to the generation in the checkpoint.
+     */
+    public static GAController readCheckpoint(InputStream inputStream, GenomeBuilder genomeSpecs) throws IOException {
+        return readCheckpoint(inputStream, genomeSpecs, null);
+    }
+
+
+    /**
+     * Read a GAController from a binary checkpoint written by writeCheckpoint, getting its genomes from a store if it
+     * refers to them instead of containing them.
+     *
+     * @param inputStream A stream with the checkpoint, it is closed once read.
+     * @param genomeSpecs Builder for the type of genome used by the run.
+     * @param store       Store the genomes were put in, may be null if the checkpoint contains them.
+     * @return A GAController initialized to the generation in the checkpoint.
+     */
+    public static GAController readCheckpoint(InputStream inputStream, GenomeBuilder genomeSpecs, GenomeStore store)
+            throws IOException {
+        try(CheckpointInput in = new CheckpointInput(inputStream)) {
+            GAController controller = readState(in, genomeSpecs);
+            final boolean stored = in.readBoolean();
+            if(stored && store == null)
+                throw new IOException("The checkpoint refers to genomes in a store.");
+
+            final int species = in.readVarInt();
+            for(int i = 0; i < species; ++i)
+                controller.generation.add(Species.read(in, genomeSpecs, stored ? store : null));
+            return controller;
+        }
+    }
+
+
+    /**
+     * Write a GAController to a compact binary checkpoint. Each species and individual is written to the stream in
+     * turn rather than building the whole document in memory first. Use writeToStream for a readable JSON export.
+     *
+     * @param controller   Controller to write.
+     * @param outputStream A stream to write the checkpoint to, it is closed once written.
+     * @param compress     True to compress the checkpoint with Deflate.
+     */
+    public static void writeCheckpoint(GAController controller, OutputStream outputStream, boolean compress)
+            throws IOException {
+        writeCheckpoint(controller, outputStream, compress, null);
+    }
+
+
+    /**
+     * Write a GAController to a compact binary checkpoint, putting the genomes in a store and only referring to them
+     * from the checkpoint. Genomes which are already in the store, e.g. protected leaders, are not written again.
+     *
+     * @param controller   Controller to write.
+     * @param outputStream A stream to write the checkpoint to, it is closed once written.
+     * @param compress     True to compress the checkpoint with Deflate.
+     * @param store        Store to put the genomes in, or null to write them in the checkpoint.
+     */
+    public static void writeCheckpoint(GAController controller, OutputStream outputStream, boolean compress,
+                                       GenomeStore store) throws IOException {
+        writeCheckpoint(controller, outputStream, compress, store, false);
+    }
+
+
+    /**
+     * Write a GAController to a compact binary checkpoint, see writeCheckpoint(controller, outputStream, compress,
+     * store).
+     *
+     * @param sync True to force the genomes to disk as they are flushed to the store, see GenomeStore.flush.
+     */
+    static void writeCheckpoint(GAController controller, OutputStream outputStream, boolean compress,
+                                GenomeStore store, boolean sync) throws IOException {
+        controller.sortByFitness();
+
+        try(CheckpointOutput out = new CheckpointOutput(outputStream, compress)) {
+            controller.writeState(out);
+            out.writeBoolean(store != null);
+            out.writeVarInt(controller.generation.size());
+            for(Species s : controller.generation)
+                s.write(out, store);
+            if(store != null)
+                store.flush(sync);
+        }
+    }
+
+
+    /**
+     * Read the state of a controller written by writeState, without any species.
+     *
+     * @param in          Checkpoint to read from.
+     * @param genomeSpecs Builder for the type of genome used by the run.
+     * @return A GAController with the state and an empty generation.
+     */
+    static GAController readState(CheckpointInput in, GenomeBuilder genomeSpecs) throws IOException {
+        GAController controller = new GAController(genomeSpecs);
+        controller.generationNum = in.readVarInt();
+        controller.nextSpeciesID = in.readVarInt();
+        controller.fitness = in.readFloat();
+        if(in.readBoolean())
+            controller.cache = genomeSpecs.readCache(in);
+        return controller;
+    }
+
+
+    /**
+     * Write the state of the controller which is not part of a species; the generation number, counters and cache.
+     *
+     * @param out Checkpoint to write to.
+     */
+    void writeState(CheckpointOutput out) throws IOException {
+        out.writeVarInt(generationNum);
+        out.writeVarInt(nextSpeciesID);
+        out.writeFloat(fitness);
+        out.writeBoolean(cache != null);
+        if(cache != null)
+            cache.write(out);
+    }
+
+
     /**
      * Read a GAController from a JSON stream. This will create a new GAController with the information of the
      * most recent generation in the JSON stream.
@@ -78,8 +211,9 @@ public class GAController {
 
 
     /**
-     * Write a GAController to an output stream. This will save all the information about the current generation and
-     * other information about the current controller state.
+     * Write a GAController to an output stream as JSON. This will save all the information about the current
+     * generation and other information about the current controller state in a readable form; use writeCheckpoint for
+     * saving runs to resume.
      *
      * @param outputStream A stream to output the JSON to.
      */
@@ -98,18 +232,82 @@ public class GAController {
      * Setup autosave (or disable it). If enabled, the GAController will save its current state to a file before
      * creating the next generation (preserving historical information). If this throws an exception, auto-saves will
      * be disabled until it is called again without errors.
+     * <p>
+     * Generations are written on a background thread while the next one is bred, with up to two waiting to be written,
+     * and are forced to disk as they are written. The generations are appended to a run archive in the same directory,
+     * which any generation can be read back from, and the genomes are put in its genome store.
      *
      * @param path Directory to save the data in.
      */
     public void setAutoSave(String path) {
-        savePath = null;
+        setAutoSave(path, 2, true, true);
+    }
+
+
+    /**
+     * Setup autosave (or disable it). If enabled, the GAController will save its current state to a file before
+     * creating the next generation (preserving historical information). If this throws an exception, auto-saves will
+     * be disabled until it is called again without errors.
+     * <p>
+     * Generations are written on a background thread while the next one is bred. Any saves still pending from an
+     * earlier call are finished first.
+     *
+     * @param path       Directory to save the data in.
+     * @param maxPending Number of generations which may wait to be written before breeding waits for the disk.
+     * @param sync       True to force each generation to disk (fsync) before it is renamed into place or indexed.
+     * @param archive    True to append the generations to a run archive in the same directory, which writes each
+     *                   genome once and as its differences from a similar one, instead of writing every generation to
+     *                   its own checkpoint.
+     */
+    public void setAutoSave(String path, int maxPending, boolean sync, boolean archive) {
+        if(autoSaver != null)
+            autoSaver.close();
+        autoSaver = null;
         if(path == null) return;
         File file = new File(path);
         if(!file.exists())
             throw new InvalidParameterException("Directory does not exist.");
         if(!file.isDirectory())
             throw new InvalidParameterException("Path is not to a directory.");
-        savePath = path;
+        try {
+            autoSaver = new AutoSaver(path, maxPending, sync, archive ? new RunArchive(file, genomeSpecs) : null);
+        } catch(IOException e) {
+            throw new UncheckedIOException("Could not open the run archive.", e);
+        }
+    }
+
+
+    /**
+     * Wait for every generation queued by auto save to be written. Call this before exiting, the writer thread will
+     * not keep the program alive.
+     *
+     * @return True if every generation has been saved, false if any could not be saved or auto save is disabled.
+     */
+    public boolean finishAutoSave() {
+        return autoSaver != null && autoSaver.await();
+    }
+
+
+    /**
+     * Get the first exception thrown while auto saving a generation, e.g. to report why finishAutoSave returned false.
+     * Generations which could not be written because of an I/O error are only reported on standard error.
+     *
+     * @return The first exception, or null if none was thrown or auto save is disabled.
+     */
+    public RuntimeException getAutoSaveFailure() {
+        return autoSaver == null ? null : autoSaver.getFailure();
+    }
+
+
+    /**
+     * Set the cache to reuse the results of evaluating genomes from, or disable it. It should only be used with
+     * scoring functions which always give the same score to the same network, or with re-evaluation forced for the
+     * others. A cache may be shared by several controllers.
+     *
+     * @param evaluationCache Cache of evaluation results, or null to evaluate every individual.
+     */
+    public void setEvaluationCache(EvaluationCache evaluationCache) {
+        this.evaluationCache = evaluationCache;
     }
 
 
@@ -127,34 +325,70 @@ public class GAController {
         for(int x = 0; x < POPULATION_SIZE; ++x) {
             Individual i = new Individual(base);
             i.genome.mutate(cache);
+            i.genome.finishGeneration(cache);
             addIndividual(generation, i, -1);
         }
     }
 
 
     /**
-     * Asses the fitness of all the members of the current generation.
+     * Asses the fitness of all the members of the current generation. Individuals are scored on up to
+     * scoringFunction.getMaxThreads() threads at once (or one per processor if it has no limit), each with its own
+     * scoring function. If an evaluation cache is set, individuals whose genomes were already evaluated by the same
+     * scoring function are given the cached result instead.
      *
      * @param scoringFunction Method by which to asses how well the individuals perform.
      * @return Returns true if this generation contains an individual which is accepted as a solution.
      */
     public boolean assesGeneration(ScoringFunction scoringFunction) {
-        boolean foundWinner = false;
+        return assesGeneration(scoringFunction, false);
+    }
+
+
+    /**
+     * Asses the fitness of all the members of the current generation, see assesGeneration(ScoringFunction).
+     *
+     * @param scoringFunction Method by which to asses how well the individuals perform.
+     * @param reevaluate      True to evaluate every individual even if the evaluation cache has a result for it, e.g.
+     *                        for noisy scoring functions. The new results still replace the cached ones.
+     * @return Returns true if this generation contains an individual which is accepted as a solution.
+     */
+    public boolean assesGeneration(ScoringFunction scoringFunction, boolean reevaluate) {
         sorted = false;
-        //Construct a new thread pool
-        final int MAX_THREADS = scoringFunction.getMaxThreads();
+        final String function = scoringFunction.getID();
+        int maxThreads = scoringFunction.getMaxThreads();
 
-        //submit tasks to be run
+        //create a scoring function for each individual which is scored up front so createNew is only called from this
+        // thread, the first one uses the function which was passed in
+        List<ScoreSystem> tasks = new ArrayList<>(POPULATION_SIZE);
         for(Species s : generation) {
             for(Individual i : s) {
-                //threadPool.submit(new ScoreSystem(i, scoringFunction.createNew()));
-                ScoreSystem p = new ScoreSystem(i, scoringFunction);
-                p.run();
-                foundWinner = i.isWinner() | foundWinner;
-                scoringFunction = scoringFunction.createNew();
+                //split even if the result is cached so the random streams do not depend on the cache
+                final SplittableRandom stream = split();
+                if(evaluationCache != null && !reevaluate && evaluationCache.apply(i, function, generationNum))
+                    continue;
+                tasks.add(new ScoreSystem(i, tasks.isEmpty() ? scoringFunction : scoringFunction.createNew(), stream));
             }
         }
 
+        if(maxThreads <= 0) maxThreads = GlobalThreadPool.parallelism();
+        //only scoring functions which spend their time waiting (e.g. on another process) can use more threads than the
+        // CPU pool has, so give those the I/O pool
+        runInParallel(tasks, maxThreads, maxThreads > GlobalThreadPool.parallelism() ?
+                                         GlobalThreadPool.ioInstance() : GlobalThreadPool.instance());
+
+        //every task has finished, so their results are visible here
+        if(evaluationCache != null) {
+            for(ScoreSystem task : tasks)
+                evaluationCache.put(task.individual, function, generationNum);
+            evaluationCache.evictOld(generationNum);
+        }
+
+        boolean foundWinner = false;
+        for(Species s : generation)
+            for(Individual i : s)
+                foundWinner = i.isWinner() | foundWinner;
+
         //Adjust the fitness values
         for(Species s : generation)
             s.calculateFitness(generationNum);
@@ -169,9 +403,9 @@ public class GAController {
      * Breed the next generation from the current one.
      */
     public void nextGeneration() {
-        if(savePath != null)
-            Archiver.saveToFile(this, savePath);
         sortByFitness();
+        if(autoSaver != null)
+            autoSaver.save(snapshot());
         cache.newGeneration();
 
         //TODO: do not remove top performing species even if they are not getting better
@@ -215,13 +449,70 @@ public class GAController {
             bred++;
         }
 
-        //breed each of the species
-        List<Species> nextGen = new ArrayList<>(generation.size());
+        //prepare each species for breeding and split off the random stream of every child up front, so the children
+        // do not depend on which thread breeds them
+        Species[] nextSpecies = new Species[generation.size()];
+        Individual[] leaders = new Individual[generation.size()];
+        List<BreedTask> tasks = new ArrayList<>(POPULATION_SIZE);
         for(int i = 0; i < generation.size(); ++i) {
             final Species s = generation.get(i);
-            nextGen.addAll(
-                breed(s, i, generationNum, allowances[i])
-            );
+            int offspring = allowances[i];
+            if(offspring <= 0) continue; //handle the odd case
+
+            //an empty duplicate of the last generation for the new generation to fall into
+            nextSpecies[i] = s.emptyDuplicate();
+
+            //will we protect the leader
+            if(offspring >= SPECIES_SIZE_TO_PROTECT_LEADER) {
+                leaders[i] = new Individual(s.getChampion());
+                offspring--;
+            }
+
+            { //Drop anyone below the survival threshold
+                final int numToKeep = Math.max((int)(s.size() * BREEDING_SURVIVAL_THRESHOLD), 1);
+                s.dropEnd(numToKeep);
+            }
+
+            while(offspring-- > 0)
+                tasks.add(new BreedTask(i, split()));
+        }
+
+        //the children are bred from several threads at once, so every species (including the ones which are only
+        // picked for interspecies mating) has to be sorted before, not lazily by whichever thread reads it first
+        for(Species s : generation)
+            s.sortByFitness();
+
+        //create the children, then let them register their mutations in a fixed order
+        runInParallel(tasks, GlobalThreadPool.parallelism(), GlobalThreadPool.instance());
+        for(BreedTask task : tasks)
+            task.child.genome.finishGeneration(cache);
+
+        //speciate the children of each species, this may split a species into two or more resulting species. The
+        // children of different species are never compared, so each species is speciated on its own in parallel.
+        List<SpeciateTask> families = new ArrayList<>(generation.size());
+        int t = 0;
+        for(int i = 0; i < generation.size(); ++i) {
+            if(nextSpecies[i] == null) continue;
+            SpeciateTask family = new SpeciateTask(nextSpecies[i], generation.get(i).speciesID);
+            if(leaders[i] != null)
+                family.children.add(leaders[i]);
+            for(; t < tasks.size() && tasks.get(t).species == i; ++t)
+                family.children.add(tasks.get(t).child);
+            families.add(family);
+        }
+        runInParallel(families, GlobalThreadPool.parallelism(), GlobalThreadPool.instance());
+
+        //species IDs are given out in order so they do not depend on which thread speciated which family
+        List<Species> nextGen = new ArrayList<>(generation.size());
+        for(SpeciateTask family : families) {
+            if(family.species.size() > 0)
+                nextGen.add(family.species);
+            for(List<Individual> split : family.splits) {
+                Species s = new Species(nextSpeciesID++, family.parentID, generationNum, split.get(0));
+                for(int m = 1; m < split.size(); ++m)
+                    s.addMember(split.get(m));
+                nextGen.add(s);
+            }
         }
 
         //update the generation (drops old one)
@@ -251,6 +542,59 @@ public class GAController {
     }
 
 
+    /**
+     * Create a copy of the controller which will not change as the next generation is bred, so it can be saved in the
+     * background. Species are copied, but the individuals are shared since breeding only ever creates new ones. The
+     * cache is copied by writing it to a checkpoint and reading it back.
+     *
+     * @return A copy of the controller's current state.
+     */
+    private GAController snapshot() {
+        GAController copy = new GAController(genomeSpecs);
+        copy.generationNum = generationNum;
+        copy.nextSpeciesID = nextSpeciesID;
+        copy.fitness = fitness;
+        copy.sorted = sorted;
+        for(Species s : generation)
+            copy.generation.add(s.snapshot());
+
+        if(cache != null) {
+            try {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                try(CheckpointOutput out = new CheckpointOutput(buffer, false)) {
+                    cache.write(out);
+                }
+                try(CheckpointInput in = new CheckpointInput(new ByteArrayInputStream(buffer.toByteArray()))) {
+                    copy.cache = genomeSpecs.readCache(in);
+                }
+            } catch(IOException e) {
+                throw new UncheckedIOException("Could not copy the cache.", e);
+            }
+        }
+        return copy;
+    }
+
+
+    /**
+     * @return The species of the current generation, sorted by fitness.
+     */
+    List<Species> getSpecies() {
+        sortByFitness();
+        return generation;
+    }
+
+
+    /**
+     * Add a species to the current generation, e.g. when reading it back from an archive.
+     *
+     * @param species Species to add.
+     */
+    void addSpecies(Species species) {
+        generation.add(species);
+        sorted = false;
+    }
+
+
     /**
      * Sort the species by their average individual fitness in descending order such that the most fit species is listed
      * at the head of the list.
@@ -295,74 +639,77 @@ public class GAController {
 
 
     /**
-     * This will breed the current generation to create the next gen. It is possible that in the process the species
-     * will be split into two or more resulting species.
+     * Create a child from the surviving members of a species (or rarely, one of them and another species' champion).
+     * This only reads the current generation, so children can be created from multiple threads at once.
      * TODO: move this to Species
      *
-     * @param species   The species to be bred
-     * @param index     Index of the species to be bred
-     * @param nextGen   Integer representing the new generation's number.
-     * @param offspring Number of offspring this species should produce for the next generation.
-     * @return A list of the resulting species after breeding. Will be empty if the allowance is 0.
-     */
-    private List<Species> breed(Species species, int index, int nextGen, int offspring) {
-        List<Species> newSpeciesList = new LinkedList<>();
-        if(offspring <= 0) //handle the odd case
-            return newSpeciesList;
-
-        //add an empty duplicate of the last generation to the list for the new generation to fall into
-        newSpeciesList.add(species.emptyDuplicate());
-
-        //will we protect the leader
-        if(offspring >= SPECIES_SIZE_TO_PROTECT_LEADER) {
-            addIndividual(newSpeciesList, new Individual(species.getChampion()), species.speciesID);
-            offspring--;
-        }
-
-        { //Drop anyone below the survival threshold
-            final int numToKeep = Math.max((int)(species.size() * BREEDING_SURVIVAL_THRESHOLD), 1);
-            species.dropEnd(numToKeep);
-        }
-
-        //create the children
-        while(offspring-- > 0) {
-            Individual child = null;
-
-            if(species.size() > 1 && iWill(BREEDING_CROSSOVER_RATE)) { //use crossover on two random individuals
-                //select parents
-                int i1 = getRandomNum(0, species.size() - 1), i2 = 0;
-                Individual p1 = species.getNthMostFit(i1), p2;
-
-                if(iWill(INTERSPECIES_MATING_RATE)) { //mate outside species
-                    int s = 0, tries = 5;
-                    //try to find a different species
-                    while(tries-- > 0 && (s = randomFrontWeightedIndex(generation.size() - 1, 0.5f)) == index);
-                    p2 = generation.get(s).getChampion();
-                } else { //mate within species
-                    //select a i2 which is not the same as i1
-                    while((i2 = getRandomNum(0, species.size() - 1)) == i1);
-                    p2 = species.getNthMostFit(i2);
-                }
+     * @param species The species to be bred
+     * @param index   Index of the species to be bred
+     * @return A new child for the next generation.
+     */
+    private Individual breedChild(Species species, int index) {
+        Individual child;
+
+        if(species.size() > 1 && iWill(BREEDING_CROSSOVER_RATE)) { //use crossover on two random individuals
+            //select parents
+            int i1 = getRandomNum(0, species.size() - 1), i2 = 0;
+            Individual p1 = species.getNthMostFit(i1), p2;
+
+            if(iWill(INTERSPECIES_MATING_RATE)) { //mate outside species
+                int s = 0, tries = 5;
+                //try to find a different species
+                while(tries-- > 0 && (s = randomFrontWeightedIndex(generation.size() - 1, 0.5f)) == index);
+                p2 = generation.get(s).getChampion();
+            } else { //mate within species
+                //select a i2 which is not the same as i1
+                while((i2 = getRandomNum(0, species.size() - 1)) == i1);
+                p2 = species.getNthMostFit(i2);
+            }
 
-                //cross the parents
-                child = iWill(BREEDING_CROSSOVER_MULTIPOINT) ?
-                        p1.crossMultipoint(cache, p2) :
-                        p1.crossMultipointAvg(cache, p2);
+            //cross the parents
+            child = iWill(BREEDING_CROSSOVER_MULTIPOINT) ?
+                    p1.crossMultipoint(cache, p2) :
+                    p1.crossMultipointAvg(cache, p2);
 
-                //determine if we will mutate the child's genome, do this at random or always if parents are the same
-                if(iWill(BREEDING_CROSSOVER_RATE) || p1.compatibilityDistance(p2) == 0.0f)
-                    child.genome.mutate(cache);
-            }
-            else { //copy and mutate
-                int i = getRandomNum(0, species.size() - 1);
-                child = new Individual(species.getNthMostFit(i));
+            //determine if we will mutate the child's genome, do this at random or always if parents are the same
+            if(iWill(BREEDING_CROSSOVER_RATE) || p1.compatibilityDistance(p2) == 0.0f)
                 child.genome.mutate(cache);
-            }
-            addIndividual(newSpeciesList, child, species.speciesID);
         }
+        else { //copy and mutate
+            int i = getRandomNum(0, species.size() - 1);
+            child = new Individual(species.getNthMostFit(i));
+            child.genome.mutate(cache);
+        }
+        return child;
+    }
+
 
-        newSpeciesList.removeIf(s -> s.size() <= 0);
-        return newSpeciesList;
+    /**
+     * Run tasks on up to maxThreads threads. Each thread claims the next task which has not been run until there are
+     * none left, and the calling thread works as well instead of only waiting. Returns once every task has finished.
+     *
+     * @param tasks      Tasks to run.
+     * @param maxThreads Maximum number of threads to run the tasks on.
+     * @param threadPool Pool to run the tasks on.
+     */
+    private static void runInParallel(List<? extends Runnable> tasks, int maxThreads, ExecutorService threadPool) {
+        final int workers = Math.max(Math.min(maxThreads, tasks.size()), 1);
+        final AtomicInteger next = new AtomicInteger(0);
+        final Runnable worker = () -> {
+            for(int t = next.getAndIncrement(); t < tasks.size(); t = next.getAndIncrement())
+                tasks.get(t).run();
+        };
+
+        final LinkedList<Future<?>> futures = new LinkedList<>();
+        for(int i = 1; i < workers; ++i)
+            futures.add(threadPool.submit(worker));
+        worker.run();
+
+        while(!futures.isEmpty()) try {
+            futures.poll().get();
+        } catch(InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Unable to complete the tasks.", e);
+        }
     }
 
 
@@ -381,22 +728,112 @@ public class GAController {
     }
 
 
+    /**
+     * A runnable task which will create one child for the next generation. Each task uses its own random stream so the
+     * child is the same no matter which thread creates it or when.
+     */
+    private class BreedTask implements Runnable {
+        private final int species;
+        private final SplittableRandom stream;
+        private Individual child = null;
+
+
+        /**
+         * @param species Index of the species the child is bred from.
+         * @param stream  Random stream used to create the child.
+         */
+        BreedTask(int species, SplittableRandom stream) {
+            this.species = species;
+            this.stream = stream;
+        }
+
+
+        @Override
+        public void run() {
+            useStream(stream);
+            try {
+                child = breedChild(generation.get(species), species);
+            } finally {
+                useStream(null);
+            }
+        }
+    }
+
+
+    /**
+     * Sorts the children of one species into it and any new species which split off from it. Each child goes into the
+     * first species it is compatible with, trying the original species first and then the splits in the order they
+     * were created.
+     */
+    private static class SpeciateTask implements Runnable {
+        private final Species species;
+        private final int parentID;
+        private final List<Individual> children = new ArrayList<>();
+        /// Members of each new species, the first member is its representative.
+        private final List<List<Individual>> splits = new ArrayList<>();
+
+
+        /**
+         * @param species  Species the children are bred from, for the children to fall into.
+         * @param parentID ID of the species for any new species to use as their parent.
+         */
+        SpeciateTask(Species species, int parentID) {
+            this.species = species;
+            this.parentID = parentID;
+        }
+
+
+        @Override
+        public void run() {
+            for(Individual child : children) {
+                if(species.add(child)) continue;
+
+                List<Individual> split = null;
+                for(List<Individual> s : splits) {
+                    if(Species.isCompatible(s.get(0), child)) {
+                        split = s;
+                        break;
+                    }
+                }
+                if(split == null) {
+                    split = new ArrayList<>();
+                    splits.add(split);
+                }
+                split.add(child);
+            }
+        }
+    }
+
+
     /**
      * A runnable task which will compute the fitness of a Genome using a ScoringFunction.
      */
     private static class ScoreSystem implements Runnable {
         private final Individual individual;
         private final ScoringFunction scoringFunction;
+        /// Random stream for the scoring function to use, so its results do not depend on the thread it runs on.
+        private final SplittableRandom stream;
 
 
-        ScoreSystem(Individual individual, ScoringFunction scoringFunction) {
+        ScoreSystem(Individual individual, ScoringFunction scoringFunction, SplittableRandom stream) {
             this.individual = individual;
             this.scoringFunction = scoringFunction;
+            this.stream = stream;
         }
 
 
         @Override
         public void run() {
+            useStream(stream);
+            try {
+                score();
+            } finally {
+                useStream(null);
+            }
+        }
+
+
+        private void score() {
             NeuralNetwork network = individual.genome.constructNeuralNetwork();
             final boolean realTimeProcessing = scoringFunction.realTimeProcessing();
             final boolean flushBetween = scoringFunction.flushBetween();
@@ -0,0 +1,483 @@
+package plu.teamtwo.rtm.neat;
+
+import plu.teamtwo.rtm.genome.CheckpointInput;
+import plu.teamtwo.rtm.genome.CheckpointOutput;
+import plu.teamtwo.rtm.genome.Genome;
+import plu.teamtwo.rtm.genome.GenomeBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Content addressed storage for the genomes of a run, so checkpoints can refer to genomes instead of containing them.
+ * Each genome is found by a hash of its contents and written only once, however many generations it appears in;
+ * the protected leader of a species is the same genome generation after generation. Genomes are numbered in the order
+ * they were added and checkpoints refer to them by this number, which takes fewer bytes than the hash.
+ * <p>
+ * A new genome is written as its differences from a base genome, usually the champion of its species in the previous
+ * generation, since children share most of their genes with it. At most MAX_DIFF_DEPTH differences are chained before
+ * a genome is written in full again, which bounds the work of reading any one genome back.
+ * <p>
+ * The records of the genomes added for one checkpoint are collected into a block, which is compressed and appended to
+ * a data file by flush. An index file holds a fixed size entry for each genome with its hash, the position of its
+ * block and its place in the block, and is read into memory when the store is opened, so any genome of any generation
+ * can be read without scanning the data. A block is always written before the index entries which refer to it, and
+ * forced to disk first when syncing, so a crash leaves at most an unreferenced block or a partial entry, which are
+ * ignored.
+ */
+public class GenomeStore implements AutoCloseable {
+    /// Name of the file with the genome records.
+    static final String DATA_FILE = "genomes.rtmg";
+    /// Name of the file with the index of the records.
+    static final String INDEX_FILE = "genomes.rtmi";
+    /// Number used to mean no genome.
+    public static final int NONE = -1;
+    /// Bytes in an index entry; hash, block position, offset in the block, length and depth.
+    private static final int ENTRY_SIZE = 8 + 8 + 4 + 4 + 4;
+    /// Bytes in the header of a block; compressed and uncompressed length.
+    private static final int BLOCK_HEADER_SIZE = 4 + 4;
+    /// Block position of records which have not been flushed yet.
+    private static final long PENDING = -1;
+    /// Maximum number of differences which are chained before a genome is written in full.
+    private static final int MAX_DIFF_DEPTH = 16;
+    /// Number of genomes kept in memory to describe and resolve differences.
+    private static final int RECENT_GENOMES = 512;
+    /// Number of decompressed blocks kept in memory.
+    private static final int RECENT_BLOCKS = 4;
+    /// Number of index entries read at once when the store is opened.
+    private static final int INDEX_CHUNK_ENTRIES = 1 << 12;
+
+    private final GenomeBuilder genomeSpecs;
+    private final FileChannel data;
+    private final FileChannel index;
+    /// Location of each genome in the data file, by number.
+    private final List<Entry> entries = new ArrayList<>();
+    /// Number of each genome, by hash.
+    private final Map<Long, Integer> numbers = new HashMap<>();
+    /// Genomes which were recently written or read, by number.
+    private final Map<Integer, Genome> recent = new LinkedHashMap<Integer, Genome>(RECENT_GENOMES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Genome> eldest) {
+            return size() > RECENT_GENOMES;
+        }
+    };
+    /// Decompressed blocks which were recently read, by position.
+    private final Map<Long, byte[]> blocks = new LinkedHashMap<Long, byte[]>(RECENT_BLOCKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > RECENT_BLOCKS;
+        }
+    };
+    /// Records which have not been flushed yet.
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream(1 << 12);
+    /// Hash of each record which has not been flushed yet.
+    private final List<Long> blockHashes = new ArrayList<>();
+    /// Number of the genome to write the differences of the next generation of each species from, by species ID.
+    private final Map<Integer, Integer> bases = new HashMap<>();
+
+
+    /**
+     * Open the genome store in a directory, creating it if there is none yet.
+     *
+     * @param dir         Directory of the store.
+     * @param genomeSpecs Builder for the type of genome which is stored.
+     * @throws IOException If the store could not be opened.
+     */
+    public GenomeStore(File dir, GenomeBuilder genomeSpecs) throws IOException {
+        this.genomeSpecs = genomeSpecs;
+        data = FileChannel.open(new File(dir, DATA_FILE).toPath(), StandardOpenOption.CREATE,
+                                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = FileChannel.open(new File(dir, INDEX_FILE).toPath(), StandardOpenOption.CREATE,
+                                 StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            readIndex();
+        } catch(IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Check if a directory has a genome store.
+     *
+     * @param dir Directory to check.
+     * @return True if there is a store in the directory.
+     */
+    public static boolean exists(File dir) {
+        return new File(dir, INDEX_FILE).isFile() && new File(dir, DATA_FILE).isFile();
+    }
+
+
+    /**
+     * Add a genome to the store unless it is already there.
+     *
+     * @param genome Genome to add, it must not be changed afterwards.
+     * @param base   Number of a genome to write the differences from, or NONE to write it in full.
+     * @return Number of the genome to refer to it by.
+     * @throws IOException If it could not be written.
+     */
+    public synchronized int put(Genome genome, int base) throws IOException {
+        final byte[] full = encode(genome, null);
+        final long hash = hash(full);
+        //the hash only finds a candidate, it is the same genome if it is written the same way
+        final Integer existing = numbers.get(hash);
+        if(existing != null && Arrays.equals(encode(resolve(existing), null), full)) return existing;
+
+        //describe the differences if the base is still in memory and the chain is not too long
+        final Genome baseGenome = base == NONE ? null : recent.get(base);
+        byte[] record = null;
+        int depth = 0;
+        if(baseGenome != null && entries.get(base).depth < MAX_DIFF_DEPTH) {
+            record = encode(genome, baseGenome);
+            depth = entries.get(base).depth + 1;
+        }
+        if(record == null || record.length >= full.length) {
+            record = full;
+            depth = 0;
+            base = NONE;
+        }
+
+        //the record starts with the number of its base plus one
+        final int offset = block.size();
+        try(CheckpointOutput out = CheckpointOutput.raw(block)) {
+            out.writeVarInt(base + 1);
+        }
+        block.write(record);
+        blockHashes.add(hash);
+
+        final Entry entry = new Entry(PENDING, offset, block.size() - offset, depth);
+        final int number = entries.size();
+        entries.add(entry);
+        numbers.put(hash, number);
+        recent.put(number, genome);
+        return number;
+    }
+
+
+    /**
+     * Read a genome from the store.
+     *
+     * @param number Number the genome was given when added.
+     * @return A copy of the genome which may be changed freely.
+     * @throws IOException If it is not in the store or could not be read.
+     */
+    public synchronized Genome get(int number) throws IOException {
+        return resolve(number).duplicate();
+    }
+
+
+    /**
+     * @return Number of genomes in the store.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * Find the genome to write the differences of a species' members from; the last champion written for the species,
+     * or for its parent if it is new.
+     *
+     * @param speciesID       ID of the species.
+     * @param parentSpeciesID ID of the parent species.
+     * @return Number of the base genome, or NONE if there is none.
+     */
+    synchronized int baseFor(int speciesID, int parentSpeciesID) {
+        Integer base = bases.get(speciesID);
+        if(base == null) base = bases.get(parentSpeciesID);
+        return base == null ? NONE : base;
+    }
+
+
+    /**
+     * Set the genome to write the differences of the next generation of a species from.
+     *
+     * @param speciesID ID of the species.
+     * @param number    Number of the genome, usually the champion of the species.
+     */
+    synchronized void setBase(int speciesID, int number) {
+        bases.put(speciesID, number);
+    }
+
+
+    /**
+     * Compress the genomes added since the last flush into a block and write it, followed by their index entries.
+     * Checkpoints which refer to them should only be written once this is done.
+     *
+     * @throws IOException If they could not be written.
+     */
+    public synchronized void flush() throws IOException {
+        flush(false);
+    }
+
+
+    /**
+     * Compress the genomes added since the last flush into a block and write it, followed by their index entries.
+     *
+     * @param sync True to force the block to disk before the index entries are written, and the entries before this
+     *             returns, so an entry on disk never refers to a block which is not.
+     * @throws IOException If they could not be written.
+     */
+    public synchronized void flush(boolean sync) throws IOException {
+        if(blockHashes.isEmpty()) {
+            if(sync) sync();
+            return;
+        }
+        final byte[] raw = block.toByteArray();
+        final Deflater deflater = new Deflater();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + BLOCK_HEADER_SIZE);
+        compressed.write(new byte[BLOCK_HEADER_SIZE], 0, BLOCK_HEADER_SIZE); //filled in below
+        try(DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater)) {
+            out.write(raw);
+        } finally {
+            deflater.end();
+        }
+
+        ByteBuffer bytes = ByteBuffer.wrap(compressed.toByteArray());
+        bytes.putInt(0, bytes.capacity() - BLOCK_HEADER_SIZE).putInt(4, raw.length);
+        final long position = data.size();
+        writeFully(data, bytes, position);
+        if(sync) data.force(false);
+
+        final int first = entries.size() - blockHashes.size();
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE * blockHashes.size());
+        for(int r = 0; r < blockHashes.size(); ++r) {
+            final Entry entry = entries.get(first + r).flushed(position);
+            entries.set(first + r, entry);
+            buffer.putLong(blockHashes.get(r)).putLong(position).putInt(entry.offset).putInt(entry.length)
+                  .putInt(entry.depth);
+        }
+        buffer.flip();
+        writeFully(index, buffer, (long) first * ENTRY_SIZE);
+        if(sync) index.force(false);
+
+        blocks.put(position, raw);
+        block.reset();
+        blockHashes.clear();
+    }
+
+
+    /**
+     * Force everything flushed so far to disk.
+     *
+     * @throws IOException If it could not be synced.
+     */
+    public synchronized void sync() throws IOException {
+        data.force(false);
+        index.force(false);
+    }
+
+
+    /**
+     * Flush any genomes which were added and close the files.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            try {
+                data.close();
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+
+    /**
+     * Read a genome, following its chain of differences.
+     *
+     * @param number Number of the genome.
+     * @return The genome, shared with the recent genomes so it must not be changed.
+     */
+    private Genome resolve(int number) throws IOException {
+        Genome genome = recent.get(number);
+        if(genome != null) return genome;
+
+        if(number < 0 || number >= entries.size())
+            throw new FileNotFoundException("Genome " + number + " is not in the store.");
+        final Entry entry = entries.get(number);
+        final byte[] records = entry.block == PENDING ? block.toByteArray() : readBlock(entry.block);
+        if(entry.offset + entry.length > records.length)
+            throw new StreamCorruptedException("Genome " + number + " is outside of its block.");
+
+        try(CheckpointInput in = CheckpointInput.raw(new ByteArrayInputStream(records, entry.offset, entry.length))) {
+            final int base = in.readVarInt() - 1;
+            if(base >= number)
+                throw new StreamCorruptedException("Genome " + number + " is based on a later genome.");
+            genome = base == NONE ? genomeSpecs.read(in) : genomeSpecs.readDiff(in, resolve(base));
+        }
+        recent.put(number, genome);
+        return genome;
+    }
+
+
+    /**
+     * Read and decompress a block, or get it from the recent blocks.
+     *
+     * @param position Position of the block in the data file.
+     * @return The records in the block.
+     */
+    private byte[] readBlock(long position) throws IOException {
+        byte[] raw = blocks.get(position);
+        if(raw != null) return raw;
+
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        readFully(data, header, position);
+        ByteBuffer compressed = ByteBuffer.allocate(header.getInt(0));
+        readFully(data, compressed, position + BLOCK_HEADER_SIZE);
+
+        raw = new byte[header.getInt(4)];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array());
+            int n = 0;
+            while(n < raw.length && !inflater.finished())
+                n += inflater.inflate(raw, n, raw.length - n);
+            if(n != raw.length)
+                throw new StreamCorruptedException("Genome block is truncated.");
+        } catch(DataFormatException e) {
+            throw new StreamCorruptedException("Genome block is corrupt: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        blocks.put(position, raw);
+        return raw;
+    }
+
+
+    /**
+     * Load the index into memory, ignoring entries which were not completely written or refer to a block which was
+     * not. The index is read in large chunks, and the header of each block is read once to check the whole block is
+     * in the data file.
+     */
+    private void readIndex() throws IOException {
+        final long count = index.size() / ENTRY_SIZE;
+        final long dataSize = data.size();
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE * INDEX_CHUNK_ENTRIES);
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        buffer.limit(0);
+        long checked = PENDING; //position of the last block which was checked
+        for(long e = 0; e < count; ++e) {
+            if(!buffer.hasRemaining()) {
+                buffer.clear();
+                buffer.limit((int) Math.min(count - e, INDEX_CHUNK_ENTRIES) * ENTRY_SIZE);
+                readFully(index, buffer, e * ENTRY_SIZE);
+                buffer.flip();
+            }
+            final long hash = buffer.getLong();
+            final Entry entry = new Entry(buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+            if(entry.block != checked) {
+                if(entry.block < 0 || entry.block + BLOCK_HEADER_SIZE > dataSize) break;
+                header.clear();
+                readFully(data, header, entry.block);
+                final int compressed = header.getInt(0);
+                if(compressed < 0 || entry.block + BLOCK_HEADER_SIZE + compressed > dataSize) break;
+                checked = entry.block;
+            }
+            numbers.put(hash, entries.size());
+            entries.add(entry);
+        }
+        //drop a partial entry or entries for records which never made it to disk
+        index.truncate((long) entries.size() * ENTRY_SIZE);
+    }
+
+
+    /**
+     * Serialize a genome, in full or as its differences from another.
+     *
+     * @param genome Genome to serialize.
+     * @param base   Genome to write the differences from, or null.
+     * @return The serialized genome.
+     */
+    private static byte[] encode(Genome genome, Genome base) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        try(CheckpointOutput out = CheckpointOutput.raw(buffer)) {
+            if(base == null) genome.write(out);
+            else genome.writeDiff(out, base);
+        }
+        return buffer.toByteArray();
+    }
+
+
+    /**
+     * 64 bit FNV-1a hash of the bytes followed by a final mix.
+     *
+     * @param bytes Bytes to hash.
+     * @return The hash.
+     */
+    private static long hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for(byte b : bytes) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining())
+            if(channel.read(buffer, position + buffer.position()) < 0)
+                throw new StreamCorruptedException("Genome block is truncated.");
+    }
+
+
+    /**
+     * Location of a genome record in the data file.
+     */
+    private static class Entry {
+        /// Position of the block with the record, or PENDING if it has not been flushed.
+        final long block;
+        /// Position of the record in the decompressed block.
+        final int offset;
+        final int length;
+        /// Number of differences which have to be applied to get the genome, 0 if it is written in full.
+        final int depth;
+
+
+        Entry(long block, int offset, int length, int depth) {
+            this.block = block;
+            this.offset = offset;
+            this.length = length;
+            this.depth = depth;
+        }
+
+
+        /**
+         * @param block Position the block with the record was written at.
+         * @return The entry for the record once it is in that block.
+         */
+        Entry flushed(long block) {
+            return new Entry(block, offset, length, depth);
+        }
+    }
+}
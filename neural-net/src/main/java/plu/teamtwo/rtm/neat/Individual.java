@@ -1,8 +1,12 @@
 package plu.teamtwo.rtm.neat;
 
+import plu.teamtwo.rtm.genome.CheckpointInput;
+import plu.teamtwo.rtm.genome.CheckpointOutput;
 import plu.teamtwo.rtm.genome.Genome;
+import plu.teamtwo.rtm.genome.GenomeBuilder;
 import plu.teamtwo.rtm.genome.GenomeCache;
 
+import java.io.IOException;
 import java.security.InvalidParameterException;
 
 //TODO: register json conversion functions for this class to allow it to correctly initialize from any genome
@@ -45,6 +49,24 @@ public class Individual {
     }
 
 
+    /**
+     * Read an individual written to a binary checkpoint.
+     *
+     * @param in      Checkpoint to read from.
+     * @param builder Builder for the type of genome which was written.
+     * @param store   Store the genome was put in, or null if it was written in the checkpoint.
+     * @return The individual as it was when written.
+     */
+    static Individual read(CheckpointInput in, GenomeBuilder builder, GenomeStore store) throws IOException {
+        final float fitness = in.readFloat();
+        final boolean winner = in.readBoolean();
+        Individual individual = new Individual(store == null ? builder.read(in) : store.get(in.readVarInt()));
+        individual.fitness = fitness;
+        individual.winner = winner;
+        return individual;
+    }
+
+
     /**
      * Compute the compatibility distance function δ. The value represents how different the two individuals are.
      * This will throw an exception if they two genomes use different internal representations.
@@ -165,6 +187,27 @@ public class Individual {
     }
 
 
+    /**
+     * Write the individual to a binary checkpoint.
+     *
+     * @param out   Checkpoint to write to.
+     * @param store Store to put the genome in and write a reference to, or null to write the genome itself.
+     * @param base  Number of a genome in the store to write the differences of the genome from, or NONE.
+     * @return Number of the genome in the store, or NONE if there is no store.
+     */
+    int write(CheckpointOutput out, GenomeStore store, int base) throws IOException {
+        out.writeFloat(fitness);
+        out.writeBoolean(winner);
+        if(store == null) {
+            genome.write(out);
+            return GenomeStore.NONE;
+        }
+        final int number = store.put(genome, base);
+        out.writeVarInt(number);
+        return number;
+    }
+
+
     /**
      * Internal function to verify that the other individual is compatible with this one before performing any
      * operations which would require them to be.
@@ -0,0 +1,487 @@
+package plu.teamtwo.rtm.neat;
+
+import plu.teamtwo.rtm.genome.CheckpointInput;
+import plu.teamtwo.rtm.genome.CheckpointOutput;
+import plu.teamtwo.rtm.genome.GenomeBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An archive of every generation of a run which can be read back in any order, for resuming a run from any point and
+ * for analysis tools which only need part of it, e.g. the champion of each generation or the history of one species.
+ * The genomes are kept in a GenomeStore in the same directory and the generations only refer to them.
+ * <p>
+ * Each generation is appended to a data file as one record which starts with a table of the offset of every species
+ * in the record, followed by the state of the controller and then each species. An index file has a fixed size entry
+ * for each generation with the position of its record, its fitness and its champion, so any generation is found
+ * without reading the others and the fitness history of a run is read from the index alone. The index is small, so
+ * a copy of it is kept in memory, while the data file is read through a memory map and only the part of a record
+ * which is needed is decoded.
+ * <p>
+ * A record is always written before its index entry, so a crash leaves at most a record which is not referred to or a
+ * partial entry, which are ignored. Appending a generation which is not after the last one, e.g. after resuming a run
+ * from an earlier generation, drops the generations from that one on.
+ */
+public class RunArchive implements AutoCloseable {
+    /// Name of the file with the generation records.
+    static final String DATA_FILE = "run.rtmr";
+    /// Name of the file with the index of the generations.
+    static final String INDEX_FILE = "run.rtmx";
+    /// Bytes in an index entry; generation, position, length, champion, champion fitness, fitness and species count.
+    private static final int ENTRY_SIZE = 4 + 8 + 4 + 4 + 4 + 4 + 4;
+    /// Bytes in each row of the species table at the start of a record; species ID and offset in the record.
+    private static final int SPECIES_SIZE = 4 + 4;
+    /// Largest part of a file which is mapped at once.
+    private static final long MAX_MAP_SIZE = 1L << 30;
+    /// Number of entries the copy of the index has room for at first.
+    private static final int INITIAL_ENTRIES = 64;
+
+    private final GenomeBuilder genomeSpecs;
+    /// Store the genomes of every generation are put in.
+    private final GenomeStore store;
+    private final MappedFile data;
+    private final MappedFile index;
+    /// Copy of the index file, it grows geometrically so appending does not read the index again.
+    private ByteBuffer entries;
+    /// Number of generations in the archive.
+    private int size;
+    /// Position in the data file after the last record.
+    private long end;
+
+
+    /**
+     * Open the archive in a directory, creating it if there is none.
+     *
+     * @param dir         Directory of the archive.
+     * @param genomeSpecs Builder for the type of genome used by the run.
+     * @throws IOException If the archive could not be opened.
+     */
+    public RunArchive(File dir, GenomeBuilder genomeSpecs) throws IOException {
+        this.genomeSpecs = genomeSpecs;
+        store = new GenomeStore(dir, genomeSpecs);
+        data = new MappedFile(new File(dir, DATA_FILE));
+        index = new MappedFile(new File(dir, INDEX_FILE));
+        try {
+            readIndex();
+        } catch(IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Check if a directory has a run archive.
+     *
+     * @param dir Directory to check.
+     * @return True if there is an archive in the directory.
+     */
+    public static boolean exists(File dir) {
+        return new File(dir, INDEX_FILE).isFile() && new File(dir, DATA_FILE).isFile() && GenomeStore.exists(dir);
+    }
+
+
+    /**
+     * @return Number of generations in the archive.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+
+    /**
+     * @return Number of the first generation in the archive, or -1 if it is empty.
+     */
+    public synchronized int firstGeneration() throws IOException {
+        return size == 0 ? -1 : entry(0).getInt(0);
+    }
+
+
+    /**
+     * @return Number of the last generation in the archive, or -1 if it is empty.
+     */
+    public synchronized int lastGeneration() throws IOException {
+        return size == 0 ? -1 : entry(size - 1).getInt(0);
+    }
+
+
+    /**
+     * Add a generation to the end of the archive. If the archive already has this generation or later ones, they are
+     * dropped first.
+     *
+     * @param controller Controller with the generation to add, see GAController.snapshot.
+     * @param sync       True to force the genomes and the record to disk before the index entry is written, and the
+     *                   entry before this returns. Entries of dropped generations are forced to disk as cleared
+     *                   before any record is overwritten.
+     * @throws IOException If it could not be written.
+     */
+    public synchronized void append(GAController controller, boolean sync) throws IOException {
+        final int generation = controller.getGenerationNum();
+        if(size > 0 && generation <= lastGeneration()) {
+            size = find(generation, true);
+            end = size == 0 ? 0 : entry(size - 1).getLong(4) + entry(size - 1).getInt(12);
+            //the entries of the dropped generations have to be gone from disk before their records are overwritten
+            index.clear((long) size * ENTRY_SIZE);
+            if(sync) index.sync();
+        }
+
+        //write the species first to learn their offsets, then put the table in front of them
+        final List<Species> species = controller.getSpecies();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(1 << 12);
+        final int table = 4 + species.size() * SPECIES_SIZE;
+        ByteBuffer offsets = ByteBuffer.allocate(table).putInt(species.size());
+        int champion = GenomeStore.NONE;
+        float championFitness = 0;
+        try(CheckpointOutput out = CheckpointOutput.raw(body)) {
+            controller.writeState(out);
+            for(Species s : species) {
+                offsets.putInt(s.speciesID).putInt(table + body.size());
+                final int number = s.write(out, store);
+                if(number == GenomeStore.NONE) continue; //no members
+                final float fitness = s.getChampion().getFitness();
+                if(champion == GenomeStore.NONE || fitness >= championFitness) { //ties go to the later species
+                    champion = number;
+                    championFitness = fitness;
+                }
+            }
+        }
+        store.flush(sync);
+
+        offsets.flip();
+        final int length = table + body.size();
+        data.write(offsets, end);
+        data.write(ByteBuffer.wrap(body.toByteArray()), end + table);
+        if(sync) data.sync();
+
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        entry.putInt(generation).putLong(end).putInt(length).putInt(champion).putFloat(championFitness)
+             .putFloat(controller.getFitness()).putInt(species.size());
+        entry.flip();
+        index.write(entry.duplicate(), (long) size * ENTRY_SIZE);
+        if(sync) index.sync();
+        if(entries.capacity() < (size + 1) * ENTRY_SIZE) {
+            ByteBuffer grown = ByteBuffer.allocate(entries.capacity() * 2);
+            System.arraycopy(entries.array(), 0, grown.array(), 0, size * ENTRY_SIZE);
+            entries = grown;
+        }
+        System.arraycopy(entry.array(), 0, entries.array(), size * ENTRY_SIZE, ENTRY_SIZE);
+
+        size++;
+        end += length;
+    }
+
+
+    /**
+     * Read a whole generation, e.g. to resume the run from it.
+     *
+     * @param generation Number of the generation.
+     * @return A GAController initialized to the generation.
+     * @throws IOException If the generation is not in the archive or could not be read.
+     */
+    public synchronized GAController readGeneration(int generation) throws IOException {
+        final ByteBuffer entry = entry(find(generation, false));
+        final ByteBuffer record = data.slice(entry.getLong(4), entry.getInt(12));
+        final int species = record.getInt(0);
+        record.position(4 + species * SPECIES_SIZE);
+
+        try(CheckpointInput in = CheckpointInput.raw(new BufferInputStream(record))) {
+            GAController controller = GAController.readState(in, genomeSpecs);
+            for(int s = 0; s < species; ++s)
+                controller.addSpecies(Species.read(in, genomeSpecs, store));
+            return controller;
+        }
+    }
+
+
+    /**
+     * Read the members of one species without reading the rest of the generation.
+     *
+     * @param generation Number of the generation.
+     * @param speciesID  ID of the species.
+     * @return The members of the species from most to least fit, or null if the species is not in the generation.
+     * @throws IOException If the generation is not in the archive or could not be read.
+     */
+    public synchronized List<Individual> readSpecies(int generation, int speciesID) throws IOException {
+        final ByteBuffer entry = entry(find(generation, false));
+        final ByteBuffer record = data.slice(entry.getLong(4), entry.getInt(12));
+        final int species = record.getInt(0);
+        for(int s = 0; s < species; ++s) {
+            if(record.getInt(4 + s * SPECIES_SIZE) != speciesID) continue;
+            record.position(record.getInt(4 + s * SPECIES_SIZE + 4));
+            try(CheckpointInput in = CheckpointInput.raw(new BufferInputStream(record))) {
+                List<Individual> members = new ArrayList<>();
+                for(Individual i : Species.read(in, genomeSpecs, store))
+                    members.add(i);
+                return members;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * @param generation Number of the generation.
+     * @return IDs of the species in the generation, from most to least fit.
+     * @throws IOException If the generation is not in the archive or could not be read.
+     */
+    public synchronized int[] speciesIDs(int generation) throws IOException {
+        final ByteBuffer entry = entry(find(generation, false));
+        final ByteBuffer record = data.slice(entry.getLong(4), entry.getInt(12));
+        int[] ids = new int[record.getInt(0)];
+        for(int s = 0; s < ids.length; ++s)
+            ids[s] = record.getInt(4 + s * SPECIES_SIZE);
+        return ids;
+    }
+
+
+    /**
+     * Read the most fit individual of a generation. Only its genome is read, not the rest of the generation.
+     *
+     * @param generation Number of the generation.
+     * @return The champion of the generation, or null if the generation had no individuals.
+     * @throws IOException If the generation is not in the archive or could not be read.
+     */
+    public synchronized Individual readChampion(int generation) throws IOException {
+        final ByteBuffer entry = entry(find(generation, false));
+        final int champion = entry.getInt(16);
+        if(champion == GenomeStore.NONE) return null;
+        Individual individual = new Individual(store.get(champion));
+        individual.setFitness(entry.getFloat(20));
+        return individual;
+    }
+
+
+    /**
+     * @param generation Number of the generation.
+     * @return Fitness of the champion of the generation, read from the index alone.
+     * @throws IOException If the generation is not in the archive.
+     */
+    public synchronized float championFitness(int generation) throws IOException {
+        return entry(find(generation, false)).getFloat(20);
+    }
+
+
+    /**
+     * @param generation Number of the generation.
+     * @return Average fitness of the generation, read from the index alone.
+     * @throws IOException If the generation is not in the archive.
+     */
+    public synchronized float fitness(int generation) throws IOException {
+        return entry(find(generation, false)).getFloat(24);
+    }
+
+
+    /**
+     * Close the archive and its genome store.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            store.close();
+        } finally {
+            try {
+                data.close();
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+
+    /**
+     * Find the entry of a generation. Generations are usually numbered one after another, so its place is tried
+     * first, and otherwise it is found with a binary search since the entries are in ascending order.
+     *
+     * @param generation Number of the generation.
+     * @param insert     True to return the first entry at or after the generation instead of requiring it to exist.
+     * @return Index of the entry.
+     * @throws FileNotFoundException If the generation is not in the archive and insert is false.
+     */
+    private int find(int generation, boolean insert) throws IOException {
+        if(size > 0) {
+            final long guess = (long) generation - entry(0).getInt(0);
+            if(guess >= 0 && guess < size && entry((int) guess).getInt(0) == generation)
+                return (int) guess;
+        }
+
+        int low = 0, high = size;
+        while(low < high) {
+            final int mid = (low + high) >>> 1;
+            if(entry(mid).getInt(0) < generation) low = mid + 1;
+            else high = mid;
+        }
+        if(!insert && (low >= size || entry(low).getInt(0) != generation))
+            throw new FileNotFoundException("Generation " + generation + " is not in the archive.");
+        return low;
+    }
+
+
+    /**
+     * @param e Index of the entry.
+     * @return The entry, with absolute positions starting at 0.
+     */
+    private ByteBuffer entry(int e) {
+        ByteBuffer buffer = entries.duplicate();
+        buffer.position(e * ENTRY_SIZE);
+        buffer.limit(buffer.position() + ENTRY_SIZE);
+        return buffer.slice();
+    }
+
+
+    /**
+     * Find the generations which were completely written, dropping a partial entry or entries for records which never
+     * made it to disk, as well as entries which were cleared when generations were dropped. Only the entries at the
+     * end have to be checked, so this does not grow with the length of the run.
+     */
+    private void readIndex() throws IOException {
+        size = (int) (index.size() / ENTRY_SIZE);
+        entries = ByteBuffer.allocate(Math.max(size, INITIAL_ENTRIES) * ENTRY_SIZE);
+        entries.limit(size * ENTRY_SIZE);
+        index.read(entries, 0);
+        entries.clear();
+
+        final long dataSize = data.size();
+        end = 0;
+        while(size > 0) {
+            final ByteBuffer last = entry(size - 1);
+            end = last.getLong(4) + last.getInt(12);
+            if(last.getLong(4) >= 0 && last.getInt(12) >= 4 && end <= dataSize) break;
+            size--;
+            end = 0;
+        }
+        index.clear((long) size * ENTRY_SIZE);
+    }
+
+
+    /**
+     * A file which is written with positioned writes and read either with positioned reads or through a memory map of
+     * the part of the file which was last needed. The map is replaced when a read falls outside of it, e.g. once the
+     * file has grown.
+     */
+    private static class MappedFile implements AutoCloseable {
+        private final FileChannel channel;
+        private MappedByteBuffer map = null;
+        /// Position in the file the map starts at.
+        private long start = 0;
+
+
+        MappedFile(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+        }
+
+
+        /**
+         * @param position Position in the file.
+         * @param length   Number of bytes.
+         * @return A buffer with the bytes, with absolute positions starting at 0. It must not be kept after the file
+         *         is written to again.
+         */
+        ByteBuffer slice(long position, int length) throws IOException {
+            if(map == null || position < start || position + length > start + map.capacity()) {
+                final long size = channel.size();
+                if(position < 0 || position + length > size)
+                    throw new StreamCorruptedException("Archive record is outside of its file.");
+                //map the whole file if it is small enough, otherwise as much as possible from the position on
+                start = size <= MAX_MAP_SIZE ? 0 : Math.min(position, size - MAX_MAP_SIZE);
+                map = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, MAX_MAP_SIZE));
+            }
+            ByteBuffer buffer = map.duplicate();
+            buffer.position((int) (position - start));
+            buffer.limit(buffer.position() + length);
+            return buffer.slice();
+        }
+
+
+        void write(ByteBuffer buffer, long position) throws IOException {
+            while(buffer.hasRemaining())
+                position += channel.write(buffer, position);
+        }
+
+
+        void read(ByteBuffer buffer, long position) throws IOException {
+            while(buffer.hasRemaining()) {
+                final int read = channel.read(buffer, position);
+                if(read < 0) throw new StreamCorruptedException("Archive file is shorter than expected.");
+                position += read;
+            }
+        }
+
+
+        /**
+         * Drop everything from a position on by overwriting it with zeros. The file is not truncated since that fails
+         * on some systems while part of it is mapped, and a map is only released once it is garbage collected.
+         *
+         * @param position Position to clear from.
+         */
+        void clear(long position) throws IOException {
+            final long size = channel.size();
+            if(position >= size) return;
+            ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(size - position, 1 << 16));
+            while(position < size) {
+                final int length = (int) Math.min(zeros.capacity(), size - position);
+                zeros.clear();
+                zeros.limit(length);
+                write(zeros, position);
+                position += length;
+            }
+        }
+
+
+        long size() throws IOException {
+            return channel.size();
+        }
+
+
+        void sync() throws IOException {
+            channel.force(false);
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            map = null;
+            channel.close();
+        }
+    }
+
+
+    /**
+     * Reads the remaining bytes of a buffer as a stream.
+     */
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(len == 0) return 0;
+            if(!buffer.hasRemaining()) return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+    }
+}
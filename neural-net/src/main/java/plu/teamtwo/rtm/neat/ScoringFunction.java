@@ -23,6 +23,16 @@ public interface ScoringFunction {
      */
     ScoringFunction createNew();
 
+    /**
+     * Identifies the task the function scores, so results cached by an EvaluationCache are only reused for the same
+     * task. Functions whose scores depend on how they were set up should include that in the ID.
+     *
+     * @return ID of the scoring function.
+     */
+    default String getID() {
+        return getClass().getName();
+    }
+
     /**
      * This will be called to determine how many simultaneous instances of the function can exist.
      *
@@ -1,5 +1,11 @@
 package plu.teamtwo.rtm.neat;
 
+import plu.teamtwo.rtm.genome.CheckpointInput;
+import plu.teamtwo.rtm.genome.CheckpointOutput;
+import plu.teamtwo.rtm.genome.GenomeBuilder;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -57,6 +63,73 @@ class Species implements Iterable<Individual> {
     }
 
 
+    /**
+     * Read a species and its members written to a binary checkpoint.
+     *
+     * @param in      Checkpoint to read from.
+     * @param builder Builder for the type of genome the members have.
+     * @param store   Store the genomes were put in, or null if they were written in the checkpoint.
+     * @return The species as it was when written.
+     */
+    static Species read(CheckpointInput in, GenomeBuilder builder, GenomeStore store) throws IOException {
+        Species s = new Species(in.readVarInt(), in.readSignedVarInt(), in.readVarInt());
+        s.fitness = in.readFloat();
+        s.peakFitness = in.readFloat();
+        s.lastImprovement = in.readVarInt();
+
+        final int size = in.readVarInt();
+        for(int i = 0; i < size; ++i)
+            s.memebers.add(Individual.read(in, builder, store));
+
+        //the representative is either one of the members or a member of the last generation
+        final int rep = in.readSignedVarInt();
+        if(rep < -2 || rep >= size)
+            throw new StreamCorruptedException("Invalid representative for species " + s.speciesID + ".");
+        if(rep >= 0)
+            s.representative = s.memebers.get(rep);
+        else if(rep == -1)
+            s.representative = Individual.read(in, builder, store);
+        return s;
+    }
+
+
+    /**
+     * Write the species and its members to a binary checkpoint, streaming each member in turn. With a store, the
+     * genomes are put in it as their differences from the last champion of the species, and this champion becomes
+     * the base for the next generation.
+     *
+     * @param out   Checkpoint to write to.
+     * @param store Store to put the genomes in, or null to write them in the checkpoint.
+     * @return Number of the champion's genome in the store, or GenomeStore.NONE without a store.
+     */
+    int write(CheckpointOutput out, GenomeStore store) throws IOException {
+        out.writeVarInt(speciesID);
+        out.writeSignedVarInt(parentSpeciesID);
+        out.writeVarInt(appeared);
+        out.writeFloat(fitness);
+        out.writeFloat(peakFitness);
+        out.writeVarInt(lastImprovement);
+
+        final int base = store == null ? GenomeStore.NONE : store.baseFor(speciesID, parentSpeciesID);
+        int champion = GenomeStore.NONE;
+        out.writeVarInt(memebers.size());
+        for(Individual i : memebers) {
+            final int number = i.write(out, store, base);
+            if(champion == GenomeStore.NONE) champion = number;
+        }
+
+        //-2 for no representative, -1 if it is not one of the members and follows, otherwise its index
+        final int rep = representative == null ? -2 : memebers.indexOf(representative);
+        out.writeSignedVarInt(rep);
+        if(rep == -1)
+            representative.write(out, store, base);
+
+        if(champion != GenomeStore.NONE)
+            store.setBase(speciesID, champion);
+        return champion;
+    }
+
+
     /**
      * Create an empty duplicate of this species which can then have new things added to it. It will set the
      * representative in the created instance to a random genome in the current instance (but will not add any genomes
@@ -81,6 +154,24 @@ class Species implements Iterable<Individual> {
     }
 
 
+    /**
+     * Create a copy of this species with its own list of members, which share the same individuals. Used to snapshot a
+     * generation which is about to be bred; breeding drops members from the species, but never changes an individual.
+     *
+     * @return A copy of this species.
+     */
+    Species snapshot() {
+        Species s = new Species(speciesID, parentSpeciesID, appeared);
+        s.fitness = fitness;
+        s.peakFitness = peakFitness;
+        s.lastImprovement = lastImprovement;
+        s.representative = representative;
+        s.memebers = new ArrayList<>(memebers);
+        s.sorted = sorted;
+        return s;
+    }
+
+
     /**
      * Get the representative of this species. The representative is arbitrarily chosen, and will be the same across
      * multiple calls through the same generation.
@@ -179,7 +270,20 @@ class Species implements Iterable<Individual> {
      */
     boolean isCompatible(Individual other) {
         if(getRep() == null) return true;
-        return getRep().compatibilityDistance(other) < COMPATIBILITY_THRESHOLD;
+        return isCompatible(getRep(), other);
+    }
+
+
+    /**
+     * Checks if the compatibility distance between an individual and a would be representative of a species is within
+     * the threshold.
+     *
+     * @param representative Representative of the species.
+     * @param other          Individual to check the compatibility of.
+     * @return True of the individuals are compatible, false otherwise.
+     */
+    static boolean isCompatible(Individual representative, Individual other) {
+        return representative.compatibilityDistance(other) < COMPATIBILITY_THRESHOLD;
     }
 
 
@@ -202,6 +306,18 @@ class Species implements Iterable<Individual> {
     }
 
 
+    /**
+     * Adds a new individual to the species without checking if it is compatible. Only use this if the individual is
+     * already known to be compatible.
+     *
+     * @param other Individual to be added.
+     */
+    void addMember(Individual other) {
+        sorted = false;
+        memebers.add(other);
+    }
+
+
     /**
      * Calculate the average fitness and adjusted fitness values for this species.
      */
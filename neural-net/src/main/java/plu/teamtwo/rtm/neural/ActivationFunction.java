@@ -2,39 +2,84 @@ package plu.teamtwo.rtm.neural;
 
 import plu.teamtwo.rtm.core.util.Rand;
 
-import java.util.function.Function;
-
 /**
- * This defines a function used for activation on a Neuron. Each value has with it associated a function which is able
- * to calculate the value when called.
+ * This defines a function used for activation on a Neuron. Each value overrides apply with the function it represents
+ * so that it can be calculated on primitive floats.
  * <p>
  * Take a look at https://en.wikipedia.org/wiki/Activation_function for more information.
  */
 public enum ActivationFunction {
-    ABS((Float x) -> x >= 0 ? x : -x),
-    GAUSSIAN((Float x) -> (float) Math.exp(-(x * x))),
-    LINEAR((Float x) -> x),
-    SIGMOID((Float x) -> (1.0f / (1.0f + (float) Math.exp(-x)))),
-    SINC((Float x) -> x == 0.0f ? 1.0f : (float) Math.sin(4.0f * x) / (4.0f * x)),
-    SINUSOID((Float x) -> (float) Math.sin(x)),
-    SOFTPLUS((Float x) -> (float) Math.log1p(Math.exp(x))),
-    SOFTSIGN((Float x) -> x / (1.0f + (x >= 0 ? x : -x))),
-    STEP((Float x) -> (x < 0 ? 0.0f : 1.0f)),
-    SYMETRIC((Float x) -> (x >= 0 ? -x : x) + 1.0f),
-    TANH((Float x) -> (float) Math.tanh(x));
-
+    ABS {
+        @Override
+        public float apply(float x) {
+            return x >= 0 ? x : -x;
+        }
+    },
+    GAUSSIAN {
+        @Override
+        public float apply(float x) {
+            return (float) Math.exp(-(x * x));
+        }
+    },
+    LINEAR {
+        @Override
+        public float apply(float x) {
+            return x;
+        }
 
-    private final Function<Float, Float> function;
-
-
-    /**
-     * Constructor which sets the function of this specific type.
-     *
-     * @param fn The function to use for activation.
-     */
-    ActivationFunction(Function<Float, Float> fn) {
-        function = fn;
-    }
+        @Override
+        public void applyInPlace(float[] values, int from, int to) {
+            //identity, nothing to do
+        }
+    },
+    SIGMOID {
+        @Override
+        public float apply(float x) {
+            return 1.0f / (1.0f + (float) Math.exp(-x));
+        }
+    },
+    SINC {
+        @Override
+        public float apply(float x) {
+            return x == 0.0f ? 1.0f : (float) Math.sin(4.0f * x) / (4.0f * x);
+        }
+    },
+    SINUSOID {
+        @Override
+        public float apply(float x) {
+            return (float) Math.sin(x);
+        }
+    },
+    SOFTPLUS {
+        @Override
+        public float apply(float x) {
+            return (float) Math.log1p(Math.exp(x));
+        }
+    },
+    SOFTSIGN {
+        @Override
+        public float apply(float x) {
+            return x / (1.0f + (x >= 0 ? x : -x));
+        }
+    },
+    STEP {
+        @Override
+        public float apply(float x) {
+            return x < 0 ? 0.0f : 1.0f;
+        }
+    },
+    SYMETRIC {
+        @Override
+        public float apply(float x) {
+            return (x >= 0 ? -x : x) + 1.0f;
+        }
+    },
+    TANH {
+        @Override
+        public float apply(float x) {
+            return (float) Math.tanh(x);
+        }
+    };
 
 
     /**
@@ -66,12 +111,24 @@ public enum ActivationFunction {
 
 
     /**
-     * Calcualate the activation function given x.
+     * Calculate the activation function given x. Each function overrides this directly so no boxing takes place.
      *
      * @param x The input.
      * @return activation(x)
      */
-    float calculate(float x) {
-        return function.apply(x);
+    public abstract float apply(float x);
+
+
+    /**
+     * Apply the activation function to a range of values in-place, i.e. values[i] = activation(values[i]) for all i in
+     * [from, to).
+     *
+     * @param values Values to be replaced by their activations.
+     * @param from   First index to calculate.
+     * @param to     One past the last index to calculate.
+     */
+    public void applyInPlace(float[] values, int from, int to) {
+        for(int i = from; i < to; ++i)
+            values[i] = apply(values[i]);
     }
 }
\ No newline at end of file
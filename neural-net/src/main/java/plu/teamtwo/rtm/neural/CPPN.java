@@ -9,6 +9,8 @@ import java.util.Queue;
 
 public class CPPN implements NeuralNetwork {
     private static final ActivationFunction DEFAULT_ACTIVATION_FUNCTION = ActivationFunction.TANH;
+    /// Number of rows which are calculated together during a compiled batch calculation.
+    private static final int BATCH_BLOCK_SIZE = 256;
 
     /// The neurons in the ANN. The neurons are stored in this order: input, output, hidden.
     private final Neuron[] neurons;
@@ -23,6 +25,23 @@ public class CPPN implements NeuralNetwork {
     /// Maximum difference between outputs before considering it to have converged.
     private final float MAX_DIFFERENCE_BETWEEN_OUTPUTS;
 
+    /// True if the network was compiled into flat arrays for calculation (only possible if it is acyclic).
+    private final boolean compiled;
+    /// Non-input neurons in topological order, this is the order they are calculated in when compiled.
+    private int[] compiledOrder;
+    /// The incoming connections of compiledOrder[i] are [compiledStart[i], compiledStart[i + 1]).
+    private int[] compiledStart;
+    /// Source neuron of each incoming connection, grouped by the neuron receiving the value.
+    private int[] compiledSources;
+    /// Weight of each incoming connection, parallel to compiledSources.
+    private float[] compiledWeights;
+    /// Activation function of each neuron, indexed the same as neurons.
+    private ActivationFunction[] compiledFunctions;
+    /// Working values of each neuron used during a compiled calculation.
+    private float[] compiledValues;
+    /// Working values of each neuron used during a compiled batch calculation, stored as [neuron][row].
+    private float[][] batchValues;
+
 
     CPPN(CPPNBuilder builder) {
         if(builder.in < 1 || builder.out < 1 || builder.hidden < 0)
@@ -70,6 +89,8 @@ public class CPPN implements NeuralNetwork {
                 //create a new input from the node it goes to pointing back to this one
                 neurons[d.connection].inputs.add(new Dendrite(i, d.weight));
         }
+
+        compiled = builder.compile && compile(discovered);
     }
 
 
@@ -82,6 +103,9 @@ public class CPPN implements NeuralNetwork {
      */
     @Override
     public float[] calculate(float... inputs) {
+        if(compiled)
+            return runCompiled(inputs);
+
         float[] output = run(inputs, false), last = null;
 
         Outer: //run until we hit max cycles or the value has stabilized
@@ -99,6 +123,29 @@ public class CPPN implements NeuralNetwork {
     }
 
 
+    /**
+     * Calculate the outputs of the neural network for many sets of inputs at once. If the network is compiled, the rows
+     * are calculated in blocks with the values of each neuron stored contiguously across the rows in the block, so each
+     * connection becomes a simple loop over the block.
+     *
+     * @param inputs  Matrix of input values, one row per set of inputs.
+     * @param outputs Matrix to store the output values in, one row per set of inputs.
+     */
+    @Override
+    public void calculateBatch(float[][] inputs, float[][] outputs) {
+        if(!compiled) {
+            NeuralNetwork.super.calculateBatch(inputs, outputs);
+            return;
+        }
+
+        if(batchValues == null)
+            batchValues = new float[neurons.length][BATCH_BLOCK_SIZE];
+
+        for(int start = 0; start < inputs.length; start += BATCH_BLOCK_SIZE)
+            runCompiledBlock(inputs, outputs, start, Math.min(inputs.length - start, BATCH_BLOCK_SIZE));
+    }
+
+
     /**
      * Steps values through the neural network by processing from the final nodes to the initial nodes. This could be
      * used with real-time applications where direct input-output pairing are not so important as temporal
@@ -168,6 +215,83 @@ public class CPPN implements NeuralNetwork {
     }
 
 
+    /**
+     * Runs the compiled form of the network on a set of inputs. Since the neurons are calculated in topological order,
+     * a single pass will compute the final value of every output and no convergence checks are needed.
+     *
+     * @param inputs Array of values to set the input neurons to.
+     * @return Array of values from the output neurons.
+     */
+    private float[] runCompiled(float[] inputs) {
+        if(inputs.length != endInput)
+            throw new InvalidParameterException("Invalid number of inputs.");
+
+        final float[] values = compiledValues;
+        for(int i = 0; i < endInput; ++i)
+            values[i] = compiledFunctions[i].apply(inputs[i]);
+
+        for(int i = 0; i < compiledOrder.length; ++i) {
+            float sum = 0.0f;
+            for(int c = compiledStart[i]; c < compiledStart[i + 1]; ++c)
+                sum += values[compiledSources[c]] * compiledWeights[c];
+
+            final int neuron = compiledOrder[i];
+            values[neuron] = compiledFunctions[neuron].apply(sum);
+        }
+
+        float[] outputs = new float[endOutput - endInput];
+        System.arraycopy(values, endInput, outputs, 0, outputs.length);
+        return outputs;
+    }
+
+
+    /**
+     * Runs the compiled form of the network on a block of rows from a batch calculation.
+     *
+     * @param inputs  Matrix of input values, one row per set of inputs.
+     * @param outputs Matrix to store the output values in, one row per set of inputs.
+     * @param start   First row of the block.
+     * @param length  Number of rows in the block, at most BATCH_BLOCK_SIZE.
+     */
+    private void runCompiledBlock(float[][] inputs, float[][] outputs, int start, int length) {
+        final float[][] values = batchValues;
+
+        //transpose the inputs so each input neuron has its values for the block next to each other
+        for(int r = 0; r < length; ++r) {
+            final float[] row = inputs[start + r];
+            if(row.length != endInput)
+                throw new InvalidParameterException("Invalid number of inputs.");
+            for(int i = 0; i < endInput; ++i)
+                values[i][r] = row[i];
+        }
+        for(int i = 0; i < endInput; ++i)
+            compiledFunctions[i].applyInPlace(values[i], 0, length);
+
+        for(int i = 0; i < compiledOrder.length; ++i) {
+            final int neuron = compiledOrder[i];
+            final float[] sums = values[neuron];
+            for(int r = 0; r < length; ++r)
+                sums[r] = 0.0f;
+
+            for(int c = compiledStart[i]; c < compiledStart[i + 1]; ++c) {
+                final float[] source = values[compiledSources[c]];
+                final float weight = compiledWeights[c];
+                for(int r = 0; r < length; ++r)
+                    sums[r] += source[r] * weight;
+            }
+
+            compiledFunctions[neuron].applyInPlace(sums, 0, length);
+        }
+
+        //transpose the outputs back into rows
+        for(int o = endInput, j = 0; o < endOutput; ++o, ++j) {
+            final float[] column = values[o];
+            for(int r = 0; r < length; ++r)
+                outputs[start + r][j] = column[r];
+        }
+    }
+
+
     /**
      * Empty the network of all stored values. This should be called between tests.
      */
@@ -243,6 +367,64 @@ public class CPPN implements NeuralNetwork {
     }
 
 
+    /**
+     * Compile the network into flat arrays which can be calculated in a single pass. This performs a topological sort
+     * (Kahn's algorithm) of the neurons which are reachable from the inputs and lays out the incoming connections of
+     * each one in that order. Must be called after the backreferences have been constructed.
+     *
+     * @param discovered Discovery times from DFS, any neuron with a value of 0 was not reachable from the inputs.
+     * @return True if the network was compiled, false if it contains a cycle and must be interpreted.
+     */
+    private boolean compile(int[] discovered) {
+        int[] remaining = new int[neurons.length];
+        int[] order = new int[neurons.length];
+        int reachable = 0, head = 0, tail = 0, connections = 0;
+
+        for(int i = 0; i < neurons.length; ++i) {
+            if(discovered[i] <= 0) continue;
+            reachable++;
+            remaining[i] = neurons[i].inputs.size();
+            connections += remaining[i];
+        }
+
+        //an input which receives values can only be calculated as a recurrent network
+        for(int i = 0; i < endInput; ++i) {
+            if(remaining[i] > 0) return false;
+            order[tail++] = i;
+        }
+
+        while(head < tail) {
+            for(Dendrite d : neurons[order[head++]].outputs)
+                if(--remaining[d.connection] == 0)
+                    order[tail++] = d.connection;
+        }
+        if(tail != reachable) return false; //there is a cycle
+
+        compiledOrder = new int[tail - endInput];
+        compiledStart = new int[compiledOrder.length + 1];
+        compiledSources = new int[connections];
+        compiledWeights = new float[connections];
+
+        for(int i = 0, c = 0; i < compiledOrder.length; ++i) {
+            final int neuron = order[endInput + i];
+            compiledOrder[i] = neuron;
+            compiledStart[i] = c;
+            for(Dendrite d : neurons[neuron].inputs) {
+                compiledSources[c] = d.connection;
+                compiledWeights[c++] = d.weight;
+            }
+            compiledStart[i + 1] = c;
+        }
+
+        compiledFunctions = new ActivationFunction[neurons.length];
+        for(int i = 0; i < neurons.length; ++i)
+            compiledFunctions[i] = neurons[i].function;
+        compiledValues = new float[neurons.length];
+
+        return true;
+    }
+
+
     /**
      * Checks if the CPPN is recurrent by performing DFS and also set the discovered and completed arrays such that they
      * can be used for topological sort. The first run of DFS should have a count of 1.
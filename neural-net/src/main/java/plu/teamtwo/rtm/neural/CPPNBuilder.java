@@ -8,6 +8,7 @@ import java.util.Map;
 public class CPPNBuilder implements NeuralNetworkBuilder {
     float maxDifferenceBetweenOutputs = 1e-4f;
     int in = -1, out = -1, hidden = -1, maxRecurrentCycles = 20;
+    boolean compile = true;
     Map<Pair<Integer, Integer>, Float> connections = new HashMap<>();
     Map<Integer, ActivationFunction> activation = new HashMap<>(); //TODO: switch to having a list of nodes
 
@@ -92,6 +93,18 @@ public class CPPNBuilder implements NeuralNetworkBuilder {
     }
 
 
+    /**
+     * Set whether the network should be compiled into flat arrays when it is acyclic. A compiled network is calculated
+     * in a single pass without allocating, recurrent networks are always interpreted.
+     *
+     * @param compile True if the network should be compiled when possible.
+     */
+    public CPPNBuilder compile(boolean compile) {
+        this.compile = compile;
+        return this;
+    }
+
+
     /**
      * Construct the network with the specified configuration.
      *
@@ -0,0 +1,18 @@
+package plu.teamtwo.rtm.neural;
+
+/**
+ * Selects how a SubstrateNetwork calculates the weighted sums of its dense layers.
+ */
+public enum CalculationBackend {
+    /// Add up each weighted sum one value at a time and in order, results are reproducible down to the last bit.
+    SCALAR,
+    /// Add up each weighted sum in VECTOR_LANES interleaved partial sums which are combined at the end. This removes the
+    ///  dependency between consecutive additions so the CPU can keep several in flight, the same way a SIMD dot product
+    ///  works, but the different order of addition can change the last bits of the result.
+    VECTOR,
+    /// Calculate on the GPU. This is not implemented yet and will fall back to SCALAR.
+    GPU;
+
+    /// Number of partial sums used by the VECTOR backend, one 256-bit vector of floats.
+    static final int VECTOR_LANES = 8;
+}
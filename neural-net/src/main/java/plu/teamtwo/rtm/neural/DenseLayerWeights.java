@@ -0,0 +1,174 @@
+package plu.teamtwo.rtm.neural;
+
+/**
+ * Layer weights where every connection is stored, used when most of the connections are expressed. The matrix is kept
+ * in a single contiguous array in row-major order with each row padded to a multiple of ROW_ALIGNMENT so that every row
+ * starts on a vector boundary.
+ */
+class DenseLayerWeights implements LayerWeights {
+    /// Number of floats each row is padded to a multiple of.
+    static final int ROW_ALIGNMENT = CalculationBackend.VECTOR_LANES;
+    /// Number of inputs processed together for all rows before moving on, sized so the block stays in L1 cache.
+    private static final int COLUMN_BLOCK = 2048;
+    /// Number of samples which share each weight row in a batch before moving on to the next row.
+    private static final int SAMPLE_BLOCK = 16;
+
+    /// Weights stored as weights[output * stride + input].
+    private final float[] weights;
+    /// Number of floats between the start of one row and the next.
+    private final int stride;
+    /// Number of nodes on the input layer.
+    private final int inputs;
+    /// Number of nodes on the output layer.
+    private final int outputs;
+    /// Add up the weighted sums in interleaved lanes instead of in order.
+    private final boolean lanes;
+
+
+    /**
+     * Create dense layer weights by copying the matrix into a contiguous array.
+     *
+     * @param weights Weight matrix stored as [output][input].
+     * @param backend How the weighted sums should be calculated.
+     */
+    DenseLayerWeights(float[][] weights, CalculationBackend backend) {
+        this.lanes = backend == CalculationBackend.VECTOR;
+        this.outputs = weights.length;
+        this.inputs = weights.length > 0 ? weights[0].length : 0;
+        this.stride = (inputs + ROW_ALIGNMENT - 1) / ROW_ALIGNMENT * ROW_ALIGNMENT;
+
+        this.weights = new float[outputs * stride];
+        for(int out = 0; out < outputs; ++out)
+            System.arraycopy(weights[out], 0, this.weights, out * stride, inputs);
+    }
+
+
+    @Override
+    public int inputs() {
+        return inputs;
+    }
+
+
+    @Override
+    public int outputs() {
+        return outputs;
+    }
+
+
+    @Override
+    public long connections() {
+        return (long) inputs * (long) outputs;
+    }
+
+
+    @Override
+    public void multiply(float[] inputs, float[] outputs, int outStart, int outEnd) {
+        if(lanes) {
+            multiplyLanes(inputs, outputs, outStart, outEnd);
+            return;
+        }
+
+        //
+        // Here lies my dignity:
+        // float sum = 0;
+        // May this stand as a reminder of many painful hours spent debugging,
+        // only to be solved months later after having set it aside, and all
+        // for a trivial mistake...
+        //
+        for(int out = outStart; out < outEnd; ++out)
+            outputs[out] = 0;
+
+        //work through the inputs a block at a time so the block is reused from cache for every row; the sums still add
+        // the inputs in order, so the result is the same as without blocking
+        for(int blockStart = 0; blockStart < this.inputs; blockStart += COLUMN_BLOCK) {
+            final int blockEnd = Math.min(blockStart + COLUMN_BLOCK, this.inputs);
+
+            for(int out = outStart; out < outEnd; ++out) {
+                final int row = out * stride;
+                float sum = outputs[out];
+                //dot(input, weights[out])
+                for(int in = blockStart; in < blockEnd; ++in)
+                    sum += inputs[in] * weights[row + in];
+
+                outputs[out] = sum;
+            }
+        }
+    }
+
+
+    @Override
+    public void multiplyBatch(float[][] inputs, float[][] outputs, int outStart, int outEnd) {
+        //keep a small group of samples in cache and run every row over them, so each row is loaded once per group
+        for(int blockStart = 0; blockStart < inputs.length; blockStart += SAMPLE_BLOCK) {
+            final int blockEnd = Math.min(blockStart + SAMPLE_BLOCK, inputs.length);
+
+            for(int out = outStart; out < outEnd; ++out) {
+                final int row = out * stride;
+                for(int n = blockStart; n < blockEnd; ++n)
+                    outputs[n][out] = lanes ? dotLanes(inputs[n], row) : dot(inputs[n], row);
+            }
+        }
+    }
+
+
+    /**
+     * Calculate the weighted sums using VECTOR_LANES independent partial sums per row. Each partial sum only depends on
+     * its own previous value, so the additions can be pipelined rather than each waiting on the last.
+     *
+     * @param inputs   Values of the input layer.
+     * @param outputs  Array to store the sums in.
+     * @param outStart First output node to compute the sum of.
+     * @param outEnd   One past the last output node to compute the sum of.
+     */
+    private void multiplyLanes(float[] inputs, float[] outputs, int outStart, int outEnd) {
+        for(int out = outStart; out < outEnd; ++out)
+            outputs[out] = dotLanes(inputs, out * stride);
+    }
+
+
+    /**
+     * Calculate the dot product of the inputs and a row, adding the inputs in order.
+     *
+     * @param inputs Values of the input layer.
+     * @param row    Index of the first weight of the row.
+     * @return Weighted sum of the inputs.
+     */
+    private float dot(float[] inputs, int row) {
+        float sum = 0;
+        for(int in = 0; in < this.inputs; ++in)
+            sum += inputs[in] * weights[row + in];
+        return sum;
+    }
+
+
+    /**
+     * Calculate the dot product of the inputs and a row using VECTOR_LANES interleaved partial sums.
+     *
+     * @param inputs Values of the input layer.
+     * @param row    Index of the first weight of the row.
+     * @return Weighted sum of the inputs.
+     */
+    private float dotLanes(float[] inputs, int row) {
+        final int vectorEnd = this.inputs - this.inputs % CalculationBackend.VECTOR_LANES;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, s5 = 0, s6 = 0, s7 = 0;
+
+        int in = 0;
+        for(; in < vectorEnd; in += CalculationBackend.VECTOR_LANES) {
+            final int w = row + in;
+            s0 += inputs[in]     * weights[w];
+            s1 += inputs[in + 1] * weights[w + 1];
+            s2 += inputs[in + 2] * weights[w + 2];
+            s3 += inputs[in + 3] * weights[w + 3];
+            s4 += inputs[in + 4] * weights[w + 4];
+            s5 += inputs[in + 5] * weights[w + 5];
+            s6 += inputs[in + 6] * weights[w + 6];
+            s7 += inputs[in + 7] * weights[w + 7];
+        }
+
+        //remaining inputs which do not fill a whole vector
+        for(; in < this.inputs; ++in)
+            s0 += inputs[in] * weights[row + in];
+
+        return ((s0 + s1) + (s2 + s3)) + ((s4 + s5) + (s6 + s7));
+    }
+}
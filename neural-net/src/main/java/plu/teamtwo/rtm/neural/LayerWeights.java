@@ -0,0 +1,72 @@
+package plu.teamtwo.rtm.neural;
+
+/**
+ * The weights of the connections from one layer of a substrate network to the next, logically a matrix stored as
+ * [output][input]. Depending on how many of the connections are expressed, the matrix is either stored densely or in
+ * compressed sparse row form.
+ */
+interface LayerWeights {
+    /**
+     * Create the weights for a layer transition, choosing the representation by how many of the weights are non-zero.
+     *
+     * @param weights       Weight matrix stored as [output][input].
+     * @param sparseDensity Use a sparse representation if the fraction of non-zero weights is below this.
+     * @param backend       How dense weighted sums should be calculated.
+     * @return The weights in the representation best suited for them.
+     */
+    static LayerWeights create(float[][] weights, float sparseDensity, CalculationBackend backend) {
+        int nonZero = 0, total = 0;
+        for(float[] row : weights) {
+            total += row.length;
+            for(float w : row)
+                if(w != 0.0f) nonZero++;
+        }
+
+        if(total > 0 && (float) nonZero / (float) total < sparseDensity)
+            return new SparseLayerWeights(weights, nonZero);
+        return new DenseLayerWeights(weights, backend);
+    }
+
+
+    /**
+     * @return Number of nodes on the input layer of the transition.
+     */
+    int inputs();
+
+
+    /**
+     * @return Number of nodes on the output layer of the transition.
+     */
+    int outputs();
+
+
+    /**
+     * @return Number of connections which are calculated, i.e. the number of multiply-adds to calculate every output.
+     */
+    long connections();
+
+
+    /**
+     * Calculate the weighted sum of the inputs for each output node in [outStart, outEnd), i.e.
+     * outputs[out] = dot(inputs, weights[out]).
+     *
+     * @param inputs   Values of the input layer.
+     * @param outputs  Array to store the sums in.
+     * @param outStart First output node to compute the sum of.
+     * @param outEnd   One past the last output node to compute the sum of.
+     */
+    void multiply(float[] inputs, float[] outputs, int outStart, int outEnd);
+
+
+    /**
+     * Calculate the weighted sums for each output node in [outStart, outEnd) for several sets of inputs at once, i.e.
+     * outputs[n][out] = dot(inputs[n], weights[out]) for every n. Each weight row is read once for a group of samples
+     * rather than once per sample. The sums are the same as calling multiply on each sample.
+     *
+     * @param inputs   Values of the input layer, one row per sample.
+     * @param outputs  Matrix to store the sums in, one row per sample.
+     * @param outStart First output node to compute the sum of.
+     * @param outEnd   One past the last output node to compute the sum of.
+     */
+    void multiplyBatch(float[][] inputs, float[][] outputs, int outStart, int outEnd);
+}
@@ -10,6 +10,9 @@ package plu.teamtwo.rtm.neural;
  * [endInput, endOutput) will be the output nodes, and [endOutput, neurons.length) will be the hidden nodes.
  * Finally call validate() which will finalize the structure, enabling it to be calculated.
  * <p>
+ * Networks keep the values of their neurons and reuse buffers between calls, so a network must not be calculated,
+ * stepped or flushed from two threads at once. To evaluate the same genome on several threads, build a network for
+ * each thread.
  */
 public interface NeuralNetwork {
 
@@ -22,6 +25,39 @@ public interface NeuralNetwork {
      */
     float[] calculate(float... inputs);
 
+    /**
+     * Calculate the outputs of the neural network for many sets of inputs at once. Each row is calculated independently
+     * as if flush had been called before it, and the results are written into the matching row of outputs. The input
+     * matrix is N x inputs() and the output matrix must be at least N x outputs().
+     * <p>
+     * Implementations which can evaluate the rows together should override this, by default it calls calculate for
+     * each row.
+     *
+     * @param inputs  Matrix of input values, one row per set of inputs.
+     * @param outputs Matrix to store the output values in, one row per set of inputs.
+     */
+    default void calculateBatch(float[][] inputs, float[][] outputs) {
+        for(int i = 0; i < inputs.length; ++i) {
+            flush();
+            final float[] result = calculate(inputs[i]);
+            System.arraycopy(result, 0, outputs[i], 0, result.length);
+        }
+    }
+
+
+    /**
+     * Calculate the outputs of the neural network for many sets of inputs at once, see calculateBatch(inputs, outputs).
+     *
+     * @param inputs Matrix of input values, one row per set of inputs.
+     * @return Matrix of output values, one row per set of inputs.
+     */
+    default float[][] calculateBatch(float[][] inputs) {
+        float[][] outputs = new float[inputs.length][outputs()];
+        calculateBatch(inputs, outputs);
+        return outputs;
+    }
+
+
     /**
      * Steps values through the neural network by processing from the final nodes to the initial nodes. This could be
      * used with real-time applications where direct input-output pairing are not so important as temporal
@@ -26,6 +26,21 @@ public class NeuralNetworkComposition extends Pair<NeuralNetwork, NeuralNetwork>
     }
 
 
+    /**
+     * Calculate the outputs of the neural network for many sets of inputs at once by passing the whole batch through
+     * each network in turn.
+     *
+     * @param inputs  Matrix of input values, one row per set of inputs.
+     * @param outputs Matrix to store the output values in, one row per set of inputs.
+     */
+    @Override
+    public void calculateBatch(float[][] inputs, float[][] outputs) {
+        float[][] intermediate = new float[inputs.length][a.outputs()];
+        a.calculateBatch(inputs, intermediate);
+        b.calculateBatch(intermediate, outputs);
+    }
+
+
     /**
      * Steps values through the neural network by processing from the final nodes to the initial nodes. This could be
      * used with real-time applications where direct input-output pairing are not so important as temporal
@@ -41,7 +41,7 @@ class Neuron {
      * @return The calculated value.
      */
     float calculate() {
-        output = function.calculate(input);
+        output = function.apply(input);
         input = 0.0f;
         return output;
     }
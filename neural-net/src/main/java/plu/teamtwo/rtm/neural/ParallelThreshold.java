@@ -0,0 +1,72 @@
+package plu.teamtwo.rtm.neural;
+
+import plu.teamtwo.rtm.core.async.GlobalThreadPool;
+
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The number of weighted connections a layer must have before it is worth splitting across threads. This is calibrated
+ * once, the first time it is needed, by timing how long it takes to hand a task to the thread pool and how long a
+ * multiply-add takes on this machine.
+ */
+final class ParallelThreshold {
+    /// Splitting a layer should cost at most 1/SPLIT_OVERHEAD_FACTOR of the time to calculate it.
+    private static final int SPLIT_OVERHEAD_FACTOR = 8;
+    /// Bounds on the calibrated value in case the timing is thrown off.
+    private static final long MIN_CONNECTIONS = 1 << 12, MAX_CONNECTIONS = 1 << 22;
+    /// Size of the matrix used to time multiply-adds.
+    private static final int CALIBRATION_SIZE = 128;
+    /// Number of times each measurement is repeated, the fastest one is used.
+    private static final int CALIBRATION_ROUNDS = 200;
+
+
+    private ParallelThreshold() {}
+
+
+    /**
+     * Get the number of connections a layer must have before it should be calculated on multiple threads.
+     *
+     * @return Minimum number of connections to split a layer.
+     */
+    static long connections() {
+        return Holder.CONNECTIONS;
+    }
+
+
+    /**
+     * Lazily calculated so calibration only happens if a substrate network is actually used.
+     */
+    private static class Holder {
+        static final long CONNECTIONS = calibrate();
+    }
+
+
+    /**
+     * Measure the cost of splitting work across the pool relative to the cost of a multiply-add.
+     *
+     * @return Minimum number of connections to split a layer.
+     */
+    private static long calibrate() {
+        float[][] matrix = new float[CALIBRATION_SIZE][CALIBRATION_SIZE];
+        for(int o = 0; o < CALIBRATION_SIZE; ++o)
+            for(int i = 0; i < CALIBRATION_SIZE; ++i)
+                matrix[o][i] = (float) ((o * 31 + i * 17) % 13) / 13.0f;
+        LayerWeights weights = new DenseLayerWeights(matrix, CalculationBackend.SCALAR);
+        float[] inputs = matrix[1], outputs = new float[CALIBRATION_SIZE];
+
+        long multiply = Long.MAX_VALUE, split = Long.MAX_VALUE;
+        for(int round = 0; round < CALIBRATION_ROUNDS; ++round) {
+            long start = System.nanoTime();
+            weights.multiply(inputs, outputs, 0, CALIBRATION_SIZE);
+            multiply = Math.min(multiply, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            GlobalThreadPool.invokeAll(ForkJoinTask.adapt(() -> {}), ForkJoinTask.adapt(() -> {}));
+            split = Math.min(split, System.nanoTime() - start);
+        }
+
+        final double perConnection = Math.max((double) multiply / (CALIBRATION_SIZE * CALIBRATION_SIZE), 1e-3);
+        final long connections = (long) (split * SPLIT_OVERHEAD_FACTOR / perConnection);
+        return Math.min(Math.max(connections, MIN_CONNECTIONS), MAX_CONNECTIONS);
+    }
+}
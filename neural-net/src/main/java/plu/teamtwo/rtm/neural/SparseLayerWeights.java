@@ -0,0 +1,88 @@
+package plu.teamtwo.rtm.neural;
+
+/**
+ * Layer weights stored in compressed sparse row (CSR) form. Only the expressed (non-zero) connections are kept, so
+ * memory and calculation time scale with the number of expressed connections rather than the size of the layers.
+ */
+class SparseLayerWeights implements LayerWeights {
+    /// The connections into output node i are [rowStart[i], rowStart[i + 1]).
+    private final int[] rowStart;
+    /// Input node of each connection.
+    private final int[] columns;
+    /// Weight of each connection, parallel to columns.
+    private final float[] values;
+    /// Number of nodes on the input layer.
+    private final int inputs;
+
+
+    /**
+     * Create sparse layer weights from a dense matrix.
+     *
+     * @param weights Weight matrix stored as [output][input].
+     * @param nonZero Number of non-zero values in the matrix.
+     */
+    SparseLayerWeights(float[][] weights, int nonZero) {
+        inputs = weights.length > 0 ? weights[0].length : 0;
+        rowStart = new int[weights.length + 1];
+        columns = new int[nonZero];
+        values = new float[nonZero];
+
+        int c = 0;
+        for(int out = 0; out < weights.length; ++out) {
+            rowStart[out] = c;
+            final float[] row = weights[out];
+            for(int in = 0; in < row.length; ++in) {
+                if(row[in] == 0.0f) continue;
+                columns[c] = in;
+                values[c++] = row[in];
+            }
+        }
+        rowStart[weights.length] = c;
+    }
+
+
+    @Override
+    public int inputs() {
+        return inputs;
+    }
+
+
+    @Override
+    public int outputs() {
+        return rowStart.length - 1;
+    }
+
+
+    @Override
+    public long connections() {
+        return values.length;
+    }
+
+
+    @Override
+    public void multiply(float[] inputs, float[] outputs, int outStart, int outEnd) {
+        for(int out = outStart; out < outEnd; ++out) {
+            float sum = 0;
+            for(int c = rowStart[out]; c < rowStart[out + 1]; ++c)
+                sum += inputs[columns[c]] * values[c];
+
+            outputs[out] = sum;
+        }
+    }
+
+
+    @Override
+    public void multiplyBatch(float[][] inputs, float[][] outputs, int outStart, int outEnd) {
+        for(int out = outStart; out < outEnd; ++out) {
+            final int start = rowStart[out], end = rowStart[out + 1];
+            for(int n = 0; n < inputs.length; ++n) {
+                final float[] sample = inputs[n];
+                float sum = 0;
+                for(int c = start; c < end; ++c)
+                    sum += sample[columns[c]] * values[c];
+
+                outputs[n][out] = sum;
+            }
+        }
+    }
+}
@@ -3,29 +3,37 @@ package plu.teamtwo.rtm.neural;
 import plu.teamtwo.rtm.core.async.GlobalThreadPool;
 
 import java.security.InvalidParameterException;
-import java.util.LinkedList;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Represents a substrate network which has only a few outputs at definable coordinates.
+ * <p>
+ * Small layers are calculated on the calling thread, while layers with enough connections to be worth it are split
+ * into a fixed set of row ranges which are calculated on the CPU pool. The tasks and buffers are created once
+ * with the network, so as with any NeuralNetwork it must not be calculated from multiple threads at once.
  */
 public class SubstrateNetwork implements NeuralNetwork {
-    /// Target number of jobs for output calculations to be broken into.
-    private static final int TARGET_CPU_JOBS = Runtime.getRuntime().availableProcessors() * 2;
 
     /// Defines the dimensions of each layer, e.g. d[0] = [2, 3] would define an input of 2 by 3 (output is final layer)
     ///  this also defines the mapping of the input arrays to the first substrate and so on.
     private final int[][] layers;
 
     /// Defines weights between substrates (e.g. weights[0] defines a weight matrix between input and next substrate).
-    ///  Stored as weights[layer][output][input]
-    private final float[][][] weights;
+    ///  Each is stored densely or sparsely depending on how many of the connections are expressed.
+    private final LayerWeights[] weights;
 
     /// Product of each layer's dimensions
     private final transient int[] layerSizes;
 
+    /// Values of each layer during a calculation, values[0] is set to the inputs for each call.
+    private final transient float[][] values;
+    /// Tasks which split each layer transition across threads, null for transitions calculated on the calling thread.
+    private final transient RowTask[][] tasks;
+    /// Task which calculates every layer on the CPU pool, so it is handed over once per calculation. Null if no layer
+    ///  is split, in which case everything is calculated on the calling thread.
+    private final transient LayersTask layersTask;
+
     /// Activation function used to process inputs with before calculating.
     private final ActivationFunction inputFunction;
     /// Activation function to use for output nodes.
@@ -33,7 +41,8 @@ public class SubstrateNetwork implements NeuralNetwork {
     /// Activation function to use for hidden nodes on the substrate.
     private final ActivationFunction hiddenFunction;
 
-    private final boolean useGPU;
+    /// How the weighted sums of dense layers are calculated.
+    private final CalculationBackend backend;
 
 
     /**
@@ -41,27 +50,76 @@ public class SubstrateNetwork implements NeuralNetwork {
      */
     SubstrateNetwork(SubstrateNetworkBuilder builder) {
         layers = builder.layers;
-        weights = builder.weights;
 
         inputFunction = builder.inputFunction;
         outputFunction = builder.outputFunction;
         hiddenFunction = builder.hiddenFunction;
-        useGPU = builder.useGPU;
+        backend = builder.backend == CalculationBackend.GPU ? CalculationBackend.SCALAR : builder.backend;
 
         if(layers.length < 2)
             throw new InvalidParameterException("Must at minimum have an input and output layer.");
-        if(weights.length != layers.length - 1)
+        if(builder.weights.length != layers.length - 1)
             throw new InvalidParameterException("Invalid number of weights for the layers.");
 
         layerSizes = calculateLayerSizes(layers);
+        weights = new LayerWeights[builder.weights.length];
 
         for(int layer = 0; layer < weights.length; ++layer) {
-            if(weights[layer].length != layerSizes[layer + 1])
+            final float[][] layerWeights = builder.weights[layer];
+            if(layerWeights.length != layerSizes[layer + 1])
                 throw new InvalidParameterException("Weights must have exactly 1 value for every input and output combination between layers.");
-            for(int out = 0; out < weights[layer].length; ++out)
-                if(weights[layer][out].length != layerSizes[layer])
+            for(int out = 0; out < layerWeights.length; ++out)
+                if(layerWeights[out].length != layerSizes[layer])
                     throw new InvalidParameterException("Weights must have exactly 1 value for every input and output combination between layers.");
+
+            weights[layer] = LayerWeights.create(layerWeights, builder.sparseDensity, backend);
+        }
+
+        values = new float[layers.length][];
+        for(int layer = 1; layer < layers.length; ++layer)
+            values[layer] = new float[layerSizes[layer]];
+
+        tasks = new RowTask[weights.length][];
+        boolean split = false;
+        for(int layer = 0; layer < weights.length; ++layer) {
+            tasks[layer] = createTasks(layer);
+            split |= tasks[layer] != null;
         }
+        layersTask = split ? new LayersTask() : null;
+    }
+
+
+    /**
+     * Split a layer transition into row ranges if it has enough connections to make calculating it on multiple threads
+     * faster than calculating it on one.
+     *
+     * @param layer The input layer of the transition.
+     * @return The tasks which together calculate every output, or null if it should be calculated on the caller.
+     */
+    private RowTask[] createTasks(int layer) {
+        final int parallelism = GlobalThreadPool.parallelism();
+        if(parallelism <= 1) return null; //nothing to split across
+        final long connections = weights[layer].connections();
+        final long threshold = ParallelThreshold.connections();
+        if(connections < threshold) return null;
+
+        final int rows = layerSizes[layer + 1];
+        final int splits = (int) Math.min(Math.min(connections / threshold, parallelism), rows);
+        if(splits < 2) return null;
+
+        RowTask[] layerTasks = new RowTask[splits];
+        for(int i = 0; i < splits; ++i)
+            layerTasks[i] = new RowTask(layer, rows * i / splits, rows * (i + 1) / splits);
+        return layerTasks;
+    }
+
+
+    /**
+     * @param layer The input layer of the transition.
+     * @return Number of parts the transition is split into, 1 if it is calculated on the calling thread.
+     */
+    int splits(int layer) {
+        return tasks[layer] == null ? 1 : tasks[layer].length;
     }
 
 
@@ -108,12 +166,56 @@ public class SubstrateNetwork implements NeuralNetwork {
         if(inputs.length != layerSizes[0])
             throw new InvalidParameterException("Invalid number of inputs.");
 
-//        if(useGPU)
+//        if(backend == CalculationBackend.GPU)
 //            return gpuCalculate(inputs);
         return cpuCalculate(inputs);
     }
 
 
+    /**
+     * Calculate the outputs of the substrate for many sets of inputs at once. Rather than running each sample through
+     * the whole network, each layer is calculated for every sample before moving on so every weight row is read once
+     * per group of samples instead of once per sample. The inputs are not modified.
+     *
+     * @param inputs  Matrix of input values, one row per set of inputs.
+     * @param outputs Matrix to store the output values in, one row per set of inputs.
+     */
+    @Override
+    public void calculateBatch(float[][] inputs, float[][] outputs) {
+        if(outputs.length < inputs.length)
+            throw new InvalidParameterException("Must have an output row for every row of inputs.");
+
+        float[][] current = new float[inputs.length][];
+        for(int n = 0; n < inputs.length; ++n) {
+            if(inputs[n].length != layerSizes[0])
+                throw new InvalidParameterException("Invalid number of inputs.");
+            current[n] = inputs[n].clone();
+            inputFunction.applyInPlace(current[n], 0, current[n].length);
+        }
+
+        for(int layer = 0; layer < (layers.length - 1); ++layer) {
+            final int size = layerSizes[layer + 1];
+            final float[][] next = (layer == layers.length - 2) ? outputs : new float[inputs.length][size];
+            final float[][] in = current;
+
+            final RowTask[] layerTasks = tasks[layer];
+            if(layerTasks == null) {
+                calculateBatchRows(layer, in, next, 0, size);
+            } else {
+                //the batch is already allocating its layers, so these tasks need not be reused
+                ForkJoinTask<?>[] batchTasks = new ForkJoinTask<?>[layerTasks.length];
+                for(int i = 0; i < layerTasks.length; ++i) {
+                    final RowTask task = layerTasks[i];
+                    batchTasks[i] = ForkJoinTask.adapt(() -> calculateBatchRows(task.layer, in, next, task.outStart, task.outEnd));
+                }
+                GlobalThreadPool.invokeAll(batchTasks);
+            }
+
+            current = next;
+        }
+    }
+
+
     /**
      * Steps values through the neural network by processing from the final nodes to the initial nodes. This could be
      * used with real-time applications where direct input-output pairing are not so important as temporal
@@ -174,94 +276,115 @@ public class SubstrateNetwork implements NeuralNetwork {
 
 
     private float[] cpuCalculate(float[] inputs) {
-        if(inputFunction != ActivationFunction.LINEAR)
-            //would do same thing without if statement, except it would take longer
-            for(int i = 0; i < inputs.length; ++i)
-                inputs[i] = inputFunction.calculate(inputs[i]);
+        inputFunction.applyInPlace(inputs, 0, inputs.length);
+        values[0] = inputs;
+
+        if(layersTask == null) {
+            calculateLayers();
+        } else {
+            layersTask.reinitialize();
+            GlobalThreadPool.invoke(layersTask);
+        }
 
-        ExecutorService threadPool = GlobalThreadPool.instance();
-        LinkedList<Future<?>> futures = new LinkedList<>();
+        values[0] = null; //do not hold onto the caller's array
+        return values[values.length - 1].clone();
+    }
 
-        float[] last = inputs;
-        float[] outputs = null;
 
+    /**
+     * Calculate every layer from the values of the input layer. Layers which are split are forked from the current
+     * thread, so this must run on the CPU pool if any are.
+     */
+    private void calculateLayers() {
         //for each layer, calculate the value of the next one given the inputs and weights of the inputs
         // layer is the current input; don't run last layer, it is output
         for(int layer = 0; layer < (layers.length - 1); ++layer) {
-            final float[][] layerWeights = weights[layer];
-            final int outputSize = layerSizes[layer + 1];
-            final int JOB_SIZE = (outputSize / TARGET_CPU_JOBS) + 1;
-            outputs = new float[outputSize];
-
-            //for all the outputs, calculate the value based on all inputs and associated weights
-            for(int out = 0; out < layerSizes[layer + 1]; out += JOB_SIZE) {
-                futures.add(threadPool.submit(new Calculator(out, out + JOB_SIZE, layer, last, outputs, layerWeights)));
+            final RowTask[] layerTasks = tasks[layer];
+            if(layerTasks == null) {
+                calculateRows(layer, 0, layerSizes[layer + 1]);
+                continue;
             }
-            //new Calculator(0, layerSizes[layer + 1], layer, last, outputs, layerWeights).run();
 
-            //Wait for all calculations to complete
-            while(!futures.isEmpty()) try {
-                futures.poll().get();
-            } catch(InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
-
-            last = outputs;
+            for(RowTask task : layerTasks)
+                task.reinitialize();
+            ForkJoinTask.invokeAll(layerTasks);
         }
+    }
+
 
-        return outputs;
+    /**
+     * Compute the values of output nodes [outStart, outEnd) of a layer transition.
+     *
+     * @param layer    The input layer of the transition.
+     * @param outStart First output node to compute the value of.
+     * @param outEnd   One past the last output node to compute the value of.
+     */
+    private void calculateRows(int layer, int outStart, int outEnd) {
+        final float[] outputs = values[layer + 1];
+        weights[layer].multiply(values[layer], outputs, outStart, outEnd);
+
+        final ActivationFunction fn = (layer == layers.length - 2) ? outputFunction : hiddenFunction;
+        fn.applyInPlace(outputs, outStart, outEnd);
     }
 
 
     /**
-     * Calculator class used to compute output node values on the substrate.
+     * Compute the values of output nodes [outStart, outEnd) of a layer transition for every sample in a batch.
+     *
+     * @param layer    The input layer of the transition.
+     * @param inputs   Values of the input layer, one row per sample.
+     * @param outputs  Values of the output layer, one row per sample.
+     * @param outStart First output node to compute the value of.
+     * @param outEnd   One past the last output node to compute the value of.
      */
-    private class Calculator implements Runnable {
-        private int outStart, outEnd, layer;
-        private float[] inputs, outputs;
-        private float[][] weights;
+    private void calculateBatchRows(int layer, float[][] inputs, float[][] outputs, int outStart, int outEnd) {
+        weights[layer].multiplyBatch(inputs, outputs, outStart, outEnd);
+
+        final ActivationFunction fn = (layer == layers.length - 2) ? outputFunction : hiddenFunction;
+        for(int n = 0; n < inputs.length; ++n)
+            fn.applyInPlace(outputs[n], outStart, outEnd);
+    }
+
+
+    /**
+     * Task used to compute a fixed range of output node values on the substrate. These are created once per network and
+     * reinitialized for every calculation.
+     */
+    @SuppressWarnings("serial")
+    private class RowTask extends RecursiveAction {
+        private final int layer, outStart, outEnd;
 
 
         /**
-         * Creates a calculator which will compute output values [outStart, outEnd). Will do bounds checking on outEnd.
+         * Creates a task which will compute output values [outStart, outEnd).
          *
+         * @param layer    The input layer of the transition.
          * @param outStart First output node to compute the value of.
-         * @param outEnd   Last output node to compute the value of.
-         * @param layer    Current layer.
-         * @param inputs   Input vector.
-         * @param outputs  Output vector.
-         * @param weights  Weight matrix.
+         * @param outEnd   One past the last output node to compute the value of.
          */
-        Calculator(int outStart, int outEnd, int layer, float[] inputs, float[] outputs, float[][] weights) {
+        RowTask(int layer, int outStart, int outEnd) {
+            this.layer = layer;
             this.outStart = outStart;
             this.outEnd = outEnd;
-            this.layer = layer;
-            this.inputs = inputs;
-            this.outputs = outputs;
-            this.weights = weights;
         }
 
 
         @Override
-        public void run() {
-            outEnd = Math.min(outputs.length, outEnd);
-            //
-            // Here lies my dignity:
-            // float sum = 0;
-            // May this stand as a reminder of many painful hours spent debugging,
-            // only to be solved months later after having set it aside, and all
-            // for a trivial mistake...
-            //
-            for(int out = outStart; out < outEnd; ++out) {
-                float sum = 0;
-                //dot(input, weights[layer][out])
-                for(int in = 0; in < layerSizes[layer]; ++in)
-                    sum += inputs[in] * weights[out][in];
-
-                outputs[out] = (layer == layers.length - 2) ?
-                                       outputFunction.calculate(sum) :
-                                       hiddenFunction.calculate(sum);
-            }
+        protected void compute() {
+            calculateRows(layer, outStart, outEnd);
+        }
+    }
+
+
+    /**
+     * Task used to calculate every layer on the CPU pool. This is created once per network and reinitialized for every
+     * calculation.
+     */
+    @SuppressWarnings("serial")
+    private class LayersTask extends RecursiveAction {
+        @Override
+        protected void compute() {
+            calculateLayers();
         }
     }
 
@@ -16,7 +16,11 @@ public class SubstrateNetworkBuilder implements NeuralNetworkBuilder {
     /// Activation function to use for hidden nodes on the substrate.
     ActivationFunction hiddenFunction = ActivationFunction.SIGMOID;
 
-    boolean useGPU = false;
+    /// Layer transitions with a smaller fraction of non-zero weights than this are stored sparsely.
+    float sparseDensity = 0.25f;
+
+    /// How the weighted sums of dense layers are calculated.
+    CalculationBackend backend = CalculationBackend.SCALAR;
 
 
     /**
@@ -87,11 +91,35 @@ public class SubstrateNetworkBuilder implements NeuralNetworkBuilder {
 
 
     /**
-     * Use the GPU to speed up calculation of the substrate network.
-     * @return
+     * Set the density below which the weights between two layers are stored sparsely. Sparse weights only store and
+     * calculate the non-zero connections, which is faster when few of the connections are expressed. Use 0 to always
+     * store the weights densely or 1 to store them sparsely unless every connection is expressed.
+     *
+     * @param density Fraction of non-zero weights below which a sparse representation is used.
      */
-    public SubstrateNetworkBuilder useGPU() {
-        this.useGPU = true;
+    public SubstrateNetworkBuilder sparseDensity(float density) {
+        this.sparseDensity = density;
+        return this;
+    }
+
+
+    /**
+     * Select how the network calculates the weighted sums of its dense layers. SCALAR gives reproducible results,
+     * VECTOR is faster on large layers at the cost of differences in the last bits of the sums.
+     *
+     * @param backend The backend to calculate with.
+     */
+    public SubstrateNetworkBuilder backend(CalculationBackend backend) {
+        this.backend = backend;
         return this;
     }
+
+
+    /**
+     * Use the GPU to speed up calculation of the substrate network. This is the same as backend(GPU), which is not
+     * implemented yet and falls back to the SCALAR backend.
+     */
+    public SubstrateNetworkBuilder useGPU() {
+        return backend(CalculationBackend.GPU);
+    }
 }
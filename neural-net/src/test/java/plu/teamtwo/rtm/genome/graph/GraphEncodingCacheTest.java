@@ -8,7 +8,7 @@ import static org.junit.Assert.assertTrue;
 public class GraphEncodingCacheTest {
     @Test
     public void testGetNextID() {
-        GraphEncodingCache cache = new GraphEncodingCache();
+        GraphEncodingCache cache = new GraphEncodingCache(false);
         for(int x = 0; x < 100; ++x) {
             assertEquals(x, cache.nextNodeID());
             assertEquals(x, cache.nextEdgeID());
@@ -18,7 +18,7 @@ public class GraphEncodingCacheTest {
 
     @Test
     public void testMutatedNodes() {
-        GraphEncodingCache cache = new GraphEncodingCache();
+        GraphEncodingCache cache = new GraphEncodingCache(false);
         assertEquals(null, cache.getMutatedNode(0));
         cache.addMutatedNode(4, 1, 2, 0);
         int[] info = cache.getMutatedNode(0);
@@ -35,7 +35,7 @@ public class GraphEncodingCacheTest {
 
     @Test
     public void testMutatedEdges() {
-        GraphEncodingCache cache = new GraphEncodingCache();
+        GraphEncodingCache cache = new GraphEncodingCache(false);
         for(int x = 0; x < 10; ++x)
             for(int y = 0; y < 10; ++y)
                 assertEquals(-1, cache.getMutatedEdge(x, y));
@@ -0,0 +1,229 @@
+package plu.teamtwo.rtm.genome.graph;
+
+import org.junit.Test;
+import plu.teamtwo.rtm.core.util.Rand;
+import plu.teamtwo.rtm.genome.CheckpointInput;
+import plu.teamtwo.rtm.genome.CheckpointOutput;
+import plu.teamtwo.rtm.neural.ActivationFunction;
+import plu.teamtwo.rtm.neural.NeuralNetwork;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static plu.teamtwo.rtm.core.util.Rand.seedRandom;
+
+public class GraphEncodingTest {
+    @Test
+    public void testGenesStaySorted() {
+        EdgeGenes edges = new EdgeGenes(1);
+        int[] ids = {5, 2, 9, 0, 7, 3};
+        for(int id : ids)
+            edges.add(id, id + 1, id + 2, id * 0.5f, id % 2 == 0);
+
+        assertEquals(ids.length, edges.size());
+        for(int i = 1; i < edges.size(); ++i)
+            assertTrue(edges.id(i - 1) < edges.id(i));
+
+        final int index = edges.indexOf(7);
+        assertEquals(8, edges.from(index));
+        assertEquals(9, edges.to(index));
+        assertEquals(3.5f, edges.weight(index), 0.0f);
+        assertEquals(false, edges.enabled(index));
+        assertTrue(edges.indexOf(4) < 0);
+
+        NodeGenes nodes = new NodeGenes(0);
+        nodes.add(3, NodeType.HIDDEN, ActivationFunction.TANH);
+        nodes.add(1, NodeType.INPUT, ActivationFunction.LINEAR);
+        assertEquals(1, nodes.id(0));
+        assertEquals(NodeType.HIDDEN, nodes.type(nodes.indexOf(3)));
+    }
+
+
+    @Test
+    public void testDuplicateIsIndependent() {
+        seedRandom(17);
+        GraphEncodingCache cache = new GraphEncodingCache(false);
+        GraphEncoding genome = (GraphEncoding) new GraphEncodingBuilder().inputs(3).outputs(2).create(cache);
+        GraphEncoding copy = genome.duplicate();
+
+        assertEquals(0.0f, genome.compatibilityDistance(copy), 0.0f);
+        for(int m = 0; m < 20; ++m)
+            copy.mutate(cache);
+        assertTrue(genome.compatibilityDistance(copy) > 0.0f);
+        assertEquals(0.0f, genome.compatibilityDistance(genome.duplicate()), 0.0f);
+    }
+
+
+    @Test
+    public void testCrossWithSelf() {
+        seedRandom(23);
+        GraphEncodingCache cache = new GraphEncodingCache(false);
+        GraphEncoding genome = (GraphEncoding) new GraphEncodingBuilder().inputs(3).outputs(2).create(cache);
+        for(int m = 0; m < 50; ++m)
+            genome.mutate(cache);
+
+        GraphEncoding child = genome.crossMultipoint(cache, 1.0f, genome.duplicate(), 1.0f, true);
+        assertEquals(0.0f, genome.compatibilityDistance(child), 0.0f);
+
+        NeuralNetwork parentNet = genome.constructNeuralNetwork();
+        NeuralNetwork childNet = child.constructNeuralNetwork();
+        assertEquals(parentNet.outputs(), childNet.outputs());
+    }
+
+
+    @Test
+    public void testDistanceCountsExcessAndDisjoint() {
+        GraphEncodingCache cache = new GraphEncodingCache(false);
+        GraphEncodingBuilder builder = new GraphEncodingBuilder().inputs(2).outputs(1).emptyInit();
+        GraphEncoding a = (GraphEncoding) builder.connect(0, 2, 1.0f).connect(1, 2, 1.0f).create(cache);
+        GraphEncoding b = (GraphEncoding) new GraphEncodingBuilder().inputs(2).outputs(1).emptyInit()
+                .connect(0, 2, 2.0f).create(new GraphEncodingCache(false));
+
+        // one matching edge with a weight difference of 1 and one excess edge out of two
+        assertEquals(0.4f + 0.5f, GraphEncoding.compatibilityDistance(a, b), 1e-6f);
+        assertEquals(GraphEncoding.compatibilityDistance(a, b), GraphEncoding.compatibilityDistance(b, a), 0.0f);
+    }
+
+
+    @Test
+    public void testMutateWithoutEdges() {
+        seedRandom(31);
+        GraphEncodingCache cache = new GraphEncodingCache(false);
+        GraphEncoding genome = (GraphEncoding) new GraphEncodingBuilder().inputs(2).outputs(2).emptyInit()
+                .randomActivations().create(cache);
+
+        //node and toggle mutations need an edge to pick, they should do nothing until one is added
+        for(int m = 0; m < 200; ++m)
+            genome.mutate(cache);
+        assertEquals(2, genome.constructNeuralNetwork().outputs());
+    }
+
+
+    @Test
+    public void testConnectionIndex() {
+        ConnectionIndex index = new ConnectionIndex(0);
+        for(int from = 0; from < 40; ++from)
+            for(int to = 0; to < 40; ++to)
+                index.put(from, to, from * 40 + to);
+
+        assertEquals(1600, index.size());
+        for(int from = 0; from < 40; ++from)
+            for(int to = 0; to < 40; ++to)
+                assertEquals(from * 40 + to, index.get(from, to));
+        assertEquals(-1, index.get(40, 0));
+        assertEquals(-1, index.get(0, -1));
+
+        EdgeGenes edges = new EdgeGenes(4);
+        edges.add(3, 1, 2, 1.0f, true);
+        assertEquals(3, edges.find(1, 2));
+        edges.add(8, 2, 1, 1.0f, true); //added after the index was built
+        EdgeGenes copy = new EdgeGenes(edges);
+        copy.add(9, 5, 5, 1.0f, true);
+        assertEquals(8, copy.find(2, 1));
+        assertEquals(9, copy.find(5, 5));
+        assertEquals(-1, edges.find(5, 5));
+    }
+
+
+    @Test
+    public void testTopologicalOrderFindsCycles() {
+        final int n = 12;
+        NodeGenes nodes = new NodeGenes(n);
+        for(int i = 0; i < n; ++i)
+            nodes.add(i * 3, NodeType.HIDDEN, ActivationFunction.TANH);
+        TopologicalOrder order = new TopologicalOrder(nodes, new EdgeGenes(0));
+        boolean[][] reaches = new boolean[n][n]; //transitive closure to check against
+
+        java.util.Random random = new java.util.Random(5);
+        for(int x = 0; x < 300; ++x) {
+            final int a = random.nextInt(n), b = random.nextInt(n);
+            final boolean cycle = a == b || reaches[b][a];
+            assertEquals(cycle, order.createsCycle(a * 3, b * 3));
+            if(cycle) continue;
+
+            order.addEdge(a * 3, b * 3);
+            for(int i = 0; i < n; ++i)
+                if(i == a || reaches[i][a])
+                    for(int j = 0; j < n; ++j)
+                        if(j == b || reaches[b][j])
+                            reaches[i][j] = true;
+        }
+        assertEquals(false, order.isCyclic());
+
+        order.addEdge(0, 0);
+        assertTrue(order.isCyclic());
+        assertTrue(order.createsCycle(3, 6));
+    }
+
+
+    @Test
+    public void testFeedForwardMutations() {
+        seedRandom(41);
+        GraphEncodingCache cache = new GraphEncodingCache(false);
+        GraphEncoding genome = (GraphEncoding) new GraphEncodingBuilder().inputs(4).outputs(3).feedForward()
+                .randomActivations().create(cache);
+        for(int m = 0; m < 500; ++m) {
+            genome.mutate(cache);
+            if(m % 50 == 0) genome = genome.duplicate();
+        }
+
+        assertEquals(false, genome.constructNeuralNetwork().isRecurrent());
+    }
+
+
+    @Test
+    public void testDeterministicInnovations() {
+        //mutate the same genomes in opposite orders, the IDs should only depend on the order they are finished in
+        GraphEncoding[] forward = mutateInOrder(new int[]{0, 1, 2});
+        GraphEncoding[] backward = mutateInOrder(new int[]{2, 1, 0});
+        for(int g = 0; g < forward.length; ++g)
+            assertEquals(0.0f, forward[g].compatibilityDistance(backward[g]), 0.0f);
+    }
+
+
+    @Test
+    public void testFingerprint() throws IOException {
+        seedRandom(53);
+        GraphEncodingCache cache = new GraphEncodingCache(false);
+        GraphEncoding genome = (GraphEncoding) new GraphEncodingBuilder().inputs(3).outputs(2).randomActivations()
+                .create(cache);
+        GraphEncoding copy = genome.duplicate();
+        assertEquals(genome.fingerprint(), copy.fingerprint());
+
+        //the fingerprint kept up to date through the mutations should match one calculated from scratch
+        for(int m = 0; m < 40; ++m)
+            copy.mutate(cache);
+        assertNotEquals(genome.fingerprint(), copy.fingerprint());
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try(CheckpointOutput out = CheckpointOutput.raw(buffer)) {
+            copy.write(out);
+        }
+        try(CheckpointInput in = CheckpointInput.raw(new ByteArrayInputStream(buffer.toByteArray()))) {
+            assertEquals(copy.fingerprint(), GraphEncoding.read(in).fingerprint());
+        }
+    }
+
+
+    private static GraphEncoding[] mutateInOrder(int[] order) {
+        seedRandom(43);
+        GraphEncodingCache cache = new GraphEncodingCache(true);
+        GraphEncoding base = (GraphEncoding) new GraphEncodingBuilder().inputs(3).outputs(2).create(cache);
+        GraphEncoding[] genomes = {base.duplicate(), base.duplicate(), base.duplicate()};
+
+        for(int g : order) {
+            Rand.useStream(new SplittableRandom(g));
+            for(int m = 0; m < 60; ++m)
+                genomes[g].mutate(cache);
+        }
+        Rand.useStream(null);
+
+        for(GraphEncoding genome : genomes)
+            genome.finishGeneration(cache);
+        return genomes;
+    }
+}
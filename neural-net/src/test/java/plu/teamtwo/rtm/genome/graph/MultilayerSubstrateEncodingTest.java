@@ -1,11 +1,16 @@
 package plu.teamtwo.rtm.genome.graph;
 
 import org.junit.Test;
+import plu.teamtwo.rtm.genome.Genome;
+import plu.teamtwo.rtm.genome.GenomeCache;
 import plu.teamtwo.rtm.neat.GAController;
 import plu.teamtwo.rtm.neat.ScoringFunction;
+import plu.teamtwo.rtm.neural.NeuralNetwork;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static plu.teamtwo.rtm.core.util.Rand.getRandomNum;
+import static plu.teamtwo.rtm.core.util.Rand.seedRandom;
 
 
 public class MultilayerSubstrateEncodingTest {
@@ -23,6 +28,35 @@ public class MultilayerSubstrateEncodingTest {
     }
 
 
+    @Test
+    public void testParallelTranscriptionIsDeterministic() {
+        NeuralNetwork[] networks = new NeuralNetwork[3];
+        int[] threads = {1, 3, 8};
+        for(int i = 0; i < networks.length; ++i) {
+            seedRandom(4211);
+            MultilayerSubstrateEncodingBuilder builder = new MultilayerSubstrateEncodingBuilder()
+                    .inputs(new int[]{6, 5})
+                    .addLayer(new int[]{4, 4})
+                    .outputs(new int[]{3})
+                    .transcriptionThreads(threads[i]);
+
+            GenomeCache cache = builder.createCache();
+            Genome genome = builder.create(cache);
+            for(int m = 0; m < 20; ++m)
+                genome.mutate(cache);
+            networks[i] = genome.constructNeuralNetwork();
+        }
+
+        float[] inputs = new float[30];
+        for(int i = 0; i < inputs.length; ++i)
+            inputs[i] = (float) Math.cos(i);
+
+        final float[] expected = networks[0].calculate(inputs.clone());
+        for(int i = 1; i < networks.length; ++i)
+            assertArrayEquals(expected, networks[i].calculate(inputs.clone()), 0.0f);
+    }
+
+
     private class ScoreFunction implements ScoringFunction {
         private int count = 0;
 
@@ -0,0 +1,29 @@
+package plu.teamtwo.rtm.genome.graph;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SubstrateCoordinatesTest {
+    @Test
+    public void testPositions() {
+        SubstrateCoordinates coordinates = new SubstrateCoordinates(new int[][]{{2, 3, 2}, {4}});
+        assertEquals(3, coordinates.dimensions(0));
+        assertEquals(1, coordinates.dimensions(1));
+
+        //(1, 1, 0) -> 8
+        float[] pos = new float[3];
+        coordinates.copyPosition(0, 8, pos, 0);
+        assertArrayEquals(new float[]{0.5f, 0.0f, -0.5f}, pos, 1e-6f);
+
+        //each layer uses its own dimensions
+        float[] combined = new float[5];
+        coordinates.copyPosition(0, 0, combined, 0);
+        for(int out = 0; out < 4; ++out) {
+            coordinates.copyPosition(1, out, combined, 3);
+            assertEquals(-0.75f + 0.5f * out, combined[3], 1e-6f);
+            assertEquals(0.0f, combined[4], 0.0f);
+        }
+    }
+}
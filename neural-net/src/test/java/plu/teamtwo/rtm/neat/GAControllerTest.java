@@ -0,0 +1,411 @@
+package plu.teamtwo.rtm.neat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import plu.teamtwo.rtm.core.async.GlobalThreadPool;
+import plu.teamtwo.rtm.genome.graph.GraphEncodingBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static plu.teamtwo.rtm.core.util.Rand.seedRandom;
+
+public class GAControllerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testParallelAssessment() throws Exception {
+        try {
+            GlobalThreadPool.shutdown(1, TimeUnit.MINUTES);
+            GlobalThreadPool.setParallelism(4);
+            GAController controller = evolve(new GAController(specs()), 7, 0);
+
+            //individuals should be scored on several threads at once
+            AtomicInteger scored = new AtomicInteger(0);
+            Set<Thread> threads = ConcurrentHashMap.newKeySet();
+            assertEquals(false, controller.assesGeneration(new ScoreFunction(scored, false, 0, threads)));
+            assertEquals(64, scored.get());
+            assertTrue(threads.size() > 1);
+            assertTrue(controller.getBestIndividual().getFitness() > 0.0f);
+
+            //unless the scoring function can only be used from one thread, then they stay on the caller
+            scored.set(0);
+            threads.clear();
+            assertEquals(true, controller.assesGeneration(new ScoreFunction(scored, true, 1, threads)));
+            assertEquals(64, scored.get());
+            assertEquals(Collections.singleton(Thread.currentThread()), threads);
+        } finally {
+            GlobalThreadPool.shutdown(1, TimeUnit.MINUTES);
+            GlobalThreadPool.setParallelism(0);
+        }
+    }
+
+
+    @Test
+    public void testParallelBreeding() throws Exception {
+        //breeding on one thread and on several from the same seed should give exactly the same genomes
+        byte[] serial, parallel;
+        try {
+            serial = evolveOn(1, 11);
+            parallel = evolveOn(4, 11);
+        } finally {
+            GlobalThreadPool.shutdown(1, TimeUnit.MINUTES);
+            GlobalThreadPool.setParallelism(0);
+        }
+        assertArrayEquals(serial, parallel);
+    }
+
+
+    @Test
+    public void testReproducibleRuns() throws IOException {
+        //breeding and speciation are spread over threads, runs with the same seed should still have exactly the same
+        // genomes and innovation numbers without having to ask for deterministic innovations
+        assertArrayEquals(checkpoint(evolve(new GAController(specs()), 13, 8)),
+                          checkpoint(evolve(new GAController(specs()), 13, 8)));
+    }
+
+
+    @Test
+    public void testCheckpointRoundTrip() throws IOException {
+        GraphEncodingBuilder specs = specs();
+        GAController controller = evolve(new GAController(specs), 19, 4);
+        AtomicInteger scored = new AtomicInteger(0);
+        controller.assesGeneration(new ScoreFunction(scored, false));
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final byte[] plain = checkpoint(controller);
+        GAController.writeCheckpoint(controller, compressed, true);
+        assertTrue(compressed.size() < plain.length);
+
+        GAController restored = GAController.readCheckpoint(new ByteArrayInputStream(compressed.toByteArray()), specs);
+        assertEquals(controller.getGenerationNum(), restored.getGenerationNum());
+        assertEquals(controller.getFitness(), restored.getFitness(), 0.0f);
+        assertEquals(controller.getBestIndividual().getFitness(), restored.getBestIndividual().getFitness(), 0.0f);
+
+        //the restored run should carry on exactly like the original
+        assertArrayEquals(plain, checkpoint(restored));
+        for(GAController c : new GAController[]{controller, restored}) {
+            seedRandom(29);
+            c.nextGeneration();
+            c.assesGeneration(new ScoreFunction(scored, false));
+        }
+        assertEquals(controller.getFitness(), restored.getFitness(), 0.0f);
+    }
+
+
+    @Test
+    public void testBackgroundAutoSave() throws IOException {
+        GraphEncodingBuilder specs = specs();
+        GAController controller = new GAController(specs);
+        controller.setAutoSave(folder.getRoot().getPath(), 1, true, false);
+        float[] fitness = new float[3];
+        evolve(controller, 37, fitness.length, (c, g) -> fitness[g] = c.getFitness());
+        assertTrue(controller.finishAutoSave());
+
+        //every generation should be saved as it was before breeding, without leftover temporary files
+        String[] files = folder.getRoot().list();
+        Arrays.sort(files);
+        assertArrayEquals(new String[]{"G00000.rtmc", "G00001.rtmc", "G00002.rtmc"}, files);
+        for(int g = 0; g < fitness.length; ++g) {
+            File file = new File(folder.getRoot(), files[g]);
+            GAController saved = GAController.readCheckpoint(new FileInputStream(file), specs);
+            assertEquals(g, saved.getGenerationNum());
+            assertEquals(fitness[g], saved.getFitness(), 0.0f);
+        }
+        assertEquals(2, Archiver.readFromFile(folder.getRoot().getPath(), specs).getGenerationNum());
+    }
+
+
+    @Test
+    public void testGenomeStore() throws IOException {
+        GraphEncodingBuilder specs = specs();
+        GAController controller = new GAController(specs);
+        controller.setAutoSave(folder.getRoot().getPath());
+        //keep a full checkpoint of every generation to compare against
+        byte[][] expected = new byte[6][];
+        evolve(controller, 41, expected.length, (c, g) -> expected[g] = checkpoint(c));
+        controller.setAutoSave(null);
+
+        //reopen the store from disk, every generation should come back exactly as it was
+        File dir = folder.getRoot();
+        long fullSize = 0;
+        for(byte[] full : expected)
+            fullSize += full.length;
+        assertTrue(new File(dir, GenomeStore.DATA_FILE).length() < fullSize);
+        final int stored;
+        try(GenomeStore store = new GenomeStore(dir, specs)) {
+            stored = store.size();
+            assertTrue(stored < expected.length * 64); //protected leaders are only stored once
+        }
+        try(RunArchive archive = new RunArchive(dir, specs)) {
+            for(int g = 0; g < expected.length; ++g)
+                assertArrayEquals(expected[g], checkpoint(archive.readGeneration(g)));
+        }
+        assertEquals(expected.length - 1, Archiver.readFromFile(dir.getPath(), specs).getGenerationNum());
+
+        //cut off the end of the last block as a crash before it was on disk would, its genomes should be dropped
+        try(RandomAccessFile data = new RandomAccessFile(new File(dir, GenomeStore.DATA_FILE), "rw")) {
+            data.setLength(data.length() - 3);
+        }
+        try(GenomeStore store = new GenomeStore(dir, specs)) {
+            assertTrue(store.size() < stored);
+        }
+    }
+
+
+    @Test
+    public void testRunArchive() throws IOException {
+        GraphEncodingBuilder specs = specs();
+        GAController controller = evolve(new GAController(specs), 43, 0);
+        File dir = folder.getRoot();
+        AtomicInteger scored = new AtomicInteger(0);
+        GAController[] expected = new GAController[5];
+        try(RunArchive archive = new RunArchive(dir, specs)) {
+            for(int g = 0; g < expected.length; ++g) {
+                controller.assesGeneration(new ScoreFunction(scored, false));
+                archive.append(controller, false);
+                expected[g] = controller;
+                controller = archive.readGeneration(g); //resume from the archive to keep an unchanged copy
+                controller.nextGeneration();
+            }
+        }
+
+        //break the last index entry as a crash part way through writing it would
+        try(RandomAccessFile index = new RandomAccessFile(new File(dir, RunArchive.INDEX_FILE), "rw")) {
+            index.setLength(index.length() - 3);
+        }
+
+        try(RunArchive archive = new RunArchive(dir, specs)) {
+            assertEquals(expected.length - 1, archive.size());
+            assertEquals(0, archive.firstGeneration());
+            assertEquals(expected.length - 2, archive.lastGeneration());
+            for(int g = expected.length - 2; g >= 0; --g) {
+                assertEquals(expected[g].getFitness(), archive.fitness(g), 0.0f);
+                Individual best = expected[g].getBestIndividual();
+                assertEquals(best.getFitness(), archive.championFitness(g), 0.0f);
+                assertEquals(0.0f, best.compatibilityDistance(archive.readChampion(g)), 0.0f);
+
+                //each species can be read on its own
+                int[] ids = archive.speciesIDs(g);
+                assertEquals(expected[g].getSpecies().size(), ids.length);
+                for(int s = 0; s < ids.length; ++s) {
+                    Species species = expected[g].getSpecies().get(s);
+                    assertEquals(species.speciesID, ids[s]);
+                    List<Individual> members = archive.readSpecies(g, ids[s]);
+                    assertEquals(species.size(), members.size());
+                    assertEquals(species.getChampion().getFitness(), members.get(0).getFitness(), 0.0f);
+                }
+                assertNull(archive.readSpecies(g, Integer.MAX_VALUE));
+            }
+
+            //appending an earlier generation drops the ones after it
+            archive.append(expected[1], false);
+            assertEquals(2, archive.size());
+            assertEquals(1, archive.lastGeneration());
+        }
+        assertEquals(1, Archiver.readFromFile(dir.getPath(), specs).getGenerationNum());
+    }
+
+
+    @Test
+    public void testEvaluationCache() throws IOException {
+        //no cache, a cache, and a cache with re-evaluation forced
+        AtomicInteger[] scored = {new AtomicInteger(0), new AtomicInteger(0), new AtomicInteger(0)};
+        float[][] fitness = new float[scored.length][6];
+        for(int r = 0; r < scored.length; ++r) {
+            GAController controller = new GAController(specs());
+            if(r > 0) controller.setEvaluationCache(new EvaluationCache(1000, 2));
+            final float[] run = fitness[r];
+            evolve(controller, 47, run.length, scored[r], r == 2, (c, g) -> run[g] = c.getFitness());
+        }
+
+        //cached results are the same as scoring the genomes again, but at least the champions are not scored again
+        assertArrayEquals(fitness[0], fitness[1], 0.0f);
+        assertArrayEquals(fitness[0], fitness[2], 0.0f);
+        assertTrue(scored[1].get() < scored[0].get());
+        assertEquals(scored[0].get(), scored[2].get());
+    }
+
+
+    private static byte[] evolveOn(int threads, long seed) throws Exception {
+        GlobalThreadPool.shutdown(1, TimeUnit.MINUTES);
+        GlobalThreadPool.setParallelism(threads);
+        AtomicInteger scored = new AtomicInteger(0);
+        GAController controller = evolve(new GAController(specs()), seed, 10, scored, false,
+                                         (c, g) -> assertEquals(64, scored.getAndSet(0)));
+        assertEquals(10, controller.getGenerationNum());
+        return checkpoint(controller);
+    }
+
+
+    /**
+     * @return Builder for the genomes of the runs in these tests.
+     */
+    private static GraphEncodingBuilder specs() {
+        return new GraphEncodingBuilder().inputs(2).outputs(1).randomActivations();
+    }
+
+
+    /**
+     * Seed the random numbers, create the first generation of a run and then assess and breed generations.
+     *
+     * @param controller  Controller to run, with any settings (e.g. auto saving) already applied.
+     * @param seed        Seed for the random numbers.
+     * @param generations Number of generations to assess and breed.
+     * @return The controller, with the generation after the last one bred but not assessed.
+     */
+    private static GAController evolve(GAController controller, long seed, int generations) throws IOException {
+        return evolve(controller, seed, generations, (c, g) -> {});
+    }
+
+
+    /**
+     * See evolve(controller, seed, generations).
+     *
+     * @param assessed Called with each generation once it has been assessed, before the next one is bred.
+     */
+    private static GAController evolve(GAController controller, long seed, int generations, Assessed assessed)
+            throws IOException {
+        return evolve(controller, seed, generations, new AtomicInteger(0), false, assessed);
+    }
+
+
+    /**
+     * See evolve(controller, seed, generations).
+     *
+     * @param scored     Counts the individuals which are scored.
+     * @param reevaluate Passed on to assesGeneration.
+     * @param assessed   Called with each generation once it has been assessed, before the next one is bred.
+     */
+    private static GAController evolve(GAController controller, long seed, int generations, AtomicInteger scored,
+                                       boolean reevaluate, Assessed assessed) throws IOException {
+        seedRandom(seed);
+        controller.createFirstGeneration();
+        for(int g = 0; g < generations; ++g) {
+            controller.assesGeneration(new ScoreFunction(scored, false), reevaluate);
+            assessed.accept(controller, g);
+            controller.nextGeneration();
+        }
+        return controller;
+    }
+
+
+    /**
+     * @return An uncompressed checkpoint of the controller.
+     */
+    private static byte[] checkpoint(GAController controller) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GAController.writeCheckpoint(controller, out, false);
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Called with each generation of a run once it has been assessed.
+     */
+    private interface Assessed {
+        void accept(GAController controller, int generation) throws IOException;
+    }
+
+
+    private static class ScoreFunction implements ScoringFunction {
+        private final AtomicInteger scored;
+        private final boolean winner;
+        private final int maxThreads;
+        /// Threads individuals were scored on, or null to not record them.
+        private final Set<Thread> threads;
+        private float score = 0;
+        private boolean done = false;
+
+
+        ScoreFunction(AtomicInteger scored, boolean winner) {
+            this(scored, winner, 0, null);
+        }
+
+
+        ScoreFunction(AtomicInteger scored, boolean winner, int maxThreads, Set<Thread> threads) {
+            this.scored = scored;
+            this.winner = winner;
+            this.maxThreads = maxThreads;
+            this.threads = threads;
+        }
+
+
+        @Override
+        public ScoringFunction createNew() {
+            return new ScoreFunction(scored, winner, maxThreads, threads);
+        }
+
+
+        @Override
+        public int getMaxThreads() {
+            return maxThreads;
+        }
+
+
+        @Override
+        public boolean flushBetween() {
+            return true;
+        }
+
+
+        @Override
+        public boolean realTimeProcessing() {
+            return false;
+        }
+
+
+        @Override
+        public float[] generateInput() {
+            if(done) return null;
+            done = true;
+            if(threads != null) {
+                threads.add(Thread.currentThread());
+                try {
+                    Thread.sleep(2); //long enough for every thread to pick up individuals
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new float[]{1.0f, 0.5f};
+        }
+
+
+        @Override
+        public void acceptOutput(float[] output) {
+            assertEquals(1, output.length);
+            score = output[0] + 1.0f;
+        }
+
+
+        @Override
+        public double getScore() {
+            scored.incrementAndGet();
+            return score;
+        }
+
+
+        @Override
+        public boolean isWinner() {
+            return winner;
+        }
+    }
+}
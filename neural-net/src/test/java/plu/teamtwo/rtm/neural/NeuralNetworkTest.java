@@ -69,6 +69,77 @@ public class NeuralNetworkTest {
     }
 
 
+    @Test
+    public void compiledNetworkTest() {
+        //Inputs:   0, 1
+        //Outputs:  2
+        //Hidden:   3, 4
+        //0 -> 3 -> 4 -> 2
+        //1 -> 4
+        //0 -> 2
+
+        CPPNBuilder builder = new CPPNBuilder()
+                .inputs(2)
+                .outputs(1)
+                .hidden(2)
+                .connect(0, 2, 0.5f)
+                .connect(0, 3, 2.0f)
+                .connect(3, 4, -1.0f)
+                .connect(1, 4, 3.0f)
+                .connect(4, 2, 1.5f);
+
+        for(int i = 0; i < 5; ++i)
+            builder.setFunction(i, ActivationFunction.LINEAR);
+
+        NeuralNetwork compiled = builder.create();
+        NeuralNetwork interpreted = builder.compile(false).create();
+
+        //0.5a + 1.5(3b - 2a)
+        assertEquals(-2.5f, compiled.calculate(1.0f, 0.0f)[0], 1e-4);
+        assertEquals(6.5f, compiled.calculate(1.0f, 2.0f)[0], 1e-4);
+
+        for(float a = -1.0f; a <= 1.0f; a += 0.25f) {
+            for(float b = -1.0f; b <= 1.0f; b += 0.25f) {
+                interpreted.flush();
+                assertEquals(interpreted.calculate(a, b)[0], compiled.calculate(a, b)[0], 1e-4);
+            }
+        }
+    }
+
+
+    @Test
+    public void batchNetworkTest() {
+        NeuralNetwork net = new CPPNBuilder()
+                .inputs(3)
+                .outputs(2)
+                .hidden(2)
+                .connect(0, 3,  0.21f)
+                .connect(2, 5, -1.19f)
+                .connect(1, 5,  1.94f)
+                .connect(5, 6,  0.73f)
+                .connect(0, 6, -0.52f)
+                .connect(6, 3, -1.86f)
+                .connect(6, 4,  1.12f)
+                .setFunction(5, ActivationFunction.GAUSSIAN)
+                .setFunction(6, ActivationFunction.SINUSOID)
+                .create();
+
+        //more rows than a single block to make sure the blocks line up
+        float[][] inputs = new float[300][3];
+        float[][] outputs = new float[300][2];
+        for(int r = 0; r < inputs.length; ++r)
+            for(int i = 0; i < 3; ++i)
+                inputs[r][i] = (float) Math.sin(r * 3 + i);
+
+        net.calculateBatch(inputs, outputs);
+        for(int r = 0; r < inputs.length; ++r) {
+            final float[] expected = net.calculate(inputs[r]);
+            assertEquals(expected[0], outputs[r][0], 1e-6);
+            assertEquals(expected[1], outputs[r][1], 1e-6);
+        }
+    }
+
+
     @Test
     public void recurrentNeuralNetworkTest() {
         //Inputs:   0, 1
@@ -1,8 +1,12 @@
 package plu.teamtwo.rtm.neural;
 
 import org.junit.Test;
+import plu.teamtwo.rtm.core.async.GlobalThreadPool;
+
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class SubstrateNetworkTest {
 
@@ -48,4 +52,131 @@ public class SubstrateNetworkTest {
         assertEquals(1, output.length);
         assertEquals(1.0f, output[0], 1e-4);
     }
-}
\ No newline at end of file
+
+
+    @Test
+    public void testSparseMatchesDense() {
+        int[][] layers = new int[][]{{8, 6}, {5, 5}, {3}};
+        float[][][] weights = new float[][][]{new float[25][48], new float[3][25]};
+        for(int l = 0; l < weights.length; ++l)
+            for(int o = 0; o < weights[l].length; ++o)
+                for(int i = 0; i < weights[l][o].length; ++i)
+                    if((o * 7 + i * 3 + l) % 5 == 0) //leave most of them unexpressed
+                        weights[l][o][i] = (float) Math.sin(o + i * 0.5);
+
+        NeuralNetwork dense = new SubstrateNetworkBuilder().layers(layers).weights(weights).sparseDensity(0.0f).create();
+        NeuralNetwork sparse = new SubstrateNetworkBuilder().layers(layers).weights(weights).sparseDensity(1.0f).create();
+
+        float[] inputs = new float[48];
+        for(int i = 0; i < inputs.length; ++i)
+            inputs[i] = (float) Math.cos(i);
+
+        float[] expected = dense.calculate(inputs.clone());
+        float[] output = sparse.calculate(inputs.clone());
+        assertEquals(3, output.length);
+        for(int i = 0; i < output.length; ++i)
+            assertEquals(expected[i], output[i], 1e-5);
+    }
+
+
+    @Test
+    public void testVectorBackend() {
+        int[][] layers = new int[][]{{7, 9}, {5, 4}, {2}};
+        float[][][] weights = new float[][][]{new float[20][63], new float[2][20]};
+        for(int l = 0; l < weights.length; ++l)
+            for(int o = 0; o < weights[l].length; ++o)
+                for(int i = 0; i < weights[l][o].length; ++i)
+                    weights[l][o][i] = (float) Math.sin(o * 1.3 + i * 0.7 + l) * 0.2f;
+
+        NeuralNetwork scalar = new SubstrateNetworkBuilder().layers(layers).weights(weights)
+                .backend(CalculationBackend.SCALAR).create();
+        NeuralNetwork vector = new SubstrateNetworkBuilder().layers(layers).weights(weights)
+                .backend(CalculationBackend.VECTOR).create();
+
+        float[] inputs = new float[63];
+        for(int i = 0; i < inputs.length; ++i)
+            inputs[i] = (float) Math.cos(i);
+
+        float[] expected = scalar.calculate(inputs.clone());
+        float[] output = vector.calculate(inputs.clone());
+        for(int i = 0; i < output.length; ++i)
+            assertEquals(expected[i], output[i], 1e-5);
+    }
+
+
+    @Test
+    public void testLargeLayerIsSplit() throws InterruptedException {
+        //more than twice the largest threshold calibration can give, so the first layer is always split in two or more
+        final int inputs = 2048, hidden = 4160;
+        int[][] layers = new int[][]{{inputs}, {hidden}, {1}};
+        float[][][] weights = new float[][][]{new float[hidden][inputs], new float[1][hidden]};
+        for(int o = 0; o < hidden; ++o) {
+            for(int i = 0; i < inputs; ++i)
+                weights[0][o][i] = ((o * 31 + i * 7) % 11 - 5.5f) * 1e-3f;
+            weights[1][0][o] = ((o % 5) - 2) * 1e-2f;
+        }
+
+        float[] values = new float[inputs];
+        for(int i = 0; i < inputs; ++i)
+            values[i] = (float) Math.cos(i);
+
+        double expected = 0.0;
+        for(int o = 0; o < hidden; ++o) {
+            double sum = 0.0;
+            for(int i = 0; i < inputs; ++i)
+                sum += weights[0][o][i] * values[i];
+            expected += weights[1][0][o] * sum;
+        }
+
+        try {
+            GlobalThreadPool.shutdown(1, TimeUnit.MINUTES);
+            GlobalThreadPool.setParallelism(4);
+            SubstrateNetwork net = (SubstrateNetwork) new SubstrateNetworkBuilder().layers(layers).weights(weights)
+                    .inputFunction(ActivationFunction.LINEAR)
+                    .hiddenFunction(ActivationFunction.LINEAR)
+                    .outputFunction(ActivationFunction.LINEAR)
+                    .create();
+            assertTrue(net.splits(0) >= 2);
+
+            float[] first = net.calculate(values.clone());
+            float[] second = net.calculate(values.clone());
+            assertEquals(expected, first[0], 1e-3);
+            assertEquals(first[0], second[0], 0.0f);
+        } finally {
+            GlobalThreadPool.shutdown(1, TimeUnit.MINUTES);
+            GlobalThreadPool.setParallelism(0);
+        }
+    }
+
+
+    @Test
+    public void testBatchMatchesCalculate() {
+        int[][] layers = new int[][]{{6, 5}, {4, 4}, {3}};
+        float[][][] weights = new float[][][]{new float[16][30], new float[3][16]};
+        for(int l = 0; l < weights.length; ++l)
+            for(int o = 0; o < weights[l].length; ++o)
+                for(int i = 0; i < weights[l][o].length; ++i)
+                    if((o + i + l) % 3 != 0)
+                        weights[l][o][i] = (float) Math.sin(o * 0.9 + i * 0.4 + l) * 0.3f;
+
+        float[][] inputs = new float[37][30]; //not a multiple of the sample block
+        for(int n = 0; n < inputs.length; ++n)
+            for(int i = 0; i < inputs[n].length; ++i)
+                inputs[n][i] = (float) Math.cos(n * 0.3 + i);
+
+        for(CalculationBackend backend : CalculationBackend.values()) {
+            for(float sparseDensity : new float[]{0.0f, 1.0f}) {
+                NeuralNetwork net = new SubstrateNetworkBuilder().layers(layers).weights(weights)
+                        .backend(backend).sparseDensity(sparseDensity).create();
+
+                float[][] batch = net.calculateBatch(inputs);
+                assertEquals(inputs.length, batch.length);
+                for(int n = 0; n < inputs.length; ++n) {
+                    float[] expected = net.calculate(inputs[n].clone());
+                    for(int o = 0; o < expected.length; ++o)
+                        assertEquals(expected[o], batch[n][o], 0.0f);
+                }
+            }
+        }
+    }
+}